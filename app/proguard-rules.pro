@@ -28,7 +28,7 @@
 # Keep OpenCV related classes
 -keep class com.example.opencvopenglapp.OpenCVProcessor { *; }
 -keep class com.example.opencvopenglapp.OpenGLRenderer { *; }
--keep class com.example.opencvopenglapp.CameraHandler { *; }
+-keep class com.example.opencvopenglapp.Camera2FrameSource { *; }
 
 # Keep JNI methods
 -keepclasseswithmembers class * {
@@ -0,0 +1,59 @@
+package com.example.opencvopenglapp;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+
+/**
+ * An offscreen GL context for instrumented tests: a pbuffer surface of the
+ * given size, current on the thread that created it. Works on an emulator
+ * with SwiftShader as well as on hardware.
+ */
+class EglTestContext {
+    final EGLDisplay display;
+    final EGLContext context;
+    final EGLSurface surface;
+
+    /** clientVersion is 2 or 3, like the app's contexts. */
+    EglTestContext(int width, int height, int clientVersion) {
+        display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        check(EGL14.eglInitialize(display, version, 0, version, 1), "eglInitialize");
+        int[] configAttributes = {
+                EGL14.EGL_RENDERABLE_TYPE,
+                clientVersion >= 3 ? EGLExt.EGL_OPENGL_ES3_BIT_KHR : EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_NONE};
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] configCount = new int[1];
+        check(EGL14.eglChooseConfig(display, configAttributes, 0, configs, 0, 1, configCount, 0)
+                && configCount[0] > 0, "eglChooseConfig");
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, clientVersion, EGL14.EGL_NONE};
+        context = EGL14.eglCreateContext(display, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+        check(context != null && context != EGL14.EGL_NO_CONTEXT, "eglCreateContext");
+        int[] surfaceAttributes = {EGL14.EGL_WIDTH, width, EGL14.EGL_HEIGHT, height, EGL14.EGL_NONE};
+        surface = EGL14.eglCreatePbufferSurface(display, configs[0], surfaceAttributes, 0);
+        check(surface != null && surface != EGL14.EGL_NO_SURFACE, "eglCreatePbufferSurface");
+        check(EGL14.eglMakeCurrent(display, surface, surface, context), "eglMakeCurrent");
+    }
+
+    void release() {
+        EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        EGL14.eglDestroySurface(display, surface);
+        EGL14.eglDestroyContext(display, context);
+        EGL14.eglReleaseThread();
+    }
+
+    private static void check(boolean ok, String call) {
+        if (!ok) {
+            throw new IllegalStateException(call + " failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+        }
+    }
+}
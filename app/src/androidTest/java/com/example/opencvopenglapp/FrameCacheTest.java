@@ -0,0 +1,75 @@
+package com.example.opencvopenglapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The per-frame cache must convert each frame to gray once, however many
+ * stages ask for it, and only share products derived from that gray image.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameCacheTest {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final int STRIDE = WIDTH * 4;
+    private static final int FRAME_COUNT = 10;
+
+    private OpenCVProcessor processor;
+    private ByteBuffer frame;
+
+    @Before
+    public void setUp() {
+        processor = new OpenCVProcessor();
+        frame = ByteBuffer.allocateDirect(STRIDE * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int offset = y * STRIDE + x * 4;
+                frame.put(offset, (byte) (x * 255 / WIDTH));
+                frame.put(offset + 1, (byte) (y * 255 / HEIGHT));
+                frame.put(offset + 2, (byte) ((x / 16 + y / 16) % 2 * 255));
+                frame.put(offset + 3, (byte) 255);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        processor.destroy();
+    }
+
+    @Test
+    public void grayIsConvertedOncePerFrame() {
+        // Both stages ask the cache for gray: the conversion and the integral
+        OpenCVProcessor.CacheStats stats = process("gray|adaptive:15,5");
+        assertEquals(FRAME_COUNT, stats.frames);
+        assertEquals("Conversions", FRAME_COUNT, stats.misses[OpenCVProcessor.CacheStats.PRODUCT_GRAY]);
+        assertEquals("Shared gray", FRAME_COUNT, stats.hits[OpenCVProcessor.CacheStats.PRODUCT_GRAY]);
+        assertEquals(FRAME_COUNT, stats.misses[OpenCVProcessor.CacheStats.PRODUCT_INTEGRAL]);
+    }
+
+    @Test
+    public void filteredGrayIsNotShared() {
+        // The blurred image isn't the frame's gray, so its integral is the stage's own
+        OpenCVProcessor.CacheStats stats = process("gray|gauss:5|adaptive:15,5");
+        assertEquals(FRAME_COUNT, stats.misses[OpenCVProcessor.CacheStats.PRODUCT_GRAY]);
+        assertEquals(0, stats.hits[OpenCVProcessor.CacheStats.PRODUCT_GRAY]);
+        assertEquals(0, stats.misses[OpenCVProcessor.CacheStats.PRODUCT_INTEGRAL]);
+    }
+
+    private OpenCVProcessor.CacheStats process(String pipeline) {
+        assertTrue(processor.setPipeline(pipeline));
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            assertTrue(processor.processFrameToRing(frame, WIDTH, HEIGHT, STRIDE, i) >= 0);
+        }
+        return processor.getCacheStats();
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.opencvopenglapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.app.Instrumentation;
+import android.os.Debug;
+import android.os.SystemClock;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The GL thread's per-frame path (camera frame task, processing, upload and
+ * the renderer's draw) must not allocate once warmed up. Runs the app on the
+ * (emulated) camera and counts allocations on the GL thread only, so the
+ * once-a-second statistics on the UI thread don't count.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FramePathAllocationTest {
+    private static final long TIMEOUT_MS = 20_000;
+    private static final int WARM_UP_FRAMES = 60;
+    private static final int MEASURED_FRAMES = 120;
+
+    @Before
+    public void grantCamera() throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        instrumentation.getUiAutomation().executeShellCommand("pm grant "
+                + instrumentation.getTargetContext().getPackageName() + " android.permission.CAMERA").close();
+    }
+
+    @Test
+    public void nativeBackendAllocatesNothingPerFrame() throws Exception {
+        assertEquals(0, countFramePathAllocations(CameraGLSurfaceView.BACKEND_NATIVE));
+    }
+
+    @Test
+    public void gpuBackendAllocatesNothingPerFrame() throws Exception {
+        assertEquals(0, countFramePathAllocations(CameraGLSurfaceView.BACKEND_GPU));
+    }
+
+    private int countFramePathAllocations(final int backend) throws Exception {
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            final CameraGLSurfaceView[] views = new CameraGLSurfaceView[1];
+            scenario.onActivity(new ActivityScenario.ActivityAction<MainActivity>() {
+                @Override
+                public void perform(MainActivity activity) {
+                    views[0] = activity.findViewById(R.id.gl_surface_view);
+                    views[0].setProcessingBackend(backend);
+                    views[0].setProcessingEnabled(true);
+                }
+            });
+            CameraGLSurfaceView view = views[0];
+            awaitFrames(view, WARM_UP_FRAMES);
+
+            ThreadAllocationCounter counter = new ThreadAllocationCounter();
+            view.queueEvent(counter.start);
+            awaitFrames(view, MEASURED_FRAMES);
+            view.queueEvent(counter.stop);
+            assertTrue("GL thread stalled", counter.stopped.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            return counter.allocations;
+        }
+    }
+
+    private static void awaitFrames(CameraGLSurfaceView view, int frames) {
+        FramePacer pacer = view.getFramePacer();
+        long target = pacer.getFramesPresented() + frames;
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (pacer.getFramesPresented() < target) {
+            assertTrue("Only " + pacer.getFramesPresented() + " of " + target + " frames presented",
+                    SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(10);
+        }
+    }
+
+    // Both tasks run on the GL thread, in between frames
+    private static class ThreadAllocationCounter {
+        final CountDownLatch stopped = new CountDownLatch(1);
+        volatile int allocations = -1;
+
+        final Runnable start = new Runnable() {
+            @Override
+            public void run() {
+                Debug.startAllocCounting();
+                Debug.resetThreadAllocCount();
+            }
+        };
+
+        final Runnable stop = new Runnable() {
+            @Override
+            public void run() {
+                int count = Debug.getThreadAllocCount();
+                Debug.stopAllocCounting();
+                allocations = count;
+                stopped.countDown();
+            }
+        };
+    }
+}
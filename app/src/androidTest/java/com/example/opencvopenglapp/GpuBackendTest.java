@@ -0,0 +1,150 @@
+package com.example.opencvopenglapp;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs every GpuProcessor mode on a known frame in an offscreen context and
+ * checks the result against OpenCVProcessor on the same pixels. Meant for an
+ * emulator with SwiftShader, so the shaders are checked on every CI run, not
+ * just on whatever GPU a developer has.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GpuBackendTest {
+    private static final String TAG = "GpuBackendTest";
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    // Nothing but background this close to the border, where the GPU clamps
+    // and OpenCV reflects
+    private static final int MARGIN = 16;
+    private static final int CELL = 32;
+
+    private static final int[] MODES = {0, 1, 2};
+    private static final String[] MODE_NAMES = {"grayscale", "edges", "blur"};
+    private static final int MODE_EDGES = 1;
+    // Per channel, 0-255: grayscale and blur differ by rounding only
+    private static final int[] MAX_ERROR = {2, -1, 4};
+    private static final double[] MEAN_ERROR = {0.5, -1, 1.0};
+    // Edges come from different detectors, so they are compared by tracing
+    // the same lines within a pixel (Sobel lines are two pixels wide, Canny
+    // ones one), which leaves only corners to disagree
+    private static final double MIN_EDGE_AGREEMENT = 0.95;
+
+    private EglTestContext egl;
+    private OpenGLRenderer renderer;
+    private int cameraTextureId;
+    private SurfaceTexture cameraTexture;
+    private HandlerThread callbackThread;
+
+    @Before
+    public void setUp() {
+        egl = new EglTestContext(WIDTH, HEIGHT, 2);
+        renderer = new OpenGLRenderer();
+        renderer.onSurfaceCreated(null, null);
+        renderer.onSurfaceChanged(null, WIDTH, HEIGHT);
+
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        cameraTextureId = textures[0];
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, cameraTextureId);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        cameraTexture = new SurfaceTexture(cameraTextureId);
+        cameraTexture.setDefaultBufferSize(WIDTH, HEIGHT);
+        renderer.setCameraTexture(cameraTextureId);
+
+        callbackThread = new HandlerThread("GpuBackendTest");
+        callbackThread.start();
+    }
+
+    @After
+    public void tearDown() {
+        renderer.releaseTextureUploader();
+        cameraTexture.release();
+        GLES20.glDeleteTextures(1, new int[]{cameraTextureId}, 0);
+        callbackThread.quitSafely();
+        egl.release();
+    }
+
+    @Test
+    public void gpuModesMatchCpu() throws InterruptedException {
+        postTestFrame();
+        ByteBuffer input = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4).order(ByteOrder.nativeOrder());
+        ByteBuffer gpuOutput = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4).order(ByteOrder.nativeOrder());
+        assertTrue("camera readback", renderer.readCameraFrame(input, WIDTH, HEIGHT));
+
+        for (int m = 0; m < MODES.length; m++) {
+            assertTrue(MODE_NAMES[m] + " on the GPU", renderer.processCameraFrameOnGpu(MODES[m], WIDTH, HEIGHT));
+            assertTrue(MODE_NAMES[m] + " readback", renderer.readGpuOutput(gpuOutput));
+            BackendComparison comparison = BackendComparison.compare(MODES[m], input, gpuOutput, WIDTH, HEIGHT);
+            assertNotNull(MODE_NAMES[m] + " on the CPU", comparison);
+            Log.d(TAG, MODE_NAMES[m] + ": " + comparison);
+            if (MODES[m] == MODE_EDGES) {
+                // -1 when either map is empty, so a blank result fails too
+                assertTrue(MODE_NAMES[m] + " agreement: " + comparison,
+                        comparison.edgeAgreement >= MIN_EDGE_AGREEMENT);
+            } else {
+                assertTrue(MODE_NAMES[m] + " max error: " + comparison, comparison.maxError <= MAX_ERROR[m]);
+                assertTrue(MODE_NAMES[m] + " mean error: " + comparison, comparison.meanError <= MEAN_ERROR[m]);
+            }
+        }
+    }
+
+    // Draws blocks of strong contrast, some colored, into the camera texture
+    // the way a camera would deliver a frame, and latches it
+    private void postTestFrame() throws InterruptedException {
+        final CountDownLatch frameAvailable = new CountDownLatch(1);
+        cameraTexture.setOnFrameAvailableListener(new SurfaceTexture.OnFrameAvailableListener() {
+            @Override
+            public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+                frameAvailable.countDown();
+            }
+        }, new Handler(callbackThread.getLooper()));
+
+        Surface surface = new Surface(cameraTexture);
+        Canvas canvas = surface.lockCanvas(null);
+        canvas.drawColor(Color.rgb(128, 128, 128));
+        Paint paint = new Paint();
+        for (int y = MARGIN; y + CELL <= HEIGHT - MARGIN; y += CELL) {
+            for (int x = MARGIN; x + CELL <= WIDTH - MARGIN; x += CELL) {
+                boolean light = ((x + y) / CELL) % 2 == 0;
+                paint.setColor(light ? Color.rgb(255, 255, 255) : Color.rgb(20, 40, 120));
+                canvas.drawRect(x, y, x + CELL, y + CELL, paint);
+            }
+        }
+        surface.unlockCanvasAndPost(canvas);
+        surface.release();
+
+        assertTrue("camera frame", frameAvailable.await(2, TimeUnit.SECONDS));
+        cameraTexture.updateTexImage();
+        float[] transform = new float[16];
+        cameraTexture.getTransformMatrix(transform);
+        renderer.setTextureMatrix(transform);
+    }
+}
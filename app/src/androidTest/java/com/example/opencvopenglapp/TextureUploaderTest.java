@@ -0,0 +1,133 @@
+package com.example.opencvopenglapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.opengl.GLES20;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handoff between the upload context and the render context: the upload
+ * thread fills every frame with its number, the test thread plays the
+ * render thread, latching frames and reading them back through a
+ * framebuffer. A frame must never be seen half written, must never come
+ * before an older one, and must not change while it is displayed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TextureUploaderTest {
+    private static final int WIDTH = 256;
+    private static final int HEIGHT = 128;
+    private static final int FRAME_COUNT = 300;
+    private static final long TIMEOUT_MS = 10_000;
+
+    private EglTestContext egl;
+    private TextureUploader uploader;
+    private final int[] framebuffer = new int[1];
+    private final ByteBuffer readback = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4).order(ByteOrder.nativeOrder());
+
+    @Before
+    public void setUp() {
+        egl = new EglTestContext(WIDTH, HEIGHT, 3);
+        uploader = new TextureUploader(egl.context);
+        GLES20.glGenFramebuffers(1, framebuffer, 0);
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (!uploader.isReady()) {
+            assertTrue("Upload context not ready", SystemClock.uptimeMillis() < deadline);
+            SystemClock.sleep(5);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        uploader.release();
+        GLES20.glDeleteFramebuffers(1, framebuffer, 0);
+        egl.release();
+    }
+
+    @Test
+    public void framesArriveWholeAndInOrder() throws InterruptedException {
+        final CountDownLatch uploaded = new CountDownLatch(1);
+        uploader.post(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer pixels = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4);
+                for (int frame = 1; frame <= FRAME_COUNT; frame++) {
+                    fill(pixels, frame);
+                    // A slot still being drawn drops the frame; send it again
+                    while (!uploader.upload(pixels, WIDTH, HEIGHT, 4)) {
+                        if (!uploader.isReady()) {
+                            return;
+                        }
+                    }
+                }
+                uploaded.countDown();
+            }
+        });
+
+        int lastFrame = 0;
+        int framesSeen = 0;
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (lastFrame < FRAME_COUNT) {
+            assertTrue("Stuck after frame " + lastFrame, SystemClock.uptimeMillis() < deadline);
+            if (!uploader.latchLatest()) {
+                SystemClock.sleep(1);
+                continue;
+            }
+            int texture = uploader.getDisplayedTexture();
+            int frame = readFrame(texture);
+            assertTrue("Frame " + frame + " after frame " + lastFrame, frame > lastFrame);
+            // Meanwhile uploads go on into the other slots
+            SystemClock.sleep(2);
+            assertEquals("Displayed slot was overwritten", frame, readFrame(texture));
+            lastFrame = frame;
+            framesSeen++;
+        }
+        assertTrue("Uploads failed", uploaded.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals(FRAME_COUNT, uploader.getUploaded());
+        assertTrue("No frames seen", framesSeen > 0);
+    }
+
+    // Every pixel is the frame number in red and green, with fixed blue and alpha
+    private static void fill(ByteBuffer pixels, int frame) {
+        byte low = (byte) frame;
+        byte high = (byte) (frame >> 8);
+        for (int i = 0; i < WIDTH * HEIGHT * 4; i += 4) {
+            pixels.put(i, low);
+            pixels.put(i + 1, high);
+            pixels.put(i + 2, (byte) 0x5A);
+            pixels.put(i + 3, (byte) 0xFF);
+        }
+    }
+
+    // Reads texture back and returns its frame number; fails on a torn frame
+    private int readFrame(int texture) {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, texture, 0);
+        readback.position(0);
+        GLES20.glReadPixels(0, 0, WIDTH, HEIGHT, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, readback);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+        int frame = (readback.get(0) & 0xFF) | (readback.get(1) & 0xFF) << 8;
+        for (int i = 0; i < WIDTH * HEIGHT * 4; i += 4) {
+            int pixel = (readback.get(i) & 0xFF) | (readback.get(i + 1) & 0xFF) << 8;
+            if (pixel != frame || readback.get(i + 2) != 0x5A) {
+                fail("Torn frame: pixel " + i / 4 + " is from frame " + pixel + ", pixel 0 from frame " + frame);
+            }
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.opencvopenglapp;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Tiled processing must match the untiled reference bit for bit, whatever the
+ * thread count and strip height, including strips that don't divide the
+ * frame and strips shorter than a filter's halo.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TilingTest {
+    // Built-in modes, see FrameProcessor::pipelineSpecForMode
+    private static final int[] MODES = {0, 1, 2};
+    private static final String[] MODE_NAMES = {"gray", "canny", "gauss:15"};
+    private static final int[] THREAD_COUNTS = {1, 2, 3, 4, 0};
+    // 0 splits evenly; the rest don't divide the height, 1 and 7 are inside the gauss:15 halo
+    private static final int[] STRIP_HEIGHTS = {0, 1, 7, 16, 33, 100, 240};
+
+    // Odd sizes and a padded stride, so no strip height divides the frame
+    private static final int WIDTH = 317;
+    private static final int HEIGHT = 241;
+    private static final int STRIDE = WIDTH * 4 + 12;
+
+    private OpenCVProcessor processor;
+    private ByteBuffer frame;
+
+    @Before
+    public void setUp() {
+        processor = new OpenCVProcessor();
+        frame = ByteBuffer.allocateDirect(STRIDE * HEIGHT);
+        // Noise over blocks and gradients: edges for Canny, detail for the blur
+        Random random = new Random(42);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int base = ((x / 23 + y / 19) % 2) * 128 + (x + y) % 64;
+                int offset = y * STRIDE + x * 4;
+                frame.put(offset, (byte) (base + random.nextInt(48)));
+                frame.put(offset + 1, (byte) (255 - base - random.nextInt(48)));
+                frame.put(offset + 2, (byte) (x * 255 / WIDTH));
+                frame.put(offset + 3, (byte) 255);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        processor.destroy();
+    }
+
+    @Test
+    public void tiledOutputMatchesUntiled() {
+        for (int m = 0; m < MODES.length; m++) {
+            processor.setProcessingMode(MODES[m]);
+            for (int threads : THREAD_COUNTS) {
+                processor.setThreadCount(threads);
+                for (int rows : STRIP_HEIGHTS) {
+                    processor.setStripHeight(rows);
+                    double diff = processor.verifyTiling(frame, WIDTH, HEIGHT, STRIDE);
+                    assertEquals(MODE_NAMES[m] + ", " + threads + " threads, strips of " + rows + " rows",
+                            0.0, diff, 0.0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+#include "frame_cache.h"
+#include <opencv2/imgproc.hpp>
+
+FrameCache::FrameCache(TileEngine& tiles) : tiles(tiles), frames(0) {
+    for (int i = 0; i < PRODUCT_COUNT; i++) {
+        valid[i] = false;
+        hits[i] = 0;
+        misses[i] = 0;
+    }
+}
+
+void FrameCache::beginFrame(const cv::Mat& source) {
+    // Shallow header copy; the caller keeps the pixels alive for the frame
+    sourceMat = source;
+    for (int i = 0; i < PRODUCT_COUNT; i++) {
+        valid[i] = false;
+    }
+    frames++;
+}
+
+void FrameCache::provideGray(const cv::Mat& gray) {
+    CV_Assert(gray.type() == CV_8UC1);
+    // A header onto the caller's plane, not a copy
+    grayMat = gray;
+    valid[PRODUCT_GRAY] = true;
+}
+
+const cv::Mat& FrameCache::source() const {
+    return sourceMat;
+}
+
+bool FrameCache::lookup(FrameProduct product) {
+    if (valid[product]) {
+        hits[product]++;
+        return false;
+    }
+    misses[product]++;
+    valid[product] = true;
+    return true;
+}
+
+const cv::Mat& FrameCache::gray() {
+    if (lookup(PRODUCT_GRAY)) {
+        if (sourceMat.channels() == 1) {
+            grayMat = sourceMat;
+        } else {
+            const int code = sourceMat.channels() == 4 ? cv::COLOR_RGBA2GRAY : cv::COLOR_RGB2GRAY;
+            ownedGray.create(sourceMat.size(), CV_8UC1);
+            tiles.run(sourceMat, ownedGray, 0, [code](const cv::Mat& src, cv::Mat& dst) {
+                cv::cvtColor(src, dst, code);
+            });
+            grayMat = ownedGray;
+        }
+    }
+    return grayMat;
+}
+
+const cv::Mat& FrameCache::integral() {
+    if (lookup(PRODUCT_INTEGRAL)) {
+        cv::integral(gray(), integralMat, CV_32S);
+    }
+    return integralMat;
+}
+
+bool FrameCache::isGray(const cv::Mat& mat) const {
+    return valid[PRODUCT_GRAY] && mat.data == grayMat.data && mat.size() == grayMat.size()
+           && mat.type() == grayMat.type() && mat.step == grayMat.step;
+}
+
+FrameCacheStats FrameCache::getStats() const {
+    FrameCacheStats stats;
+    stats.frames = frames.load();
+    for (int i = 0; i < PRODUCT_COUNT; i++) {
+        stats.hits[i] = hits[i].load();
+        stats.misses[i] = misses[i].load();
+    }
+    return stats;
+}
+
+void FrameCache::resetStats() {
+    frames = 0;
+    for (int i = 0; i < PRODUCT_COUNT; i++) {
+        hits[i] = 0;
+        misses[i] = 0;
+    }
+}
@@ -0,0 +1,63 @@
+#ifndef FRAME_CACHE_H
+#define FRAME_CACHE_H
+
+#include <opencv2/core.hpp>
+#include "tile_engine.h"
+#include <atomic>
+#include <cstdint>
+
+enum FrameProduct {
+    PRODUCT_GRAY = 0,
+    PRODUCT_INTEGRAL = 1,         // integral of gray, CV_32S, (w+1)x(h+1)
+    PRODUCT_COUNT = 2
+};
+
+struct FrameCacheStats {
+    uint64_t frames = 0;
+    uint64_t hits[PRODUCT_COUNT] = {};
+    uint64_t misses[PRODUCT_COUNT] = {};  // computations; never more than frames
+};
+
+// Products derived from the current frame, computed on first request and
+// reused by every later consumer until beginFrame() moves to the next frame.
+// Backing Mats are kept across frames, so they are allocated once per
+// resolution. Used from one processing thread; only the counters may be read
+// from elsewhere.
+class FrameCache {
+public:
+    explicit FrameCache(TileEngine& tiles);
+
+    // Invalidates everything derived from the previous frame. source must
+    // stay alive until the next beginFrame()
+    void beginFrame(const cv::Mat& source);
+    // Supplies the gray image directly (e.g. the camera's Y plane) so it is
+    // never derived from the color source
+    void provideGray(const cv::Mat& gray);
+
+    const cv::Mat& source() const;
+    const cv::Mat& gray();
+    const cv::Mat& integral();
+    // True if mat is this frame's gray image; doesn't count as a lookup
+    bool isGray(const cv::Mat& mat) const;
+
+    FrameCacheStats getStats() const;
+    void resetStats();
+
+private:
+    TileEngine& tiles;
+    cv::Mat sourceMat;
+    // grayMat either aliases a borrowed gray image (1-channel source or
+    // provideGray) or ownedGray, which is only ever written by this cache
+    cv::Mat grayMat, ownedGray;
+    cv::Mat integralMat;
+    bool valid[PRODUCT_COUNT];
+
+    std::atomic<uint64_t> frames;
+    std::atomic<uint64_t> hits[PRODUCT_COUNT];
+    std::atomic<uint64_t> misses[PRODUCT_COUNT];
+
+    // Counts the lookup and returns true if the product still has to be computed
+    bool lookup(FrameProduct product);
+};
+
+#endif // FRAME_CACHE_H
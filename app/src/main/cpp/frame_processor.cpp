@@ -1,83 +1,382 @@
 #include "frame_processor.h"
-#include <android/log.h>
+#include <chrono>
+#include "native_log.h"
 
 #define LOG_TAG "FrameProcessor"
-#define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
 
-FrameProcessor::FrameProcessor() : currentMode(MODE_GRAYSCALE) {
+FrameProcessor::FrameProcessor(int ringCapacity) : processingScale(1), outputRing(ringCapacity), frameCache(tileEngine) {
+    setPipeline(pipelineSpecForMode(MODE_GRAYSCALE));
     LOGI("FrameProcessor created");
 }
 
 FrameProcessor::~FrameProcessor() {
+    stopWorker();
     LOGI("FrameProcessor destroyed");
 }
 
+static int64_t monotonicNanos() {
+    // steady_clock is CLOCK_MONOTONIC on Android, same base as System.nanoTime()
+    return std::chrono::duration_cast<std::chrono::nanoseconds>(
+            std::chrono::steady_clock::now().time_since_epoch()).count();
+}
+
 bool FrameProcessor::processFrame(const cv::Mat& input, cv::Mat& output) {
     if (input.empty()) {
         return false;
     }
 
+    return runPipeline(*currentPipeline(), input, output, false);
+}
+
+bool FrameProcessor::runPipeline(Pipeline& pipeline, const cv::Mat& input, cv::Mat& output,
+                                 bool allowSingleChannel) {
+    try {
+        frameCache.beginFrame(input);
+        pipeline.run(frameCache, output, tileEngine, allowSingleChannel);
+        return true;
+    } catch (const cv::Exception& e) {
+        LOGE("OpenCV Exception: %s", e.what());
+        return false;
+    }
+}
+
+bool FrameProcessor::processYuvFrame(const cv::Mat& yPlane, const cv::Mat& uvPlane, bool vuOrder, cv::Mat& output) {
+    if (yPlane.empty()) {
+        return false;
+    }
+
     try {
-        switch (currentMode) {
-            case MODE_GRAYSCALE:
-                applyGrayscale(input, output);
-                break;
-            case MODE_CANNY_EDGE:
-                applyCannyEdge(input, output);
-                break;
-            case MODE_BLUR:
-                applyBlur(input, output);
-                break;
-            case MODE_ORIGINAL:
-                input.copyTo(output);
-                break;
-            default:
-                applyGrayscale(input, output);
-                break;
+        std::shared_ptr<Pipeline> pipeline = currentPipeline();
+        if (pipeline->startsWithGrayConversion()) {
+            frameCache.beginFrame(yPlane);
+        } else {
+            if (uvPlane.empty()) {
+                return false;
+            }
+            cv::cvtColorTwoPlane(yPlane, uvPlane, colorMat,
+                                 vuOrder ? cv::COLOR_YUV2RGBA_NV21 : cv::COLOR_YUV2RGBA_NV12);
+            frameCache.beginFrame(colorMat);
         }
+        // The luma plane already is the grayscale image
+        frameCache.provideGray(yPlane);
+        pipeline->run(frameCache, output, tileEngine);
         return true;
     } catch (const cv::Exception& e) {
-        __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, "OpenCV Exception: %s", e.what());
+        LOGE("OpenCV Exception: %s", e.what());
         return false;
     }
 }
 
+const cv::Mat& FrameProcessor::interleaveChroma(const cv::Mat& uPlane, const cv::Mat& vPlane) {
+    cv::Mat planes[] = {uPlane, vPlane};
+    cv::merge(planes, 2, chromaMat);
+    return chromaMat;
+}
+
+int FrameProcessor::processFrameToRing(const cv::Mat& input, int64_t timestampNanos) {
+    if (input.empty()) {
+        return -1;
+    }
+    std::lock_guard<std::mutex> lock(ringProcessMutex);
+
+    const cv::Mat* source = &input;
+    int divisor = processingScale.load();
+    if (divisor > 1) {
+        // Area averaging is the cheap downscale that doesn't alias edges into
+        // the Canny/threshold stages. Done on the caller's thread, so the
+        // capture resolution stays whatever the camera delivers
+        try {
+            cv::resize(input, scaledMat, cv::Size(input.cols / divisor, input.rows / divisor),
+                       0, 0, cv::INTER_AREA);
+        } catch (const cv::Exception& e) {
+            LOGE("OpenCV Exception: %s", e.what());
+            return -1;
+        }
+        source = &scaledMat;
+    }
+
+    // Gray results (grayscale, edges, thresholds) stay single channel all the
+    // way to the GL upload instead of being expanded to RGBA. The ring reuses
+    // its storage across that switch, so it only reallocates when a
+    // resolution or scale change needs more memory
+    std::shared_ptr<Pipeline> pipeline = currentPipeline();
+    int channels = pipeline->outputChannels(source->channels()) == 1 ? 1 : 4;
+    outputRing.configure(source->cols, source->rows, CV_8UC(channels));
+    int slot = outputRing.acquireWrite();
+    if (slot < 0) {
+        return -1;
+    }
+
+    cv::Mat target = outputRing.frame(slot);
+    if (!runPipeline(*pipeline, *source, target, true)) {
+        outputRing.release(slot);
+        return -1;
+    }
+    if (target.data != outputRing.frame(slot).data) {
+        target.copyTo(outputRing.frame(slot));
+    }
+
+    outputRing.commitWrite(slot, timestampNanos);
+    return slot;
+}
+
+int FrameProcessor::processYuvFrameToRing(const cv::Mat& yPlane, const cv::Mat& uvPlane, bool vuOrder,
+                                          int64_t timestampNanos) {
+    if (yPlane.empty()) {
+        return -1;
+    }
+    std::lock_guard<std::mutex> lock(ringProcessMutex);
+
+    std::shared_ptr<Pipeline> pipeline = currentPipeline();
+    bool grayOnly = pipeline->startsWithGrayConversion();
+    try {
+        if (!grayOnly) {
+            if (uvPlane.empty()) {
+                return -1;
+            }
+            cv::cvtColorTwoPlane(yPlane, uvPlane, colorMat,
+                                 vuOrder ? cv::COLOR_YUV2RGBA_NV21 : cv::COLOR_YUV2RGBA_NV12);
+        }
+    } catch (const cv::Exception& e) {
+        LOGE("OpenCV Exception: %s", e.what());
+        return -1;
+    }
+    const cv::Mat& source = grayOnly ? yPlane : colorMat;
+
+    int channels = pipeline->outputChannels(source.channels()) == 1 ? 1 : 4;
+    outputRing.configure(source.cols, source.rows, CV_8UC(channels));
+    int slot = outputRing.acquireWrite();
+    if (slot < 0) {
+        return -1;
+    }
+
+    cv::Mat target = outputRing.frame(slot);
+    try {
+        frameCache.beginFrame(source);
+        // The luma plane already is the grayscale image
+        frameCache.provideGray(yPlane);
+        pipeline->run(frameCache, target, tileEngine, true);
+        // Camera images start with the top row, ring frames with the bottom
+        // one like GL readbacks, so the renderer draws both the same way.
+        // Cheap at analysis size
+        cv::flip(target, outputRing.frame(slot), 0);
+    } catch (const cv::Exception& e) {
+        LOGE("OpenCV Exception: %s", e.what());
+        outputRing.release(slot);
+        return -1;
+    }
+
+    outputRing.commitWrite(slot, timestampNanos);
+    return slot;
+}
+
+bool FrameProcessor::startWorker(std::unique_ptr<FrameListener> listener) {
+    std::lock_guard<std::mutex> lock(workerMutex);
+    if (workerRunning) {
+        return false;
+    }
+    frameListener = std::move(listener);
+    hasPendingFrame = false;
+    asyncStats = AsyncStats();
+    workerRunning = true;
+    workerThread = std::thread(&FrameProcessor::workerLoop, this);
+    LOGI("Async worker started");
+    return true;
+}
+
+void FrameProcessor::stopWorker() {
+    {
+        std::lock_guard<std::mutex> lock(workerMutex);
+        if (!workerRunning) {
+            return;
+        }
+        workerRunning = false;
+    }
+    workerCondition.notify_all();
+    if (workerThread.joinable()) {
+        workerThread.join();
+    }
+    frameListener.reset();
+    LOGI("Async worker stopped");
+}
+
+bool FrameProcessor::submitFrame(const cv::Mat& input, int64_t timestampNanos) {
+    if (input.empty()) {
+        return false;
+    }
+
+    {
+        std::lock_guard<std::mutex> lock(workerMutex);
+        if (!workerRunning) {
+            return false;
+        }
+        if (hasPendingFrame) {
+            // Latest frame wins: the worker never sees the one it replaces
+            asyncStats.dropped++;
+        }
+        // Copy into the staging Mat (allocated once per resolution) so the
+        // caller can reuse its buffer as soon as this returns
+        input.copyTo(pendingFrame);
+        pendingTimestamp = timestampNanos;
+        pendingSubmitNanos = monotonicNanos();
+        hasPendingFrame = true;
+        asyncStats.submitted++;
+    }
+    workerCondition.notify_one();
+    return true;
+}
+
+AsyncStats FrameProcessor::getAsyncStats() {
+    std::lock_guard<std::mutex> lock(workerMutex);
+    AsyncStats stats = asyncStats;
+    stats.queueDepth = (hasPendingFrame ? 1 : 0) + (workerBusy ? 1 : 0);
+    return stats;
+}
+
+void FrameProcessor::workerLoop() {
+    std::unique_lock<std::mutex> lock(workerMutex);
+    while (true) {
+        workerCondition.wait(lock, [this] { return hasPendingFrame || !workerRunning; });
+        if (!workerRunning) {
+            break;
+        }
+
+        // Swap staging buffers so submitFrame can fill the next one meanwhile
+        std::swap(pendingFrame, workingFrame);
+        int64_t timestamp = pendingTimestamp;
+        int64_t submitNanos = pendingSubmitNanos;
+        hasPendingFrame = false;
+        workerBusy = true;
+        lock.unlock();
+
+        int64_t processStart = monotonicNanos();
+        int slot = processFrameToRing(workingFrame, timestamp);
+        int64_t processEnd = monotonicNanos();
+        int64_t latency = processEnd - submitNanos;
+
+        lock.lock();
+        workerBusy = false;
+        if (slot >= 0) {
+            asyncStats.processed++;
+            asyncStats.lastLatencyNanos = latency;
+            if (asyncStats.averageLatencyNanos == 0) {
+                asyncStats.averageLatencyNanos = latency;
+                asyncStats.averageProcessNanos = processEnd - processStart;
+            } else {
+                asyncStats.averageLatencyNanos += (latency - asyncStats.averageLatencyNanos) / 16;
+                asyncStats.averageProcessNanos += (processEnd - processStart - asyncStats.averageProcessNanos) / 16;
+            }
+        }
+        FrameListener* listener = frameListener.get();
+        lock.unlock();
+
+        if (slot >= 0 && listener) {
+            listener->onFrameProcessed(slot, timestamp, latency);
+        }
+        lock.lock();
+    }
+    lock.unlock();
+
+    if (frameListener) {
+        frameListener->onWorkerExit();
+    }
+}
+
+FrameRing& FrameProcessor::getOutputRing() {
+    return outputRing;
+}
+
 void FrameProcessor::setProcessingMode(ProcessingMode mode) {
-    currentMode = mode;
+    setPipeline(pipelineSpecForMode(mode));
     LOGI("Processing mode set to: %d", mode);
 }
 
-void FrameProcessor::applyGrayscale(const cv::Mat& input, cv::Mat& output) {
-    if (input.channels() == 4) {
-        cv::cvtColor(input, output, cv::COLOR_BGRA2GRAY);
-        cv::cvtColor(output, output, cv::COLOR_GRAY2BGRA);
-    } else if (input.channels() == 3) {
-        cv::cvtColor(input, output, cv::COLOR_BGR2GRAY);
-        cv::cvtColor(output, output, cv::COLOR_GRAY2BGRA);
-    } else {
-        input.copyTo(output);
+bool FrameProcessor::setPipeline(const std::string& spec) {
+    std::lock_guard<std::mutex> lock(pipelineMutex);
+    for (auto cached = pipelineCache.begin(); cached != pipelineCache.end(); ++cached) {
+        if (cached->first == spec) {
+            pipelineCache.splice(pipelineCache.begin(), pipelineCache, cached);
+            activePipeline = cached->second;
+            return true;
+        }
+    }
+
+    std::string error;
+    std::unique_ptr<Pipeline> pipeline = Pipeline::parse(spec, error);
+    if (!pipeline) {
+        LOGE("Invalid pipeline \"%s\": %s", spec.c_str(), error.c_str());
+        return false;
+    }
+    activePipeline = std::shared_ptr<Pipeline>(std::move(pipeline));
+    pipelineCache.emplace_front(spec, activePipeline);
+    if (pipelineCache.size() > PIPELINE_CACHE_SIZE) {
+        // Least recently used; never the active one, which was just added
+        LOGI("Pipeline \"%s\" evicted", pipelineCache.back().first.c_str());
+        pipelineCache.pop_back();
     }
+    LOGI("Pipeline set to: \"%s\"", spec.c_str());
+    return true;
 }
 
-void FrameProcessor::applyCannyEdge(const cv::Mat& input, cv::Mat& output) {
-    if (input.channels() == 4) {
-        cv::cvtColor(input, tempMat1, cv::COLOR_BGRA2GRAY);
-    } else if (input.channels() == 3) {
-        cv::cvtColor(input, tempMat1, cv::COLOR_BGR2GRAY);
-    } else {
-        input.copyTo(tempMat1);
+std::shared_ptr<Pipeline> FrameProcessor::currentPipeline() {
+    std::lock_guard<std::mutex> lock(pipelineMutex);
+    return activePipeline;
+}
+
+const char* FrameProcessor::pipelineSpecForMode(ProcessingMode mode) {
+    switch (mode) {
+        case MODE_CANNY_EDGE:
+            return "gray|gauss:5,1.4|canny:50,150";
+        case MODE_BLUR:
+            return "gauss:15";
+        case MODE_ORIGINAL:
+            return "";
+        case MODE_GRAYSCALE:
+        default:
+            return "gray";
     }
-    
-    // Apply Gaussian blur to reduce noise
-    cv::GaussianBlur(tempMat1, tempMat2, cv::Size(5, 5), 1.4);
-    
-    // Apply Canny edge detection
-    cv::Canny(tempMat2, tempMat1, 50, 150);
-    
-    // Convert back to BGRA
-    cv::cvtColor(tempMat1, output, cv::COLOR_GRAY2BGRA);
 }
 
-void FrameProcessor::applyBlur(const cv::Mat& input, cv::Mat& output) {
-    cv::GaussianBlur(input, output, cv::Size(15, 15), 0);
+bool FrameProcessor::setProcessingScale(int divisor) {
+    if (divisor != 1 && divisor != 2 && divisor != 4) {
+        return false;
+    }
+    if (processingScale.exchange(divisor) != divisor) {
+        LOGI("Processing scale set to 1/%d", divisor);
+    }
+    return true;
+}
+
+void FrameProcessor::setThreadCount(int threads) {
+    tileEngine.setThreadCount(threads);
+}
+
+void FrameProcessor::setStripHeight(int rows) {
+    tileEngine.setStripHeight(rows);
+}
+
+void FrameProcessor::setTilingEnabled(bool enabled) {
+    tileEngine.setEnabled(enabled);
+}
+
+FrameCacheStats FrameProcessor::getCacheStats() const {
+    return frameCache.getStats();
+}
+
+double FrameProcessor::verifyTiling(const cv::Mat& input) {
+    cv::Mat tiled, reference;
+    bool wasEnabled = tileEngine.isEnabled();
+
+    tileEngine.setEnabled(true);
+    bool tiledOk = processFrame(input, tiled);
+    tileEngine.setEnabled(false);
+    bool referenceOk = processFrame(input, reference);
+    tileEngine.setEnabled(wasEnabled);
+
+    if (!tiledOk || !referenceOk) {
+        return -1.0;
+    }
+    double maxDiff = cv::norm(tiled, reference, cv::NORM_INF);
+    LOGI("Tiling check (\"%s\"): max abs diff %.0f", currentPipeline()->getSpec().c_str(), maxDiff);
+    return maxDiff;
 }
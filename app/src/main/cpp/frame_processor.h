@@ -3,6 +3,17 @@
 
 #include <opencv2/opencv.hpp>
 #include <opencv2/imgproc.hpp>
+#include "frame_cache.h"
+#include "frame_ring.h"
+#include "pipeline.h"
+#include "tile_engine.h"
+#include <atomic>
+#include <condition_variable>
+#include <list>
+#include <memory>
+#include <mutex>
+#include <string>
+#include <thread>
 
 enum ProcessingMode {
     MODE_GRAYSCALE = 0,
@@ -11,21 +22,115 @@ enum ProcessingMode {
     MODE_ORIGINAL = 3
 };
 
+// Receives results from the async worker, on the worker thread
+class FrameListener {
+public:
+    virtual ~FrameListener() {}
+    virtual void onFrameProcessed(int slot, int64_t timestampNanos, int64_t latencyNanos) = 0;
+    // Last call made on the worker thread before it exits
+    virtual void onWorkerExit() {}
+};
+
+struct AsyncStats {
+    int queueDepth = 0;          // frames pending plus in flight (0..2)
+    uint64_t submitted = 0;
+    uint64_t processed = 0;
+    uint64_t dropped = 0;        // pending frames replaced by a newer one
+    int64_t lastLatencyNanos = 0;    // submit to result committed
+    int64_t averageLatencyNanos = 0; // exponential moving average
+    int64_t averageProcessNanos = 0; // processing only, excluding queue wait
+};
+
 class FrameProcessor {
 public:
-    FrameProcessor();
+    explicit FrameProcessor(int ringCapacity = FrameRing::DEFAULT_CAPACITY);
     ~FrameProcessor();
     
     bool processFrame(const cv::Mat& input, cv::Mat& output);
+    // Camera YUV_420_888 ingest: pipelines starting with "gray" run straight on
+    // the Y plane, others convert once from the interleaved chroma plane to RGBA
+    bool processYuvFrame(const cv::Mat& yPlane, const cv::Mat& uvPlane, bool vuOrder, cv::Mat& output);
+    // Packs fully planar (pixel stride 1) U/V into the interleaved UV layout processYuvFrame expects
+    const cv::Mat& interleaveChroma(const cv::Mat& uPlane, const cv::Mat& vPlane);
+    // Processes into a preallocated slot of the output ring and commits it;
+    // returns the slot index or -1. Ring frames are at the processing scale,
+    // so they can be smaller than input, and are CV_8UC1 for pipelines
+    // ending in a gray image (RGBA otherwise)
+    int processFrameToRing(const cv::Mat& input, int64_t timestampNanos = 0);
+    // processYuvFrame into the output ring, like processFrameToRing. The
+    // processing scale is not applied: the analysis stream is already
+    // captured at the size it is processed at. Rows are flipped to the ring's
+    // bottom-up order
+    int processYuvFrameToRing(const cv::Mat& yPlane, const cv::Mat& uvPlane, bool vuOrder,
+                              int64_t timestampNanos);
+    
+    // Async mode: a worker thread owned by this processor drains a single
+    // pending slot (latest frame wins) into the output ring. Ring calls from
+    // other threads (processFrameToRing, processYuvFrameToRing) are serialised
+    // with it; don't mix in processFrame/processYuvFrame while it runs.
+    bool startWorker(std::unique_ptr<FrameListener> listener);
+    void stopWorker();
+    bool submitFrame(const cv::Mat& input, int64_t timestampNanos);
+    AsyncStats getAsyncStats();
+    FrameRing& getOutputRing();
+    // Selects the built-in pipeline for a mode
     void setProcessingMode(ProcessingMode mode);
+    // Replaces the active pipeline, see Pipeline for the spec syntax. The
+    // last PIPELINE_CACHE_SIZE pipelines are kept, so switching back to one
+    // reuses its intermediates.
+    // Returns false (keeping the current pipeline) if the spec doesn't parse.
+    bool setPipeline(const std::string& spec);
+    
+    // Ring output is computed at 1/divisor of the input size (1, 2 or 4);
+    // the renderer stretches it back when sampling. Returns false otherwise
+    bool setProcessingScale(int divisor);
+    
+    // Strip tiling knobs, see TileEngine
+    void setThreadCount(int threads);
+    void setStripHeight(int rows);
+    void setTilingEnabled(bool enabled);
+    // Hit/miss counters of the per-frame intermediate cache
+    FrameCacheStats getCacheStats() const;
+    // Runs the current pipeline tiled and untiled on input and returns the largest
+    // per-pixel difference (0 means bit-exact), or -1 if processing failed
+    double verifyTiling(const cv::Mat& input);
     
 private:
-    ProcessingMode currentMode;
-    cv::Mat tempMat1, tempMat2;
+    cv::Mat colorMat, chromaMat;
+    std::atomic<int> processingScale;
+    // Held by the ring-processing calls: they share the cache and scratch Mats
+    std::mutex ringProcessMutex;
+    cv::Mat scaledMat;
+    FrameRing outputRing;
+    TileEngine tileEngine;
+    // Gray and integral of the frame being processed, shared by all stages
+    FrameCache frameCache;
+    
+    // Active pipeline and the most recently used ones by spec, newest first;
+    // an evicted pipeline frees its intermediates with its last reference.
+    // Runs take their own reference, so a swap never frees a running pipeline.
+    static const size_t PIPELINE_CACHE_SIZE = 4;
+    std::mutex pipelineMutex;
+    std::shared_ptr<Pipeline> activePipeline;
+    std::list<std::pair<std::string, std::shared_ptr<Pipeline>>> pipelineCache;
+    
+    // Async worker state, guarded by workerMutex
+    std::thread workerThread;
+    std::mutex workerMutex;
+    std::condition_variable workerCondition;
+    std::unique_ptr<FrameListener> frameListener;
+    cv::Mat pendingFrame, workingFrame;
+    int64_t pendingTimestamp = 0;
+    int64_t pendingSubmitNanos = 0;
+    bool hasPendingFrame = false;
+    bool workerBusy = false;
+    bool workerRunning = false;
+    AsyncStats asyncStats;
     
-    void applyGrayscale(const cv::Mat& input, cv::Mat& output);
-    void applyCannyEdge(const cv::Mat& input, cv::Mat& output);
-    void applyBlur(const cv::Mat& input, cv::Mat& output);
+    void workerLoop();
+    bool runPipeline(Pipeline& pipeline, const cv::Mat& input, cv::Mat& output, bool allowSingleChannel);
+    std::shared_ptr<Pipeline> currentPipeline();
+    static const char* pipelineSpecForMode(ProcessingMode mode);
 };
 
 #endif // FRAME_PROCESSOR_H
@@ -0,0 +1,125 @@
+#include "frame_ring.h"
+#include "native_log.h"
+
+#define LOG_TAG "FrameRing"
+
+FrameRing::FrameRing(int capacity) : slots(capacity > 0 ? capacity : DEFAULT_CAPACITY) {
+}
+
+void FrameRing::configure(int newWidth, int newHeight, int newType) {
+    std::lock_guard<std::mutex> lock(mutex);
+    if (newWidth == width && newHeight == height && newType == type) {
+        return;
+    }
+
+    width = newWidth;
+    height = newHeight;
+    type = newType;
+    currentGeneration++;
+
+    for (Slot& slot : slots) {
+        if (slot.state == SLOT_READING) {
+            // Still mapped on the Java side - swap the storage on release
+            slot.stale = true;
+            continue;
+        }
+        reshape(slot);
+        slot.state = SLOT_FREE;
+        slot.stale = false;
+    }
+    LOGI("Ring configured: %d slots of %dx%d, %d channel(s) (generation %d)",
+         static_cast<int>(slots.size()), width, height, CV_MAT_CN(type), currentGeneration);
+}
+
+int FrameRing::acquireWrite() {
+    std::lock_guard<std::mutex> lock(mutex);
+    int oldestReady = -1;
+    for (int i = 0; i < static_cast<int>(slots.size()); i++) {
+        if (slots[i].state == SLOT_FREE && !slots[i].stale) {
+            slots[i].state = SLOT_WRITING;
+            return i;
+        }
+        if (slots[i].state == SLOT_READY &&
+            (oldestReady < 0 || slots[i].sequence < slots[oldestReady].sequence)) {
+            oldestReady = i;
+        }
+    }
+
+    // Consumer is behind: overwrite the oldest frame it has not picked up yet
+    if (oldestReady >= 0) {
+        dropped++;
+        slots[oldestReady].state = SLOT_WRITING;
+    }
+    return oldestReady;
+}
+
+void FrameRing::commitWrite(int slot, int64_t timestampNanos) {
+    std::lock_guard<std::mutex> lock(mutex);
+    if (slot >= 0 && slot < static_cast<int>(slots.size()) && slots[slot].state == SLOT_WRITING) {
+        slots[slot].state = SLOT_READY;
+        slots[slot].sequence = nextSequence++;
+        slots[slot].timestampNanos = timestampNanos;
+    }
+}
+
+int FrameRing::acquireRead() {
+    std::lock_guard<std::mutex> lock(mutex);
+    int newest = -1;
+    for (int i = 0; i < static_cast<int>(slots.size()); i++) {
+        if (slots[i].state == SLOT_READY &&
+            (newest < 0 || slots[i].sequence > slots[newest].sequence)) {
+            newest = i;
+        }
+    }
+    if (newest >= 0) {
+        slots[newest].state = SLOT_READING;
+    }
+    return newest;
+}
+
+void FrameRing::release(int slot) {
+    std::lock_guard<std::mutex> lock(mutex);
+    if (slot < 0 || slot >= static_cast<int>(slots.size())) {
+        return;
+    }
+    Slot& s = slots[slot];
+    if (s.stale) {
+        reshape(s);
+        s.stale = false;
+        // The consumer may have mapped the old storage under the current
+        // generation, so make it refresh its views
+        currentGeneration++;
+    }
+    s.state = SLOT_FREE;
+}
+
+void FrameRing::reshape(Slot& slot) {
+    size_t bytes = static_cast<size_t>(width) * height * CV_ELEM_SIZE(type);
+    if (slot.storage.total() < bytes) {
+        slot.storage.create(1, static_cast<int>(bytes), CV_8UC1);
+    }
+    slot.mat = cv::Mat(height, width, type, slot.storage.data);
+}
+
+cv::Mat& FrameRing::frame(int slot) {
+    return slots[slot].mat;
+}
+
+int64_t FrameRing::timestamp(int slot) const {
+    std::lock_guard<std::mutex> lock(mutex);
+    return slots[slot].timestampNanos;
+}
+
+int FrameRing::capacity() const {
+    return static_cast<int>(slots.size());
+}
+
+int FrameRing::generation() const {
+    std::lock_guard<std::mutex> lock(mutex);
+    return currentGeneration;
+}
+
+uint64_t FrameRing::droppedFrames() const {
+    std::lock_guard<std::mutex> lock(mutex);
+    return dropped;
+}
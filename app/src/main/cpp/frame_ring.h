@@ -0,0 +1,69 @@
+#ifndef FRAME_RING_H
+#define FRAME_RING_H
+
+#include <opencv2/core.hpp>
+#include <mutex>
+#include <vector>
+#include <cstdint>
+
+// Fixed set of preallocated output frames shared between one producer (the
+// processor) and one consumer (the renderer). With the default three slots
+// one frame can be written, one read and one waiting without allocating.
+class FrameRing {
+public:
+    static const int DEFAULT_CAPACITY = 3;
+
+    explicit FrameRing(int capacity = DEFAULT_CAPACITY);
+
+    // Reshapes slots when the geometry or type changes; a no-op otherwise.
+    // Slot storage only grows, so switching between a 1-channel and a
+    // 4-channel output reuses it. Slots held by the consumer are reshaped
+    // when they are released.
+    void configure(int width, int height, int type);
+
+    // Producer side: a free slot, or the oldest unread one (counted as dropped)
+    int acquireWrite();
+    void commitWrite(int slot, int64_t timestampNanos = 0);
+
+    // Consumer side: the newest committed slot, or -1 when nothing is ready
+    int acquireRead();
+
+    // Returns a slot from either side to the free list
+    void release(int slot);
+
+    cv::Mat& frame(int slot);
+    int64_t timestamp(int slot) const;
+    int capacity() const;
+    int generation() const;
+    uint64_t droppedFrames() const;
+
+private:
+    enum SlotState {
+        SLOT_FREE,
+        SLOT_WRITING,
+        SLOT_READY,
+        SLOT_READING
+    };
+
+    struct Slot {
+        cv::Mat storage;   // raw bytes, at least as large as mat
+        cv::Mat mat;       // header of the current geometry over storage
+        SlotState state = SLOT_FREE;
+        uint64_t sequence = 0;
+        int64_t timestampNanos = 0;
+        bool stale = false;
+    };
+
+    mutable std::mutex mutex;
+    std::vector<Slot> slots;
+    int width = 0;
+    int height = 0;
+    int type = -1;
+    int currentGeneration = 0;
+    uint64_t nextSequence = 1;
+    uint64_t dropped = 0;
+
+    void reshape(Slot& slot);
+};
+
+#endif // FRAME_RING_H
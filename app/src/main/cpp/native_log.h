@@ -0,0 +1,23 @@
+#ifndef NATIVE_LOG_H
+#define NATIVE_LOG_H
+
+// Logging for the native sources; each .cpp defines LOG_TAG before including
+// this. Goes to logcat on Android and to stderr in a host build (HOST_BUILD
+// in CMakeLists.txt), where there is no liblog.
+#ifdef __ANDROID__
+#include <android/log.h>
+
+#define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
+#define LOGW(...) __android_log_print(ANDROID_LOG_WARN, LOG_TAG, __VA_ARGS__)
+#define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+#else
+#include <cstdio>
+
+#define NATIVE_LOG(level, ...) \
+    (std::fprintf(stderr, "%s/%s: ", level, LOG_TAG), std::fprintf(stderr, __VA_ARGS__), std::fputc('\n', stderr))
+#define LOGI(...) NATIVE_LOG("I", __VA_ARGS__)
+#define LOGW(...) NATIVE_LOG("W", __VA_ARGS__)
+#define LOGE(...) NATIVE_LOG("E", __VA_ARGS__)
+#endif
+
+#endif // NATIVE_LOG_H
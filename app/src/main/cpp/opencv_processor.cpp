@@ -1,19 +1,134 @@
 #include <jni.h>
 #include <opencv2/opencv.hpp>
 #include <opencv2/imgproc.hpp>
-#include <android/log.h>
+#include <cstdlib>
+#include <cstring>
 #include <vector>
 #include "frame_processor.h"
+#include "native_log.h"
 
 #define LOG_TAG "OpenCVProcessor"
-#define LOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
-#define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+
+// Forwards async worker results to OpenCVProcessor.onNativeFrameProcessed()
+class JavaFrameListener : public FrameListener {
+public:
+    JavaFrameListener(JNIEnv* env, jobject processor) : attached(false) {
+        env->GetJavaVM(&vm);
+        processorRef = env->NewGlobalRef(processor);
+        jclass processorClass = env->GetObjectClass(processor);
+        callbackMethod = env->GetMethodID(processorClass, "onNativeFrameProcessed", "(IJJ)V");
+        env->DeleteLocalRef(processorClass);
+    }
+
+    ~JavaFrameListener() override {
+        // Destroyed on a Java thread (stopWorker / nativeDestroyProcessor)
+        JNIEnv* env = nullptr;
+        if (vm->GetEnv(reinterpret_cast<void**>(&env), JNI_VERSION_1_6) == JNI_OK) {
+            env->DeleteGlobalRef(processorRef);
+        }
+    }
+
+    void onFrameProcessed(int slot, int64_t timestampNanos, int64_t latencyNanos) override {
+        JNIEnv* env = workerEnv();
+        if (!env || !callbackMethod) {
+            return;
+        }
+        env->CallVoidMethod(processorRef, callbackMethod, slot,
+                            static_cast<jlong>(timestampNanos), static_cast<jlong>(latencyNanos));
+        if (env->ExceptionCheck()) {
+            LOGE("Exception in frame callback");
+            env->ExceptionDescribe();
+            env->ExceptionClear();
+        }
+    }
+
+    void onWorkerExit() override {
+        if (attached) {
+            vm->DetachCurrentThread();
+            attached = false;
+        }
+    }
+
+private:
+    JavaVM* vm;
+    jobject processorRef;
+    jmethodID callbackMethod;
+    bool attached;
+
+    JNIEnv* workerEnv() {
+        JNIEnv* env = nullptr;
+        if (vm->GetEnv(reinterpret_cast<void**>(&env), JNI_VERSION_1_6) == JNI_EDETACHED) {
+#ifdef __ANDROID__
+            jint status = vm->AttachCurrentThread(&env, nullptr);
+#else
+            // Desktop jni.h declares the env argument as void**
+            jint status = vm->AttachCurrentThread(reinterpret_cast<void**>(&env), nullptr);
+#endif
+            if (status != JNI_OK) {
+                LOGE("Failed to attach worker thread");
+                return nullptr;
+            }
+            attached = true;
+        }
+        return env;
+    }
+};
+
+// Wraps YUV_420_888 planes without copying: the luma plane, and the chroma
+// as one interleaved plane (packed first if the camera delivers it planar)
+static bool wrapYuvPlanes(JNIEnv* env, FrameProcessor* processor, jobject yBuffer, jobject uBuffer,
+                          jobject vBuffer, int width, int height, int yRowStride, int uvRowStride,
+                          int uvPixelStride, cv::Mat& yMat, cv::Mat& uvMat, bool& vuOrder) {
+    uint8_t* yData = static_cast<uint8_t*>(env->GetDirectBufferAddress(yBuffer));
+    uint8_t* uData = static_cast<uint8_t*>(env->GetDirectBufferAddress(uBuffer));
+    uint8_t* vData = static_cast<uint8_t*>(env->GetDirectBufferAddress(vBuffer));
+    if (!yData || !uData || !vData) {
+        LOGE("Planes must be direct ByteBuffers");
+        return false;
+    }
+    if (width <= 0 || height <= 0 || (width & 1) || (height & 1) || yRowStride < width
+        || (uvPixelStride != 1 && uvPixelStride != 2) || uvRowStride < uvPixelStride * (width / 2)) {
+        LOGE("Invalid YUV frame geometry %dx%d, strides %d/%d/%d", width, height, yRowStride, uvRowStride,
+             uvPixelStride);
+        return false;
+    }
+    // The planes must hold every pixel the strides address, or OpenCV reads past them
+    const jlong yBytes = static_cast<jlong>(yRowStride) * (height - 1) + width;
+    const jlong uvBytes = static_cast<jlong>(uvRowStride) * (height / 2 - 1)
+                          + static_cast<jlong>(uvPixelStride) * (width / 2 - 1) + 1;
+    if (env->GetDirectBufferCapacity(yBuffer) < yBytes || env->GetDirectBufferCapacity(uBuffer) < uvBytes
+        || env->GetDirectBufferCapacity(vBuffer) < uvBytes) {
+        LOGE("YUV planes too small for %dx%d with strides %d/%d/%d", width, height, yRowStride, uvRowStride,
+             uvPixelStride);
+        return false;
+    }
+    // Read as one interleaved plane, the semi-planar views must be one byte apart
+    if (uvPixelStride == 2 && std::abs(uData - vData) != 1) {
+        LOGE("Semi-planar chroma planes don't interleave");
+        return false;
+    }
+
+    yMat = cv::Mat(height, width, CV_8UC1, yData, yRowStride);
+    vuOrder = false;
+    if (uvPixelStride == 2) {
+        // Semi-planar: U and V views alias one interleaved plane, whichever
+        // starts first decides between NV12 (UV) and NV21 (VU)
+        vuOrder = vData < uData;
+        uvMat = cv::Mat(height / 2, width / 2, CV_8UC2, vuOrder ? vData : uData, uvRowStride);
+    } else {
+        cv::Mat uMat(height / 2, width / 2, CV_8UC1, uData, uvRowStride);
+        cv::Mat vMat(height / 2, width / 2, CV_8UC1, vData, uvRowStride);
+        uvMat = processor->interleaveChroma(uMat, vMat);
+    }
+    return true;
+}
 
 extern "C" {
 
 JNIEXPORT jlong JNICALL
-Java_com_example_opencvopenglapp_OpenCVProcessor_nativeCreateProcessor(JNIEnv *env, jobject thiz) {
-    FrameProcessor* processor = new FrameProcessor();
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeCreateProcessor(JNIEnv *env, jobject thiz,
+                                                                       jint ringCapacity) {
+    FrameProcessor* processor = new FrameProcessor(ringCapacity);
     return reinterpret_cast<jlong>(processor);
 }
 
@@ -80,6 +195,361 @@ Java_com_example_opencvopenglapp_OpenCVProcessor_nativeProcessFrame(JNIEnv *env,
     return result;
 }
 
+JNIEXPORT jboolean JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeProcessFrameBuffer(JNIEnv *env, jobject thiz,
+                                                                          jlong processorPtr,
+                                                                          jobject inputBuffer,
+                                                                          jobject outputBuffer,
+                                                                          jint width, jint height,
+                                                                          jint stride) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor) {
+        LOGE("Processor is null");
+        return JNI_FALSE;
+    }
+
+    // Caller-owned direct buffers, wrapped in place - no copy, no allocation
+    void* inputData = env->GetDirectBufferAddress(inputBuffer);
+    void* outputData = env->GetDirectBufferAddress(outputBuffer);
+    if (!inputData || !outputData) {
+        LOGE("Buffers must be direct ByteBuffers");
+        return JNI_FALSE;
+    }
+
+    jlong requiredBytes = static_cast<jlong>(stride) * (height - 1) + static_cast<jlong>(width) * 4;
+    if (width <= 0 || height <= 0 || stride < width * 4 ||
+        env->GetDirectBufferCapacity(inputBuffer) < requiredBytes ||
+        env->GetDirectBufferCapacity(outputBuffer) < requiredBytes) {
+        LOGE("Invalid frame geometry %dx%d stride %d", width, height, stride);
+        return JNI_FALSE;
+    }
+
+    cv::Mat inputMat(height, width, CV_8UC4, inputData, stride);
+    cv::Mat outputMat(height, width, CV_8UC4, outputData, stride);
+
+    if (!processor->processFrame(inputMat, outputMat)) {
+        LOGE("Frame processing failed");
+        return JNI_FALSE;
+    }
+
+    // Every mode writes RGBA of the input size, so outputMat keeps pointing at
+    // the caller's buffer; guard against a future mode that reallocates it
+    if (outputMat.data != outputData) {
+        outputMat.copyTo(cv::Mat(height, width, CV_8UC4, outputData, stride));
+    }
+
+    return JNI_TRUE;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeProcessYuvFrame(JNIEnv *env, jobject thiz,
+                                                                       jlong processorPtr,
+                                                                       jobject yBuffer,
+                                                                       jobject uBuffer,
+                                                                       jobject vBuffer,
+                                                                       jint width, jint height,
+                                                                       jint yRowStride,
+                                                                       jint uvRowStride,
+                                                                       jint uvPixelStride,
+                                                                       jobject outputBuffer,
+                                                                       jint outputStride) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor) {
+        LOGE("Processor is null");
+        return JNI_FALSE;
+    }
+
+    void* outputData = env->GetDirectBufferAddress(outputBuffer);
+    if (!outputData || outputStride < width * 4 ||
+        env->GetDirectBufferCapacity(outputBuffer) < static_cast<jlong>(outputStride) * (height - 1) + width * 4) {
+        LOGE("Invalid YUV output for %dx%d", width, height);
+        return JNI_FALSE;
+    }
+
+    cv::Mat yMat, uvMat;
+    bool vuOrder;
+    if (!wrapYuvPlanes(env, processor, yBuffer, uBuffer, vBuffer, width, height, yRowStride,
+                       uvRowStride, uvPixelStride, yMat, uvMat, vuOrder)) {
+        return JNI_FALSE;
+    }
+    cv::Mat outputMat(height, width, CV_8UC4, outputData, outputStride);
+
+    if (!processor->processYuvFrame(yMat, uvMat, vuOrder, outputMat)) {
+        LOGE("YUV frame processing failed");
+        return JNI_FALSE;
+    }
+
+    if (outputMat.data != outputData) {
+        outputMat.copyTo(cv::Mat(height, width, CV_8UC4, outputData, outputStride));
+    }
+
+    return JNI_TRUE;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeProcessFrameToRing(JNIEnv *env, jobject thiz,
+                                                                          jlong processorPtr,
+                                                                          jobject inputBuffer,
+                                                                          jint width, jint height,
+                                                                          jint stride,
+                                                                          jint channels,
+                                                                          jlong timestampNanos) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor) {
+        LOGE("Processor is null");
+        return -1;
+    }
+
+    // RGBA, or gray (e.g. a recorded Y plane); pipelines accept either
+    void* inputData = env->GetDirectBufferAddress(inputBuffer);
+    if (!inputData || (channels != 1 && channels != 4) || width <= 0 || height <= 0 ||
+        stride < width * channels ||
+        env->GetDirectBufferCapacity(inputBuffer) < static_cast<jlong>(stride) * (height - 1) + width * channels) {
+        LOGE("Invalid ring input %dx%d stride %d, %d channel(s)", width, height, stride, channels);
+        return -1;
+    }
+
+    cv::Mat inputMat(height, width, CV_8UC(channels), inputData, stride);
+    return processor->processFrameToRing(inputMat, timestampNanos);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeProcessYuvFrameToRing(JNIEnv *env, jobject thiz,
+                                                                             jlong processorPtr,
+                                                                             jobject yBuffer,
+                                                                             jobject uBuffer,
+                                                                             jobject vBuffer,
+                                                                             jint width, jint height,
+                                                                             jint yRowStride,
+                                                                             jint uvRowStride,
+                                                                             jint uvPixelStride,
+                                                                             jlong timestampNanos) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor) {
+        LOGE("Processor is null");
+        return -1;
+    }
+
+    cv::Mat yMat, uvMat;
+    bool vuOrder;
+    if (!wrapYuvPlanes(env, processor, yBuffer, uBuffer, vBuffer, width, height, yRowStride,
+                       uvRowStride, uvPixelStride, yMat, uvMat, vuOrder)) {
+        return -1;
+    }
+    return processor->processYuvFrameToRing(yMat, uvMat, vuOrder, timestampNanos);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeStartWorker(JNIEnv *env, jobject thiz,
+                                                                   jlong processorPtr) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor) {
+        return JNI_FALSE;
+    }
+    std::unique_ptr<FrameListener> listener(new JavaFrameListener(env, thiz));
+    return processor->startWorker(std::move(listener)) ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeStopWorker(JNIEnv *env, jobject thiz,
+                                                                  jlong processorPtr) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (processor) {
+        processor->stopWorker();
+    }
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeSubmitFrame(JNIEnv *env, jobject thiz,
+                                                                   jlong processorPtr,
+                                                                   jobject inputBuffer,
+                                                                   jint width, jint height,
+                                                                   jint stride,
+                                                                   jlong timestampNanos) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor) {
+        return JNI_FALSE;
+    }
+
+    void* inputData = env->GetDirectBufferAddress(inputBuffer);
+    if (!inputData || width <= 0 || height <= 0 || stride < width * 4 ||
+        env->GetDirectBufferCapacity(inputBuffer) < static_cast<jlong>(stride) * (height - 1) + width * 4) {
+        LOGE("Invalid async input %dx%d stride %d", width, height, stride);
+        return JNI_FALSE;
+    }
+
+    cv::Mat inputMat(height, width, CV_8UC4, inputData, stride);
+    return processor->submitFrame(inputMat, timestampNanos) ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeGetAsyncStats(JNIEnv *env, jobject thiz,
+                                                                     jlong processorPtr,
+                                                                     jlongArray statsOut) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor || env->GetArrayLength(statsOut) < 8) {
+        return;
+    }
+
+    AsyncStats stats = processor->getAsyncStats();
+    jlong values[8] = {
+        stats.queueDepth,
+        static_cast<jlong>(stats.submitted),
+        static_cast<jlong>(stats.processed),
+        static_cast<jlong>(stats.dropped),
+        stats.lastLatencyNanos,
+        stats.averageLatencyNanos,
+        stats.averageProcessNanos,
+        static_cast<jlong>(processor->getOutputRing().droppedFrames())
+    };
+    env->SetLongArrayRegion(statsOut, 0, 8, values);
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeGetCacheStats(JNIEnv *env, jobject thiz,
+                                                                     jlong processorPtr,
+                                                                     jlongArray statsOut) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    const jsize count = 1 + 2 * PRODUCT_COUNT;
+    if (!processor || env->GetArrayLength(statsOut) < count) {
+        return;
+    }
+
+    // Layout: frames, hits per product, misses per product
+    FrameCacheStats stats = processor->getCacheStats();
+    jlong values[count];
+    values[0] = static_cast<jlong>(stats.frames);
+    for (int i = 0; i < PRODUCT_COUNT; i++) {
+        values[1 + i] = static_cast<jlong>(stats.hits[i]);
+        values[1 + PRODUCT_COUNT + i] = static_cast<jlong>(stats.misses[i]);
+    }
+    env->SetLongArrayRegion(statsOut, 0, count, values);
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeGetRingTimestamp(JNIEnv *env, jobject thiz,
+                                                                        jlong processorPtr,
+                                                                        jint slot) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor || slot < 0 || slot >= processor->getOutputRing().capacity()) {
+        return 0;
+    }
+    return processor->getOutputRing().timestamp(slot);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeAcquireRingFrame(JNIEnv *env, jobject thiz,
+                                                                        jlong processorPtr) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    return processor ? processor->getOutputRing().acquireRead() : -1;
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeReleaseRingFrame(JNIEnv *env, jobject thiz,
+                                                                        jlong processorPtr,
+                                                                        jint slot) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (processor) {
+        processor->getOutputRing().release(slot);
+    }
+}
+
+JNIEXPORT jobject JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeGetRingBuffer(JNIEnv *env, jobject thiz,
+                                                                     jlong processorPtr,
+                                                                     jint slot) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor || slot < 0 || slot >= processor->getOutputRing().capacity()) {
+        return nullptr;
+    }
+
+    // Wraps the slot's native storage; stays valid until the ring generation changes.
+    // Sized to the current frame, which is 1 or 4 bytes per pixel
+    cv::Mat& frame = processor->getOutputRing().frame(slot);
+    if (frame.empty()) {
+        return nullptr;
+    }
+    return env->NewDirectByteBuffer(frame.data, static_cast<jlong>(frame.total() * frame.elemSize()));
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeGetRingGeneration(JNIEnv *env, jobject thiz,
+                                                                         jlong processorPtr) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    return processor ? processor->getOutputRing().generation() : 0;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeGetRingCapacity(JNIEnv *env, jobject thiz,
+                                                                       jlong processorPtr) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    return processor ? processor->getOutputRing().capacity() : 0;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeCopyRingFrame(JNIEnv *env, jobject thiz,
+                                                                     jlong processorPtr,
+                                                                     jint slot,
+                                                                     jobject dst) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor || slot < 0 || slot >= processor->getOutputRing().capacity()) {
+        return JNI_FALSE;
+    }
+
+    const cv::Mat& frame = processor->getOutputRing().frame(slot);
+    uint8_t* dstPtr = static_cast<uint8_t*>(env->GetDirectBufferAddress(dst));
+    size_t bytes = frame.total() * frame.elemSize();
+    if (frame.empty() || !dstPtr || static_cast<size_t>(env->GetDirectBufferCapacity(dst)) < bytes) {
+        return JNI_FALSE;
+    }
+
+    // Slots are continuous, so this is one copy straight into the destination
+    // (typically write-combined GPU-visible memory, so write it sequentially)
+    memcpy(dstPtr, frame.data, bytes);
+    return JNI_TRUE;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeGetRingFrameWidth(JNIEnv *env, jobject thiz,
+                                                                         jlong processorPtr,
+                                                                         jint slot) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor || slot < 0 || slot >= processor->getOutputRing().capacity()) {
+        return 0;
+    }
+    return processor->getOutputRing().frame(slot).cols;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeGetRingFrameHeight(JNIEnv *env, jobject thiz,
+                                                                          jlong processorPtr,
+                                                                          jint slot) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor || slot < 0 || slot >= processor->getOutputRing().capacity()) {
+        return 0;
+    }
+    return processor->getOutputRing().frame(slot).rows;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeGetRingFrameChannels(JNIEnv *env, jobject thiz,
+                                                                            jlong processorPtr,
+                                                                            jint slot) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor || slot < 0 || slot >= processor->getOutputRing().capacity()) {
+        return 0;
+    }
+    return processor->getOutputRing().frame(slot).channels();
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeSetProcessingScale(JNIEnv *env, jobject thiz,
+                                                                          jlong processorPtr,
+                                                                          jint divisor) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    return processor && processor->setProcessingScale(divisor) ? JNI_TRUE : JNI_FALSE;
+}
+
 JNIEXPORT void JNICALL
 Java_com_example_opencvopenglapp_OpenCVProcessor_nativeSetProcessingMode(JNIEnv *env, jobject thiz, 
                                                                          jlong processorPtr, 
@@ -90,4 +560,59 @@ Java_com_example_opencvopenglapp_OpenCVProcessor_nativeSetProcessingMode(JNIEnv
     }
 }
 
+JNIEXPORT jboolean JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeSetPipeline(JNIEnv *env, jobject thiz,
+                                                                   jlong processorPtr,
+                                                                   jstring spec) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (!processor || !spec) {
+        return JNI_FALSE;
+    }
+
+    const char* specChars = env->GetStringUTFChars(spec, nullptr);
+    if (!specChars) {
+        return JNI_FALSE;
+    }
+    bool ok = processor->setPipeline(specChars);
+    env->ReleaseStringUTFChars(spec, specChars);
+    return ok ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeSetThreadCount(JNIEnv *env, jobject thiz,
+                                                                      jlong processorPtr,
+                                                                      jint threads) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (processor) {
+        processor->setThreadCount(threads);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeSetStripHeight(JNIEnv *env, jobject thiz,
+                                                                      jlong processorPtr,
+                                                                      jint rows) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    if (processor) {
+        processor->setStripHeight(rows);
+    }
+}
+
+JNIEXPORT jdouble JNICALL
+Java_com_example_opencvopenglapp_OpenCVProcessor_nativeVerifyTiling(JNIEnv *env, jobject thiz,
+                                                                    jlong processorPtr,
+                                                                    jobject inputBuffer,
+                                                                    jint width, jint height,
+                                                                    jint stride) {
+    FrameProcessor* processor = reinterpret_cast<FrameProcessor*>(processorPtr);
+    void* inputData = env->GetDirectBufferAddress(inputBuffer);
+    if (!processor || !inputData || width <= 0 || height <= 0 || stride < width * 4 ||
+        env->GetDirectBufferCapacity(inputBuffer) < static_cast<jlong>(stride) * (height - 1) + width * 4) {
+        return -1.0;
+    }
+
+    cv::Mat inputMat(height, width, CV_8UC4, inputData, stride);
+    return processor->verifyTiling(inputMat);
+}
+
 }
@@ -0,0 +1,364 @@
+#include "pipeline.h"
+#include <algorithm>
+#include <cstdlib>
+
+namespace {
+
+class ConvertStage : public PipelineStage {
+public:
+    explicit ConvertStage(bool toGray) : toGray(toGray) {}
+
+    int outputChannels(int) const override { return toGray ? 1 : 4; }
+    bool isGrayConversion() const override { return toGray; }
+
+    void process(const cv::Mat& input, cv::Mat& output, PipelineContext& context) override {
+        int code;
+        if (toGray) {
+            if (input.data == context.cache.source().data) {
+                // Share the frame's gray image instead of converting again
+                output = context.cache.gray();
+                return;
+            }
+            if (input.channels() == 1) {
+                input.copyTo(output);
+                return;
+            }
+            code = input.channels() == 4 ? cv::COLOR_RGBA2GRAY : cv::COLOR_RGB2GRAY;
+        } else {
+            if (input.channels() == 4) {
+                input.copyTo(output);
+                return;
+            }
+            code = input.channels() == 1 ? cv::COLOR_GRAY2RGBA : cv::COLOR_RGB2RGBA;
+        }
+        output.create(input.size(), CV_MAKETYPE(CV_8U, toGray ? 1 : 4));
+        context.tiles.run(input, output, 0, [code](const cv::Mat& src, cv::Mat& dst) {
+            cv::cvtColor(src, dst, code);
+        });
+    }
+
+private:
+    bool toGray;
+};
+
+class GaussianStage : public PipelineStage {
+public:
+    GaussianStage(int kernelSize, double sigma) : kernelSize(kernelSize), sigma(sigma) {}
+
+    void process(const cv::Mat& input, cv::Mat& output, PipelineContext& context) override {
+        cv::Size kernel(kernelSize, kernelSize);
+        double s = sigma;
+        output.create(input.size(), input.type());
+        // Halo of one kernel radius keeps strips bit-exact
+        context.tiles.run(input, output, kernelSize / 2, [kernel, s](const cv::Mat& src, cv::Mat& dst) {
+            cv::GaussianBlur(src, dst, kernel, s);
+        });
+    }
+
+private:
+    int kernelSize;
+    double sigma;
+};
+
+class CannyStage : public PipelineStage {
+public:
+    CannyStage(double low, double high) : low(low), high(high) {}
+
+    int outputChannels(int) const override { return 1; }
+
+    void process(const cv::Mat& input, cv::Mat& output, PipelineContext&) override {
+        // Hysteresis can follow an edge across any number of rows, so it is
+        // not strip-safe; cv::Canny parallelises itself
+        cv::Canny(input, output, low, high);
+    }
+
+private:
+    double low, high;
+};
+
+class MorphologyStage : public PipelineStage {
+public:
+    MorphologyStage(int op, int kernelSize)
+        : op(op), kernel(cv::getStructuringElement(cv::MORPH_RECT, cv::Size(kernelSize, kernelSize))) {
+        // open/close are two passes, so they need twice the radius
+        int radius = kernelSize / 2;
+        halo = (op == cv::MORPH_OPEN || op == cv::MORPH_CLOSE) ? radius * 2 : radius;
+    }
+
+    void process(const cv::Mat& input, cv::Mat& output, PipelineContext& context) override {
+        int morphOp = op;
+        const cv::Mat& k = kernel;
+        output.create(input.size(), input.type());
+        context.tiles.run(input, output, halo, [morphOp, &k](const cv::Mat& src, cv::Mat& dst) {
+            cv::morphologyEx(src, dst, morphOp, k);
+        });
+    }
+
+private:
+    int op;
+    int halo;
+    cv::Mat kernel;
+};
+
+class ThresholdStage : public PipelineStage {
+public:
+    ThresholdStage(double threshold, double maxValue, bool otsu)
+        : threshold(threshold), maxValue(maxValue), otsu(otsu) {}
+
+    void process(const cv::Mat& input, cv::Mat& output, PipelineContext& context) override {
+        if (otsu) {
+            // Otsu picks the threshold from the whole-frame histogram
+            cv::threshold(input, output, 0, maxValue, cv::THRESH_BINARY | cv::THRESH_OTSU);
+            return;
+        }
+        double t = threshold, m = maxValue;
+        output.create(input.size(), input.type());
+        context.tiles.run(input, output, 0, [t, m](const cv::Mat& src, cv::Mat& dst) {
+            cv::threshold(src, dst, t, m, cv::THRESH_BINARY);
+        });
+    }
+
+private:
+    double threshold, maxValue;
+    bool otsu;
+};
+
+class AdaptiveThresholdStage : public PipelineStage {
+public:
+    AdaptiveThresholdStage(int windowSize, double offset) : radius(windowSize / 2), offset(offset) {}
+
+    int outputChannels(int) const override { return 1; }
+
+    void process(const cv::Mat& input, cv::Mat& output, PipelineContext& context) override {
+        CV_Assert(input.type() == CV_8UC1);
+        // The frame's integral image is shared; anything else gets its own
+        const cv::Mat* sums = &localIntegral;
+        if (context.cache.isGray(input)) {
+            sums = &context.cache.integral();
+        } else {
+            cv::integral(input, localIntegral, CV_32S);
+        }
+
+        output.create(input.size(), CV_8UC1);
+        const cv::Mat& integral = *sums;
+        const int r = radius;
+        const double c = offset;
+        // Window sums are O(1) per pixel from the integral, independent of size
+        cv::parallel_for_(cv::Range(0, input.rows), [&](const cv::Range& rows) {
+            for (int y = rows.start; y < rows.end; y++) {
+                int y0 = std::max(y - r, 0), y1 = std::min(y + r + 1, input.rows);
+                const int* top = integral.ptr<int>(y0);
+                const int* bottom = integral.ptr<int>(y1);
+                const uchar* src = input.ptr<uchar>(y);
+                uchar* dst = output.ptr<uchar>(y);
+                for (int x = 0; x < input.cols; x++) {
+                    int x0 = std::max(x - r, 0), x1 = std::min(x + r + 1, input.cols);
+                    int sum = bottom[x1] - bottom[x0] - top[x1] + top[x0];
+                    double mean = static_cast<double>(sum) / ((y1 - y0) * (x1 - x0));
+                    dst[x] = src[x] > mean - c ? 255 : 0;
+                }
+            }
+        });
+    }
+
+private:
+    int radius;
+    double offset;
+    cv::Mat localIntegral;
+};
+
+class OverlayStage : public PipelineStage {
+public:
+    explicit OverlayStage(const cv::Scalar& color) : color(color) {}
+
+    int outputChannels(int) const override { return 4; }
+
+    void process(const cv::Mat& input, cv::Mat& output, PipelineContext& context) override {
+        const cv::Mat& source = context.cache.source();
+        CV_Assert(input.type() == CV_8UC1 && input.size() == source.size());
+        if (source.channels() == 4) {
+            source.copyTo(output);
+        } else {
+            output.create(source.size(), CV_8UC4);
+            cv::cvtColor(source, output, source.channels() == 1 ? cv::COLOR_GRAY2RGBA : cv::COLOR_RGB2RGBA);
+        }
+        output.setTo(color, input);
+    }
+
+private:
+    cv::Scalar color;
+};
+
+std::string trim(const std::string& text) {
+    size_t begin = text.find_first_not_of(" \t");
+    if (begin == std::string::npos) {
+        return "";
+    }
+    size_t end = text.find_last_not_of(" \t");
+    return text.substr(begin, end - begin + 1);
+}
+
+bool parseArgs(const std::string& text, std::vector<double>& args) {
+    size_t start = 0;
+    while (start <= text.size()) {
+        size_t comma = text.find(',', start);
+        std::string token = trim(text.substr(start, comma == std::string::npos ? std::string::npos : comma - start));
+        char* end = nullptr;
+        double value = std::strtod(token.c_str(), &end);
+        if (token.empty() || *end != '\0') {
+            return false;
+        }
+        args.push_back(value);
+        if (comma == std::string::npos) {
+            break;
+        }
+        start = comma + 1;
+    }
+    return true;
+}
+
+bool validKernel(double size) {
+    int k = static_cast<int>(size);
+    return k == size && k >= 1 && k % 2 == 1 && k <= 31;
+}
+
+std::unique_ptr<PipelineStage> createStage(const std::string& name, const std::vector<double>& args,
+                                           std::string& error) {
+    if (name == "gray" || name == "rgba" || name == "bgra") {
+        if (args.empty()) {
+            return std::unique_ptr<PipelineStage>(new ConvertStage(name == "gray"));
+        }
+    } else if (name == "gauss") {
+        if ((args.size() == 1 || args.size() == 2) && validKernel(args[0])) {
+            double sigma = args.size() == 2 ? args[1] : 0;
+            return std::unique_ptr<PipelineStage>(new GaussianStage(static_cast<int>(args[0]), sigma));
+        }
+    } else if (name == "canny") {
+        if (args.size() == 2 && args[0] >= 0 && args[1] >= args[0]) {
+            return std::unique_ptr<PipelineStage>(new CannyStage(args[0], args[1]));
+        }
+    } else if (name == "erode" || name == "dilate" || name == "open" || name == "close") {
+        if (args.size() == 1 && validKernel(args[0])) {
+            int op = name == "erode" ? cv::MORPH_ERODE
+                   : name == "dilate" ? cv::MORPH_DILATE
+                   : name == "open" ? cv::MORPH_OPEN : cv::MORPH_CLOSE;
+            return std::unique_ptr<PipelineStage>(new MorphologyStage(op, static_cast<int>(args[0])));
+        }
+    } else if (name == "thresh") {
+        if ((args.size() == 1 || args.size() == 2) && args[0] >= 0 && args[0] <= 255) {
+            double maxValue = args.size() == 2 ? args[1] : 255;
+            return std::unique_ptr<PipelineStage>(new ThresholdStage(args[0], maxValue, false));
+        }
+    } else if (name == "otsu") {
+        if (args.empty()) {
+            return std::unique_ptr<PipelineStage>(new ThresholdStage(0, 255, true));
+        }
+    } else if (name == "adaptive") {
+        if (args.size() == 2 && validKernel(args[0]) && args[0] >= 3) {
+            return std::unique_ptr<PipelineStage>(new AdaptiveThresholdStage(static_cast<int>(args[0]), args[1]));
+        }
+    } else if (name == "overlay") {
+        if (args.empty()) {
+            // Green; frames are RGBA throughout the pipeline
+            return std::unique_ptr<PipelineStage>(new OverlayStage(cv::Scalar(0, 255, 0, 255)));
+        }
+        if (args.size() == 3) {
+            return std::unique_ptr<PipelineStage>(new OverlayStage(cv::Scalar(args[0], args[1], args[2], 255)));
+        }
+    } else {
+        error = "unknown stage '" + name + "'";
+        return nullptr;
+    }
+    error = "bad arguments for stage '" + name + "'";
+    return nullptr;
+}
+
+} // namespace
+
+std::unique_ptr<Pipeline> Pipeline::parse(const std::string& spec, std::string& error) {
+    std::unique_ptr<Pipeline> pipeline(new Pipeline());
+    pipeline->spec = spec;
+
+    if (!trim(spec).empty()) {
+        size_t start = 0;
+        while (true) {
+            size_t bar = spec.find('|', start);
+            std::string token = trim(spec.substr(start, bar == std::string::npos ? std::string::npos : bar - start));
+            size_t colon = token.find(':');
+            std::string name = trim(token.substr(0, colon));
+            std::vector<double> args;
+            if (colon != std::string::npos && !parseArgs(token.substr(colon + 1), args)) {
+                error = "bad arguments for stage '" + name + "'";
+                return nullptr;
+            }
+            std::unique_ptr<PipelineStage> stage = createStage(name, args, error);
+            if (!stage) {
+                return nullptr;
+            }
+            pipeline->stages.push_back(std::move(stage));
+            if (bar == std::string::npos) {
+                break;
+            }
+            start = bar + 1;
+        }
+    }
+
+    pipeline->stageOutputs.resize(pipeline->stages.size());
+    return pipeline;
+}
+
+void Pipeline::run(FrameCache& cache, cv::Mat& output, TileEngine& tiles, bool allowSingleChannel) {
+    PipelineContext context{tiles, cache};
+    const cv::Mat& input = cache.source();
+    const cv::Mat* current = &input;
+    int channels = input.channels();
+    const int finalChannels = allowSingleChannel && outputChannels(channels) == 1 ? 1 : 4;
+
+    for (size_t i = 0; i < stages.size(); i++) {
+        PipelineStage& stage = *stages[i];
+        int nextChannels = stage.outputChannels(channels);
+        // The last stage writes straight into the caller's output when it
+        // already produces the final format, saving a copy
+        bool last = i + 1 == stages.size();
+        cv::Mat& target = (last && nextChannels == finalChannels) ? output : stageOutputs[i];
+        stage.process(*current, target, context);
+        current = &target;
+        channels = target.channels();
+    }
+
+    if (current != &output) {
+        if (finalChannels == 1) {
+            current->copyTo(output);
+        } else {
+            toRgba(*current, output, tiles);
+        }
+    }
+}
+
+int Pipeline::outputChannels(int inputChannels) const {
+    int channels = inputChannels;
+    for (const auto& stage : stages) {
+        channels = stage->outputChannels(channels);
+    }
+    return channels;
+}
+
+bool Pipeline::startsWithGrayConversion() const {
+    return !stages.empty() && stages[0]->isGrayConversion();
+}
+
+const std::string& Pipeline::getSpec() const {
+    return spec;
+}
+
+void Pipeline::toRgba(const cv::Mat& input, cv::Mat& output, TileEngine& tiles) {
+    if (input.channels() == 4) {
+        input.copyTo(output);
+        return;
+    }
+    const int code = input.channels() == 1 ? cv::COLOR_GRAY2RGBA : cv::COLOR_RGB2RGBA;
+    output.create(input.size(), CV_8UC4);
+    tiles.run(input, output, 0, [code](const cv::Mat& src, cv::Mat& dst) {
+        cv::cvtColor(src, dst, code);
+    });
+}
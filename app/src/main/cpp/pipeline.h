@@ -0,0 +1,66 @@
+#ifndef PIPELINE_H
+#define PIPELINE_H
+
+#include <opencv2/opencv.hpp>
+#include "frame_cache.h"
+#include "tile_engine.h"
+#include <memory>
+#include <string>
+#include <vector>
+
+// Per-run state handed to every stage
+struct PipelineContext {
+    TileEngine& tiles;
+    FrameCache& cache;       // the current frame and its shared derived products
+};
+
+class PipelineStage {
+public:
+    virtual ~PipelineStage() {}
+    // Channel count this stage produces from an input with inputChannels
+    virtual int outputChannels(int inputChannels) const { return inputChannels; }
+    // True for a plain color-to-gray conversion; a pipeline starting with one
+    // never looks at the color frame
+    virtual bool isGrayConversion() const { return false; }
+    virtual void process(const cv::Mat& input, cv::Mat& output, PipelineContext& context) = 0;
+};
+
+// A chain of stages parsed from a spec such as "gray|gauss:5|canny:50,150".
+// Stages are separated by '|' and take optional comma separated arguments
+// after ':'. Supported stages:
+//   gray, rgba                   color conversion (bgra: old name of rgba)
+//   gauss:k[,sigma]              Gaussian blur, odd kernel size
+//   canny:low,high               Canny edges
+//   erode:k dilate:k open:k close:k   rectangular morphology
+//   thresh:t[,max]  otsu         binary threshold
+//   adaptive:k,c                 local mean threshold over a k x k window
+//   overlay[:r,g,b]              paints the current mask over the source frame
+// An empty spec passes frames through unchanged.
+//
+// Each stage writes into its own Mat owned by the pipeline, so intermediates
+// are allocated on the first frame of a resolution and reused after that.
+// A pipeline is not thread safe; run it from one thread at a time.
+class Pipeline {
+public:
+    // Returns nullptr and fills error if the spec doesn't parse
+    static std::unique_ptr<Pipeline> parse(const std::string& spec, std::string& error);
+
+    // Runs every stage on cache.source() and leaves RGBA in output, or a
+    // single gray channel when allowSingleChannel is set and the last stage
+    // produces one (see outputChannels). create() is a no-op on a
+    // preallocated output of that type, so it is written in place
+    void run(FrameCache& cache, cv::Mat& output, TileEngine& tiles, bool allowSingleChannel = false);
+    // Channels the last stage produces for an input with inputChannels
+    int outputChannels(int inputChannels) const;
+    bool startsWithGrayConversion() const;
+    const std::string& getSpec() const;
+
+private:
+    std::string spec;
+    std::vector<std::unique_ptr<PipelineStage>> stages;
+    std::vector<cv::Mat> stageOutputs;
+
+    static void toRgba(const cv::Mat& input, cv::Mat& output, TileEngine& tiles);
+};
+
+#endif // PIPELINE_H
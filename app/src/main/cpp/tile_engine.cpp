@@ -0,0 +1,72 @@
+#include "tile_engine.h"
+#include <opencv2/core/utility.hpp>
+#include <algorithm>
+#include "native_log.h"
+
+#define LOG_TAG "TileEngine"
+
+TileEngine::TileEngine() : stripHeight(0), enabled(true) {
+}
+
+void TileEngine::setThreadCount(int threads) {
+    // OpenCV's pool spans big and little cores alike; it has no affinity control
+    cv::setNumThreads(threads > 0 ? threads : -1);
+    LOGI("Thread count set to %d", cv::getNumThreads());
+}
+
+void TileEngine::setStripHeight(int rows) {
+    stripHeight = std::max(0, rows);
+    LOGI("Strip height set to %d", stripHeight.load());
+}
+
+void TileEngine::setEnabled(bool value) {
+    enabled = value;
+}
+
+bool TileEngine::isEnabled() const {
+    return enabled;
+}
+
+void TileEngine::run(const cv::Mat& src, cv::Mat& dst, int halo, const StripOp& op) {
+    const int rows = src.rows;
+    const int threads = std::max(1, cv::getNumThreads());
+    int stripRows = stripHeight.load();
+    if (stripRows <= 0) {
+        stripRows = (rows + threads - 1) / threads;
+    }
+    // A strip thinner than its halo would spend more time on context than on output
+    stripRows = std::max(stripRows, std::max(1, halo));
+    const int stripCount = (rows + stripRows - 1) / stripRows;
+
+    if (!enabled || stripCount <= 1) {
+        op(src, dst);
+        return;
+    }
+
+    CV_Assert(dst.rows == src.rows && dst.cols == src.cols);
+    if (static_cast<int>(scratch.size()) < stripCount) {
+        scratch.resize(stripCount);
+    }
+
+    cv::parallel_for_(cv::Range(0, stripCount), [&](const cv::Range& range) {
+        for (int i = range.start; i < range.end; i++) {
+            const int y0 = i * stripRows;
+            const int y1 = std::min(rows, y0 + stripRows);
+
+            if (halo == 0) {
+                // Point operation: write the strip straight into dst
+                cv::Mat dstStrip = dst.rowRange(y0, y1);
+                op(src.rowRange(y0, y1), dstStrip);
+                continue;
+            }
+
+            // Extend by the halo, clamped at the frame edges where the
+            // operation's own border handling matches the full-frame run
+            const int h0 = std::max(0, y0 - halo);
+            const int h1 = std::min(rows, y1 + halo);
+            cv::Mat& strip = scratch[i];
+            op(src.rowRange(h0, h1), strip);
+            strip.rowRange(y0 - h0, y1 - h0).copyTo(dst.rowRange(y0, y1));
+        }
+    }, stripCount);
+}
@@ -0,0 +1,38 @@
+#ifndef TILE_ENGINE_H
+#define TILE_ENGINE_H
+
+#include <opencv2/core.hpp>
+#include <atomic>
+#include <functional>
+#include <vector>
+
+// Splits a frame into horizontal strips and runs an operation on them with
+// cv::parallel_for_. Each strip is processed together with `halo` rows of
+// real neighbouring pixels above and below, and only the strip's own rows are
+// stitched back, so as long as the halo covers the kernel radius the result is
+// bit-exact with running the operation over the whole frame.
+class TileEngine {
+public:
+    // Operation applied to one strip; output must match the input strip size
+    typedef std::function<void(const cv::Mat& src, cv::Mat& dst)> StripOp;
+
+    TileEngine();
+
+    // Worker threads for the OpenCV pool (global); 0 restores OpenCV's default
+    void setThreadCount(int threads);
+    // Rows per strip; 0 derives it from the thread count
+    void setStripHeight(int rows);
+    void setEnabled(bool enabled);
+    bool isEnabled() const;
+
+    // dst must already have src's size and the operation's output type
+    void run(const cv::Mat& src, cv::Mat& dst, int halo, const StripOp& op);
+
+private:
+    std::atomic<int> stripHeight;
+    std::atomic<bool> enabled;
+    // One scratch Mat per strip, reallocated only when the strip geometry changes
+    std::vector<cv::Mat> scratch;
+};
+
+#endif // TILE_ENGINE_H
@@ -0,0 +1,258 @@
+package com.example.opencvopenglapp;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.Matrix;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads camera frames back for CPU analysis without stalling the GL thread
+ * (GLES3 only): the OES texture is drawn into a framebuffer at analysis size,
+ * glReadPixels copies it into a pixel pack buffer asynchronously and a fence
+ * marks when that copy is done. The frame is picked up by {@link #poll} on a
+ * later camera frame, normally the next one, once its fence has signalled.
+ *
+ * If every buffer is still in flight when a new frame is issued, the oldest
+ * one is waited for (a stall) for up to STALL_TIMEOUT_NANOS and dropped if it
+ * still isn't done. GL thread only; stats can be read from any thread.
+ */
+public class AsyncReadback {
+    private static final String TAG = "AsyncReadback";
+
+    /** Receives a completed frame; the buffer is only valid during the call. */
+    public interface Consumer {
+        void onReadback(ByteBuffer pixels, int width, int height, long frameStartNanos);
+    }
+
+    private static final int BUFFER_COUNT = 3;
+    private static final long STALL_TIMEOUT_NANOS = 33_000_000L;
+
+    private static class Slot {
+        int buffer;
+        long fence;           // 0 when idle
+        int width;
+        int height;
+        long frameStartNanos;
+        long issueNanos;
+    }
+
+    private final OpenGLRenderer renderer;
+    private final FramebufferPool framebufferPool = new FramebufferPool();
+    private final Slot[] slots = new Slot[BUFFER_COUNT];
+    private final float[] identityMatrix = new float[16];
+    private FramebufferPool.Framebuffer target;
+    private int bufferSize = 0;
+    private int nextSlot = 0;   // issued next
+    private int oldestSlot = 0; // polled next
+    private int inFlight = 0;
+
+    // Stats, cumulative
+    private long issued = 0;
+    private long completed = 0;
+    private long stalls = 0;
+    private long dropped = 0;
+    private long stallNanos = 0;
+    private long latencySumNanos = 0;
+    private long lastLatencyNanos = 0;
+
+    AsyncReadback(OpenGLRenderer renderer) {
+        this.renderer = renderer;
+        Matrix.setIdentityM(identityMatrix, 0);
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /** Forgets GL objects after the context was lost; they are rebuilt on demand. */
+    void invalidate() {
+        framebufferPool.invalidate();
+        target = null;
+        bufferSize = 0;
+        for (Slot slot : slots) {
+            slot.fence = 0;
+        }
+        inFlight = 0;
+        nextSlot = 0;
+        oldestSlot = 0;
+    }
+
+    /**
+     * Draws the camera texture at width x height and starts copying it back.
+     * Returns false if the oldest copy had to be dropped to make room.
+     */
+    boolean issue(int cameraTextureId, float[] texMatrix, int width, int height, long frameStartNanos) {
+        boolean keptAll = true;
+        if (inFlight == BUFFER_COUNT) {
+            keptAll = waitForOldest();
+        }
+        ensureTargets(width, height);
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, target.framebuffer);
+        GLES20.glViewport(0, 0, width, height);
+        renderer.drawQuad(renderer.getCameraProgram(), GLES11Ext.GL_TEXTURE_EXTERNAL_OES, cameraTextureId,
+                identityMatrix, texMatrix);
+
+        Slot slot = slots[nextSlot];
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, slot.buffer);
+        // With a pack buffer bound the last argument is an offset into it, and
+        // the call returns without waiting for the GPU
+        GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        slot.fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+        slot.width = width;
+        slot.height = height;
+        slot.frameStartNanos = frameStartNanos;
+        slot.issueNanos = System.nanoTime();
+        nextSlot = (nextSlot + 1) % BUFFER_COUNT;
+        inFlight++;
+        synchronized (this) {
+            issued++;
+        }
+        return keptAll;
+    }
+
+    /**
+     * Hands every copy that has finished, oldest first, to consumer without
+     * waiting on the GPU. Returns how many frames were delivered.
+     */
+    int poll(Consumer consumer) {
+        int delivered = 0;
+        while (inFlight > 0) {
+            Slot slot = slots[oldestSlot];
+            int status = GLES30.glClientWaitSync(slot.fence, 0, 0);
+            if (status != GLES30.GL_ALREADY_SIGNALED && status != GLES30.GL_CONDITION_SATISFIED) {
+                break;
+            }
+            deliver(slot, consumer);
+            delivered++;
+        }
+        return delivered;
+    }
+
+    private void deliver(Slot slot, Consumer consumer) {
+        long latency = System.nanoTime() - slot.issueNanos;
+        GLES30.glDeleteSync(slot.fence);
+        slot.fence = 0;
+
+        int size = slot.width * slot.height * 4;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, slot.buffer);
+        ByteBuffer pixels = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size,
+                GLES30.GL_MAP_READ_BIT);
+        if (pixels != null) {
+            consumer.onReadback(pixels, slot.width, slot.height, slot.frameStartNanos);
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        } else {
+            Log.w(TAG, "glMapBufferRange failed (0x" + Integer.toHexString(GLES20.glGetError()) + ")");
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+
+        oldestSlot = (oldestSlot + 1) % BUFFER_COUNT;
+        inFlight--;
+        synchronized (this) {
+            completed++;
+            latencySumNanos += latency;
+            lastLatencyNanos = latency;
+        }
+    }
+
+    // Blocks on the oldest copy so its buffer can be reused. The result is
+    // discarded either way: by now a newer frame is on its way.
+    private boolean waitForOldest() {
+        Slot slot = slots[oldestSlot];
+        long start = System.nanoTime();
+        int status = GLES30.glClientWaitSync(slot.fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, STALL_TIMEOUT_NANOS);
+        long waited = System.nanoTime() - start;
+        GLES30.glDeleteSync(slot.fence);
+        slot.fence = 0;
+        oldestSlot = (oldestSlot + 1) % BUFFER_COUNT;
+        inFlight--;
+        synchronized (this) {
+            stalls++;
+            stallNanos += waited;
+            dropped++;
+        }
+        return status == GLES30.GL_ALREADY_SIGNALED || status == GLES30.GL_CONDITION_SATISFIED;
+    }
+
+    // Discards every copy not yet delivered, counting them as dropped
+    private void dropInFlight() {
+        int count = inFlight;
+        while (inFlight > 0) {
+            Slot slot = slots[oldestSlot];
+            GLES30.glDeleteSync(slot.fence);
+            slot.fence = 0;
+            oldestSlot = (oldestSlot + 1) % BUFFER_COUNT;
+            inFlight--;
+        }
+        synchronized (this) {
+            dropped += count;
+        }
+    }
+
+    private void ensureTargets(int width, int height) {
+        if (target == null || target.width != width || target.height != height) {
+            if (target != null) {
+                framebufferPool.release(target);
+                framebufferPool.trim();
+            }
+            target = framebufferPool.acquire(width, height, GLES20.GL_RGBA);
+        }
+
+        int size = width * height * 4;
+        if (size <= bufferSize) {
+            return;
+        }
+        // Only grows. glBufferData orphans the old storage, so copies still in
+        // flight would be mapped from the new, uninitialized one: drop them
+        dropInFlight();
+        int[] ids = new int[BUFFER_COUNT];
+        if (bufferSize == 0) {
+            GLES20.glGenBuffers(BUFFER_COUNT, ids, 0);
+            for (int i = 0; i < BUFFER_COUNT; i++) {
+                slots[i].buffer = ids[i];
+            }
+        }
+        for (Slot slot : slots) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, slot.buffer);
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        bufferSize = size;
+        Log.d(TAG, "Readback buffers: " + BUFFER_COUNT + " x " + size + " bytes (" + width + "x" + height + ")");
+    }
+
+    public synchronized long getIssued() {
+        return issued;
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    /** Times the GL thread had to wait because every buffer was still in flight. */
+    public synchronized long getStalls() {
+        return stalls;
+    }
+
+    public synchronized double getStallMillis() {
+        return stallNanos / 1_000_000.0;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /** Issue to fence signalled and mapped, as seen by the GL thread. */
+    public synchronized double getAverageLatencyMillis() {
+        return completed > 0 ? latencySumNanos / (completed * 1_000_000.0) : 0;
+    }
+
+    public synchronized double getLastLatencyMillis() {
+        return lastLatencyNanos / 1_000_000.0;
+    }
+}
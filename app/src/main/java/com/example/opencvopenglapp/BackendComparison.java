@@ -0,0 +1,122 @@
+package com.example.opencvopenglapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * How far a GPU result is from the CPU backend's on the same frame: mean and
+ * max absolute difference per color channel, 0-255, alpha ignored. Works on
+ * pixels already read back and makes no GL calls, so the caller decides where
+ * the GPU result comes from (the live camera texture, or a test context).
+ *
+ * Edge maps come from different detectors (a Sobel threshold on the GPU,
+ * Canny on the CPU), so per-pixel errors say little there; for the edge
+ * mode the maps are compared by how well they trace the same edges instead.
+ */
+public class BackendComparison {
+    private static final int MODE_EDGES = 1;
+    // An edge pixel counts as matched with an edge of the other map this close
+    private static final int EDGE_TOLERANCE = 1;
+
+    public final int mode;
+    public final double meanError;
+    public final int maxError;
+    /**
+     * Edge mode only, else -1: the smaller of the share of GPU edge pixels
+     * near a CPU edge and the share of CPU edge pixels near a GPU edge. 1 when
+     * both trace the same edges; -1 also when either map has no edges.
+     */
+    public final double edgeAgreement;
+
+    BackendComparison(int mode, double meanError, int maxError, double edgeAgreement) {
+        this.mode = mode;
+        this.meanError = meanError;
+        this.maxError = maxError;
+        this.edgeAgreement = edgeAgreement;
+    }
+
+    /**
+     * Runs input through mode's built-in CPU pipeline and compares gpuOutput
+     * with the result. Both buffers are tightly packed RGBA, direct.
+     * Returns null if the CPU side failed.
+     */
+    public static BackendComparison compare(int mode, ByteBuffer input, ByteBuffer gpuOutput, int width, int height) {
+        // A separate processor: the app's may be busy on its worker thread,
+        // and this one runs the mode's full-quality built-in pipeline
+        OpenCVProcessor reference = new OpenCVProcessor(1);
+        ByteBuffer cpuOutput = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+        try {
+            reference.setProcessingMode(mode);
+            if (!reference.processFrame(input, cpuOutput, width, height, width * 4)) {
+                return null;
+            }
+        } finally {
+            reference.destroy();
+        }
+        return measure(mode, cpuOutput, gpuOutput, width, height);
+    }
+
+    /** Compares two tightly packed RGBA frames of width x height. */
+    public static BackendComparison measure(int mode, ByteBuffer expected, ByteBuffer actual, int width, int height) {
+        int pixelCount = width * height;
+        long sum = 0;
+        int max = 0;
+        for (int i = 0; i < pixelCount * 4; i++) {
+            if ((i & 3) == 3) {
+                continue; // alpha
+            }
+            int diff = Math.abs((expected.get(i) & 0xFF) - (actual.get(i) & 0xFF));
+            sum += diff;
+            max = Math.max(max, diff);
+        }
+        double agreement = -1;
+        if (mode == MODE_EDGES) {
+            double gpuNearCpu = edgesNear(actual, expected, width, height);
+            double cpuNearGpu = edgesNear(expected, actual, width, height);
+            agreement = gpuNearCpu < 0 || cpuNearGpu < 0 ? -1 : Math.min(gpuNearCpu, cpuNearGpu);
+        }
+        return new BackendComparison(mode, pixelCount > 0 ? (double) sum / (pixelCount * 3) : 0, max, agreement);
+    }
+
+    // Share of edges' edge pixels with an edge of other within
+    // EDGE_TOLERANCE pixels, i.e. inside other's dilated edge mask; -1
+    // without edge pixels. Edge pixels have red above half
+    private static double edgesNear(ByteBuffer edges, ByteBuffer other, int width, int height) {
+        long edgePixels = 0;
+        long matched = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (!isEdge(edges, width, x, y)) {
+                    continue;
+                }
+                edgePixels++;
+                if (hasEdgeNear(other, width, height, x, y)) {
+                    matched++;
+                }
+            }
+        }
+        return edgePixels > 0 ? (double) matched / edgePixels : -1;
+    }
+
+    private static boolean hasEdgeNear(ByteBuffer edges, int width, int height, int x, int y) {
+        for (int ny = Math.max(0, y - EDGE_TOLERANCE); ny <= Math.min(height - 1, y + EDGE_TOLERANCE); ny++) {
+            for (int nx = Math.max(0, x - EDGE_TOLERANCE); nx <= Math.min(width - 1, x + EDGE_TOLERANCE); nx++) {
+                if (isEdge(edges, width, nx, ny)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isEdge(ByteBuffer edges, int width, int x, int y) {
+        return (edges.get((y * width + x) * 4) & 0xFF) >= 128;
+    }
+
+    @Override
+    public String toString() {
+        String errors = String.format(Locale.US, "GPU vs CPU, mode %d: mean %.2f, max %d", mode, meanError, maxError);
+        return mode == MODE_EDGES ? errors + String.format(Locale.US, ", edge agreement %.3f", edgeAgreement) : errors;
+    }
+}
@@ -0,0 +1,671 @@
+package com.example.opencvopenglapp;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The back camera through Camera2, streaming into the view's SurfaceTexture;
+ * frames reach the pipeline on the GL thread.
+ *
+ * Optionally the same session also feeds a small YUV ImageReader (the
+ * analysis stream), so CPU processing gets frames at analysis size without
+ * reading back the full-resolution preview.
+ *
+ * start() opens the camera while the view may still be creating its
+ * SurfaceTexture; the session is created as soon as both are done, in
+ * whichever order they finish, and the view's {@link StartupMetrics} record
+ * how long each step took.
+ *
+ * Stream sizes and the AE target FPS range come from a {@link CapturePolicy}
+ * and are chosen again when the processing mode changes; the session is only
+ * rebuilt when a size changes.
+ */
+public class Camera2FrameSource implements FrameSource {
+    private static final String TAG = "Camera2FrameSource";
+    
+    // acquireLatestImage needs two: one held by the listener, one to swap in
+    private static final int ANALYSIS_MAX_IMAGES = 3;
+    
+    // Startup states; OPENING waits for both the camera and the SurfaceTexture
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_OPENING = 1;
+    private static final int STATE_CONFIGURING = 2;
+    private static final int STATE_STREAMING = 3;
+
+    // How long stop() waits for an open in progress to call back
+    private static final long OPEN_TIMEOUT_MS = 3000;
+
+    /** Receives analysis stream images on the analysis thread. */
+    public interface AnalysisListener {
+        /**
+         * The image is closed after the call. frameStartNanos is
+         * System.nanoTime() when it arrived, like camera frame start times.
+         */
+        void onAnalysisImage(Image image, long frameStartNanos);
+    }
+    
+    private Context context;
+    private CameraManager cameraManager;
+    // Background thread once started, including stop()'s teardown
+    private CameraDevice cameraDevice;
+    private CameraCaptureSession captureSession;
+    private CaptureRequest.Builder captureRequestBuilder;
+    private CameraGLSurfaceView glSurfaceView;
+    
+    private String cameraId;
+    private volatile Size previewSize;
+    private Surface previewSurface;
+    
+    // See setCapturePolicy()
+    private CapturePolicy capturePolicy = new CapturePolicy();
+    private volatile int processingMode = 0;
+    private StreamConfigurationMap streamMap;
+    private Range<Integer>[] fpsRanges;
+    private CapturePolicy.Config captureConfig; // background thread once started
+    private volatile int state = STATE_IDLE;
+    // Bumped by stop(), so callbacks of an earlier start() know they are stale
+    private volatile int generation = 0;
+    private CountDownLatch pendingOpen; // UI thread
+    private boolean surfaceReady = false; // background thread once started
+    private boolean isSessionClosed = false; // background thread once started
+    private HandlerThread backgroundThread;
+    private Handler backgroundHandler;
+    
+    // Analysis stream, see setAnalysisStream()
+    private volatile AnalysisListener analysisListener;
+    private int requestedAnalysisWidth = 0;
+    private int requestedAnalysisHeight = 0;
+    private Size analysisSize;
+    private ImageReader analysisReader;
+    private HandlerThread analysisThread;
+    private Handler analysisHandler;
+    private final ImageReader.OnImageAvailableListener analysisImageListener =
+            new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            // Older images still queued are skipped and closed
+            Image image = reader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
+            try {
+                AnalysisListener listener = analysisListener;
+                if (listener != null) {
+                    listener.onAnalysisImage(image, System.nanoTime());
+                }
+            } finally {
+                image.close();
+            }
+        }
+    };
+
+    public Camera2FrameSource(Context context) {
+        this.context = context;
+        this.cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        
+        Log.d(TAG, "Manufacturer: " + Build.MANUFACTURER + ", Model: " + Build.MODEL);
+    }
+
+    private void startBackgroundThread() {
+        backgroundThread = new HandlerThread("CameraBackground");
+        backgroundThread.start();
+        backgroundHandler = new Handler(backgroundThread.getLooper());
+    }
+
+    private void stopBackgroundThread() {
+        if (backgroundThread != null) {
+            backgroundThread.quitSafely();
+            try {
+                backgroundThread.join();
+                backgroundThread = null;
+                backgroundHandler = null;
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Error stopping background thread", e);
+            }
+        }
+    }
+
+    public void setGLSurfaceView(CameraGLSurfaceView surfaceView) {
+        this.glSurfaceView = surfaceView;
+    }
+
+    /**
+     * Adds a YUV_420_888 stream of at most width x height (as large as the
+     * capture policy affords, preferring the preview's aspect ratio) to the session,
+     * delivered to listener on its own thread. A null listener removes it.
+     * Takes effect from the next start().
+     */
+    public void setAnalysisStream(int width, int height, AnalysisListener listener) {
+        requestedAnalysisWidth = width;
+        requestedAnalysisHeight = height;
+        analysisListener = listener;
+    }
+
+    /** Replaces the default policy. Takes effect from the next start() or mode change. */
+    public void setCapturePolicy(CapturePolicy policy) {
+        capturePolicy = policy;
+    }
+
+    public CapturePolicy getCapturePolicy() {
+        return capturePolicy;
+    }
+
+    /**
+     * The processing mode frames are captured for, or
+     * {@link CapturePolicy#MODE_NONE}; chooses the capture configuration
+     * again if the camera is running.
+     */
+    public void setProcessingMode(int mode) {
+        if (processingMode == mode) {
+            return;
+        }
+        processingMode = mode;
+        refreshCaptureConfig();
+    }
+
+    /**
+     * Chooses the capture configuration again, e.g. after the policy learned
+     * the current mode's cost, and applies it if it changed.
+     */
+    public void refreshCaptureConfig() {
+        Handler handler = backgroundHandler;
+        if (handler != null) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    reconfigure();
+                }
+            });
+        }
+    }
+
+    /** Pixels per frame of the stream being processed: the analysis stream if any, else the preview. */
+    public long getProcessedPixels() {
+        Size size = analysisReader != null ? analysisSize : previewSize;
+        return size != null ? (long) size.getWidth() * size.getHeight() : 0;
+    }
+
+    /** Size of the running analysis stream, or null without one. */
+    public Size getAnalysisSize() {
+        return analysisReader != null ? analysisSize : null;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        // Frames arrive through the SurfaceTexture
+    }
+
+    @Override
+    public void start() {
+        if (state != STATE_IDLE) {
+            // Already starting, e.g. from onResume and the permission result
+            return;
+        }
+        Log.d(TAG, "Starting camera preview");
+        if (backgroundThread == null) {
+            // Stopped sources can be started again, e.g. on resume
+            startBackgroundThread();
+        }
+        
+        try {
+            cameraId = getCameraId();
+            if (cameraId == null) {
+                Log.e(TAG, "No camera found");
+                return;
+            }
+
+            CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            
+            if (map == null) {
+                Log.e(TAG, "Stream configuration map is null");
+                return;
+            }
+
+            streamMap = map;
+            fpsRanges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+            captureConfig = chooseCaptureConfig();
+            previewSize = captureConfig.previewSize;
+            Log.d(TAG, "Selected preview size: " + previewSize.getWidth() + "x" + previewSize.getHeight());
+            
+            // Started again without a stop in between
+            stopAnalysisStream();
+            if (captureConfig.analysisSize != null) {
+                startAnalysisStream(captureConfig.analysisSize);
+            }
+
+            final StartupMetrics metrics = glSurfaceView.getStartupMetrics();
+            metrics.begin();
+            state = STATE_OPENING;
+            surfaceReady = false;
+            final int openGeneration = generation;
+            final CountDownLatch opened = new CountDownLatch(1);
+            pendingOpen = opened;
+            // Open camera with background handler
+            cameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(@NonNull CameraDevice camera) {
+                    try {
+                        if (openGeneration != generation || state != STATE_OPENING) {
+                            // stop() came first and is waiting for this
+                            Log.d(TAG, "Camera opened after stop, closing it");
+                            camera.close();
+                            return;
+                        }
+                        Log.d(TAG, "Camera opened successfully");
+                        cameraDevice = camera;
+                        metrics.mark(StartupMetrics.STAGE_CAMERA_OPENED);
+                        createSessionWhenReady();
+                    } finally {
+                        opened.countDown();
+                    }
+                }
+
+                @Override
+                public void onDisconnected(@NonNull CameraDevice camera) {
+                    Log.w(TAG, "Camera disconnected");
+                    camera.close();
+                    if (openGeneration == generation) {
+                        cameraDevice = null;
+                        state = STATE_IDLE;
+                    }
+                    opened.countDown();
+                }
+
+                @Override
+                public void onError(@NonNull CameraDevice camera, int error) {
+                    Log.e(TAG, "Camera error: " + error);
+                    camera.close();
+                    if (openGeneration == generation) {
+                        cameraDevice = null;
+                        state = STATE_IDLE;
+                    }
+                    opened.countDown();
+                }
+            }, backgroundHandler); // Use background handler
+            
+            // Meanwhile the view may still be creating the SurfaceTexture
+            final Handler handler = backgroundHandler;
+            glSurfaceView.whenSurfaceTextureReady(new Runnable() {
+                @Override
+                public void run() {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (openGeneration != generation) {
+                                return;
+                            }
+                            surfaceReady = true;
+                            metrics.mark(StartupMetrics.STAGE_SURFACE_READY);
+                            createSessionWhenReady();
+                        }
+                    });
+                }
+            });
+
+        } catch (CameraAccessException | SecurityException e) {
+            Log.e(TAG, "Camera access exception", e);
+            pendingOpen = null;
+            state = STATE_IDLE;
+        }
+    }
+
+    // Background thread: the session needs both the opened camera and the
+    // SurfaceTexture; called as each arrives, acts on the second
+    private void createSessionWhenReady() {
+        if (state != STATE_OPENING || cameraDevice == null || !surfaceReady) {
+            return;
+        }
+        state = STATE_CONFIGURING;
+        createCaptureSession();
+    }
+
+    private CapturePolicy.Config chooseCaptureConfig() {
+        // With nothing processed on the CPU the analysis stream would only cost bandwidth
+        boolean analysis = analysisListener != null && processingMode != CapturePolicy.MODE_NONE;
+        return capturePolicy.choose(processingMode, streamMap, fpsRanges,
+                analysis ? requestedAnalysisWidth : 0, analysis ? requestedAnalysisHeight : 0);
+    }
+
+    /**
+     * Background thread: applies the policy's current choice to the running
+     * session. A new FPS range only needs a new repeating request; new sizes
+     * need a new session, and a replaced analysis reader is closed once that
+     * is configured.
+     */
+    private void reconfigure() {
+        if (cameraDevice == null || captureSession == null || isSessionClosed || captureConfig == null) {
+            return;
+        }
+        CapturePolicy.Config next = chooseCaptureConfig();
+        if (!captureConfig.needsNewSession(next)) {
+            if (!next.fpsRange.equals(captureConfig.fpsRange)) {
+                captureConfig = next;
+                startRepeating(captureSession);
+            }
+            return;
+        }
+        
+        Log.d(TAG, "Reconfiguring for mode " + processingMode + ": " + next);
+        captureConfig = next;
+        ImageReader retiredReader = null;
+        if (next.analysisSize == null) {
+            // Not a target of the new session; the thread stays for when it comes back
+            retiredReader = analysisReader;
+            analysisReader = null;
+        } else if (analysisReader == null || !next.analysisSize.equals(analysisSize)) {
+            retiredReader = analysisReader;
+            startAnalysisStream(next.analysisSize);
+        }
+        try {
+            captureSession.stopRepeating();
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.e(TAG, "Failed to stop repeating request", e);
+        }
+        // Changes arriving before the new session is configured are picked up then
+        captureSession = null;
+        // The view reads the new size on its next frame
+        previewSize = next.previewSize;
+        createCaptureSession(retiredReader, true);
+    }
+
+    private void createCaptureSession() {
+        createCaptureSession(null, false);
+    }
+
+    private void createCaptureSession(final ImageReader retiredReader, final boolean reconfigured) {
+        try {
+            // Get the SurfaceTexture (should already be created)
+            SurfaceTexture surfaceTexture = glSurfaceView.getSurfaceTexture();
+            
+            if (surfaceTexture == null) {
+                Log.e(TAG, "SurfaceTexture is null - camera cannot start");
+                return;
+            }
+            
+            Log.d(TAG, "SurfaceTexture found, proceeding with capture session");
+
+            surfaceTexture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
+            if (previewSurface == null) {
+                previewSurface = new Surface(surfaceTexture);
+            }
+            Surface surface = previewSurface;
+
+            captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            captureRequestBuilder.addTarget(surface);
+            
+            List<Surface> outputs = new ArrayList<>(2);
+            outputs.add(surface);
+            if (analysisReader != null) {
+                // Every request fills both: full-size preview and small analysis frames
+                Surface analysisSurface = analysisReader.getSurface();
+                captureRequestBuilder.addTarget(analysisSurface);
+                outputs.add(analysisSurface);
+            }
+
+            cameraDevice.createCaptureSession(
+                outputs,
+                new CameraCaptureSession.StateCallback() {
+                    @Override
+                    public void onConfigured(@NonNull CameraCaptureSession session) {
+                        if (state == STATE_IDLE) {
+                            // Configured after stop() tore down
+                            session.close();
+                            retireAnalysisReader(retiredReader);
+                            return;
+                        }
+                        Log.d(TAG, "Capture session configured");
+                        captureSession = session;
+                        isSessionClosed = false;
+                        glSurfaceView.getStartupMetrics().mark(StartupMetrics.STAGE_SESSION_CONFIGURED);
+                        retireAnalysisReader(retiredReader);
+                        startRepeating(session);
+                        if (reconfigured) {
+                            reconfigure();
+                        }
+                    }
+
+                    @Override
+                    public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                        Log.e(TAG, "Capture session configuration failed");
+                        retireAnalysisReader(retiredReader);
+                    }
+                },
+                backgroundHandler // Use background handler
+            );
+            
+        } catch (CameraAccessException | IllegalStateException e) {
+            // IllegalStateException: the camera was closed meanwhile
+            Log.e(TAG, "Failed to create capture session", e);
+            retireAnalysisReader(retiredReader);
+        }
+    }
+
+    private void startRepeating(CameraCaptureSession session) {
+        try {
+            // Check if session is still valid
+            if (isSessionClosed) {
+                Log.e(TAG, "Session is already closed, cannot start preview");
+                return;
+            }
+            
+            // Minimal settings for Samsung compatibility
+            captureRequestBuilder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+            
+            // Only as fast as the policy thinks the pipeline keeps up with
+            captureRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, captureConfig.fpsRange);
+            
+            session.setRepeatingRequest(captureRequestBuilder.build(), null, backgroundHandler);
+            if (state == STATE_CONFIGURING) {
+                state = STATE_STREAMING;
+            }
+            Log.d(TAG, "Camera preview started successfully: " + captureConfig);
+            
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Failed to start preview", e);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Session state error: " + e.getMessage());
+        }
+    }
+
+    // After the session that used it is gone; on the analysis thread, so a
+    // listener call still holding one of its images finishes first
+    private void retireAnalysisReader(final ImageReader reader) {
+        if (reader == null) {
+            return;
+        }
+        Handler handler = analysisHandler;
+        if (handler == null) {
+            reader.close();
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                reader.close();
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        Log.d(TAG, "Stopping camera preview");
+        generation++;
+        state = STATE_IDLE;
+        awaitPendingOpen();
+        
+        // On the background thread, where reconfigure() and the session
+        // callbacks also use the camera and session
+        Handler handler = backgroundHandler;
+        final CountDownLatch closed = new CountDownLatch(1);
+        Runnable teardown = new Runnable() {
+            @Override
+            public void run() {
+                closeCamera();
+                closed.countDown();
+            }
+        };
+        if (handler == null || !handler.post(teardown)) {
+            teardown.run();
+        }
+        try {
+            closed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        stopBackgroundThread();
+        stopAnalysisStream();
+        if (previewSurface != null) {
+            previewSurface.release();
+            previewSurface = null;
+        }
+        Log.d(TAG, "Camera preview stopped");
+    }
+
+    // Background thread, or the caller's if that is already gone
+    private void closeCamera() {
+        if (captureSession != null) {
+            try {
+                if (!isSessionClosed) {
+                    captureSession.stopRepeating();
+                    captureSession.close();
+                }
+                captureSession = null;
+                isSessionClosed = true;
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Failed to stop capture session", e);
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Session state error during stop: " + e.getMessage());
+            }
+        }
+
+        if (cameraDevice != null) {
+            cameraDevice.close();
+            cameraDevice = null;
+        }
+    }
+
+    // UI thread: an open still in progress calls back on the background
+    // thread, which must outlive it so the camera is closed, not lost
+    private void awaitPendingOpen() {
+        CountDownLatch opened = pendingOpen;
+        pendingOpen = null;
+        if (opened == null) {
+            return;
+        }
+        try {
+            if (!opened.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Camera still opening after " + OPEN_TIMEOUT_MS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Creates the analysis thread if needed and a reader of size, replacing
+    // the current one, which the caller closes
+    private void startAnalysisStream(Size size) {
+        if (analysisThread == null) {
+            analysisThread = new HandlerThread("CameraAnalysis");
+            analysisThread.start();
+            analysisHandler = new Handler(analysisThread.getLooper());
+        }
+        analysisSize = size;
+        analysisReader = ImageReader.newInstance(analysisSize.getWidth(), analysisSize.getHeight(),
+                ImageFormat.YUV_420_888, ANALYSIS_MAX_IMAGES);
+        analysisReader.setOnImageAvailableListener(analysisImageListener, analysisHandler);
+        Log.d(TAG, "Analysis stream: " + analysisSize.getWidth() + "x" + analysisSize.getHeight());
+    }
+
+    private void stopAnalysisStream() {
+        if (analysisThread != null) {
+            // Lets a listener call in progress finish before its images go
+            analysisThread.quitSafely();
+            try {
+                analysisThread.join();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Error stopping analysis thread", e);
+            }
+            analysisThread = null;
+            analysisHandler = null;
+        }
+        if (analysisReader != null) {
+            analysisReader.close();
+            analysisReader = null;
+        }
+    }
+
+    private String getCameraId() {
+        try {
+            String[] cameraIds = cameraManager.getCameraIdList();
+            Log.d(TAG, "Available cameras: " + Arrays.toString(cameraIds));
+            
+            for (String id : cameraIds) {
+                CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(id);
+                Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                    Log.d(TAG, "Selected back camera: " + id);
+                    return id;
+                }
+            }
+            
+            // Fallback to first available camera
+            if (cameraIds.length > 0) {
+                Log.d(TAG, "Using first available camera: " + cameraIds[0]);
+                return cameraIds[0];
+            }
+            
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Failed to get camera list", e);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        // From start() on, so a second start() while opening is skipped
+        return state != STATE_IDLE;
+    }
+
+    @Override
+    public int getWidth() {
+        return previewSize != null ? previewSize.getWidth() : 0;
+    }
+
+    @Override
+    public int getHeight() {
+        return previewSize != null ? previewSize.getHeight() : 0;
+    }
+
+    @Override
+    public boolean isTextureSource() {
+        return true;
+    }
+}
+
@@ -2,25 +2,151 @@ package com.example.opencvopenglapp;
 
 import android.content.Context;
 import android.graphics.SurfaceTexture;
+import android.media.Image;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLES11Ext;
 import android.util.AttributeSet;
 import android.util.Log;
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
 
 public class CameraGLSurfaceView extends GLSurfaceView {
     private static final String TAG = "CameraGLSurfaceView";
     
+    // Where processing runs: OpenCV on a read back copy, or shaders on the camera texture
+    public static final int BACKEND_NATIVE = 0;
+    public static final int BACKEND_GPU = 1;
+    
+    // What setFrameRecorder() records: pipeline input or output ring frames
+    public static final int RECORD_RAW = 0;
+    public static final int RECORD_PROCESSED = 1;
+    
     private OpenGLRenderer renderer;
-    private OpenCVProcessor openCVProcessor;
-    private SimpleCameraHandler cameraHandler;
-    private boolean isProcessingEnabled = true;
+    private volatile OpenCVProcessor openCVProcessor;
+    private volatile FrameSource frameSource;
+    private volatile boolean isProcessingEnabled = true;
     private int processingMode = 0; // 0 = grayscale, 1 = canny, 2 = blur, 3 = original
-    private SurfaceTexture surfaceTexture;
+    private volatile SurfaceTexture surfaceTexture;
     private int cameraTextureId = -1;
+    // Run once the SurfaceTexture exists, see whenSurfaceTextureReady()
+    private final List<Runnable> surfaceTextureWaiters = new ArrayList<>();
+    private final StartupMetrics startupMetrics = new StartupMetrics();
+    
+    // CPU processing path: camera texture -> readback -> native -> upload
+    private final PipelineTimings pipelineTimings = new PipelineTimings();
+    private FPSMonitor fpsMonitor;
+    private FramePacer framePacer;
+    private ByteBuffer cameraFrameBuffer;
+    private int frameBufferWidth = 0;
+    private int frameBufferHeight = 0;
+    
+    // Async mode keeps CV off the GL thread: frames are submitted to the native
+    // worker and presented whenever a result lands in the output ring
+    private volatile boolean asyncProcessing = true;
+    
+    private volatile int processingBackend = BACKEND_NATIVE;
+    
+    // Quality settings, normally driven by QualityGovernor
+    private volatile int processingScale = OpenCVProcessor.SCALE_FULL;
+    private int kernelLevel = 0;
+    private volatile int frameSkip = 1;   // process 1 in frameSkip camera frames
+    private volatile FrameRecorder frameRecorder;
+    private volatile int recordedFrames = RECORD_RAW;
+    private int framesSinceProcessed = 0; // GL thread only
+    // GL thread, or the source thread of a CPU frame source; one source runs at a time
+    private int nativeScale = OpenCVProcessor.SCALE_FULL;
+    private int sourceFramesSinceProcessed = 0; // CPU source thread only
+    
+    // Unprocessed frames of a CPU source, copied for the GL thread to upload
+    private final Object sourceFrameLock = new Object();
+    private ByteBuffer sourceFrame;
+    private int sourceFrameWidth = 0;
+    private int sourceFrameHeight = 0;
+    private int sourceFrameChannels = 4;
+    private long sourceFrameStartNanos = 0;
+    private final AsyncReadback.Consumer readbackConsumer = new AsyncReadback.Consumer() {
+        @Override
+        public void onReadback(ByteBuffer pixels, int width, int height, long frameStartNanos) {
+            // Copied natively, so the mapped buffer can be released right after
+            recordFrame(RECORD_RAW, pixels, width, height, width * 4, 4, frameStartNanos);
+            OpenCVProcessor processor = openCVProcessor;
+            if (processor != null) {
+                processor.submitFrame(pixels, width, height, width * 4, frameStartNanos);
+            }
+        }
+    };
+    // Per-frame path allocates nothing in steady state: tasks, listener and
+    // the texture transform are created once
+    private final float[] cameraTransform = new float[16];
+    private final Runnable processCameraFrameTask = new Runnable() {
+        @Override
+        public void run() {
+            processCameraFrame();
+        }
+    };
+    private final SurfaceTexture.OnFrameAvailableListener frameAvailableListener =
+            new SurfaceTexture.OnFrameAvailableListener() {
+        @Override
+        public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+            // Must call on OpenGL thread
+            queueEvent(processCameraFrameTask);
+        }
+    };
+    private final Runnable presentProcessedFrameTask = new Runnable() {
+        @Override
+        public void run() {
+            presentProcessedFrame();
+        }
+    };
+    private final Runnable presentSourceFrameTask = new Runnable() {
+        @Override
+        public void run() {
+            presentSourceFrame();
+        }
+    };
+    private final FrameSource.Listener sourceFrameListener = new FrameSource.Listener() {
+        @Override
+        public void onFrame(ByteBuffer pixels, int width, int height, int stride, int channels,
+                            long timestampNanos) {
+            processSourceFrame(pixels, width, height, stride, channels, timestampNanos);
+        }
+    };
+    private final Runnable uploadProcessedFrameTask = new Runnable() {
+        @Override
+        public void run() {
+            uploadProcessedFrame();
+        }
+    };
+    private final OpenCVProcessor.FrameCallback frameCallback = new OpenCVProcessor.FrameCallback() {
+        @Override
+        public void onFrameProcessed(int slot, long timestampNanos, long latencyNanos) {
+            pipelineTimings.record(PipelineTimings.STAGE_PROCESS, latencyNanos);
+            presentProcessedFrameLater();
+        }
+    };
+    
+    // Camera analysis stream: small YUV frames processed on the analysis
+    // thread straight into the output ring, replacing the preview readback
+    // while they keep coming
+    private static final long ANALYSIS_TIMEOUT_NANOS = 200_000_000L;
+    private volatile long lastAnalysisFrameNanos = 0;
+    private int analysisFramesSinceProcessed = 0; // analysis thread only
+    private final Camera2FrameSource.AnalysisListener analysisListener = new Camera2FrameSource.AnalysisListener() {
+        @Override
+        public void onAnalysisImage(Image image, long frameStartNanos) {
+            processAnalysisImage(image, frameStartNanos);
+        }
+    };
 
     public CameraGLSurfaceView(Context context) {
         super(context);
@@ -35,12 +161,22 @@ public class CameraGLSurfaceView extends GLSurfaceView {
     private void init() {
         setEGLContextClientVersion(2);
         setEGLConfigChooser(8, 8, 8, 8, 16, 0);
+        // Prefer GLES3 for pixel buffer uploads; the renderer detects 2.0
+        setEGLContextFactory(new FallbackContextFactory());
         
         renderer = new OpenGLRenderer();
+        // Linked shaders are kept across launches; code cache is cleared on app updates
+        renderer.setProgramBinaryDirectory(new File(getContext().getCodeCacheDir(), "program_binaries"));
         setRenderer(renderer);
-        setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+        // Draw only when a new frame is ready, paced to vsync
+        framePacer = new FramePacer(this, pipelineTimings);
+        renderer.setFramePacer(framePacer);
+        setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
         
         openCVProcessor = new OpenCVProcessor();
+        if (asyncProcessing) {
+            asyncProcessing = openCVProcessor.startAsync(frameCallback);
+        }
         
         // Create SurfaceTexture immediately when GLSurfaceView is initialized
         queueEvent(new Runnable() {
@@ -51,29 +187,212 @@ public class CameraGLSurfaceView extends GLSurfaceView {
         });
     }
 
-    public void setCameraHandler(SimpleCameraHandler handler) {
-        this.cameraHandler = handler;
+    /**
+     * Where frames come from. Texture sources (the camera) stream into this
+     * view's SurfaceTexture; CPU sources deliver to the view directly and are
+     * always processed by the native backend, whatever the backend setting.
+     */
+    public void setFrameSource(FrameSource source) {
+        FrameSource previous = frameSource;
+        if (previous != null && !previous.isTextureSource()) {
+            previous.setListener(null);
+        }
+        frameSource = source;
+        if (source != null && !source.isTextureSource()) {
+            source.setListener(sourceFrameListener);
+        }
+    }
+
+    public FrameSource getFrameSource() {
+        return frameSource;
+    }
+
+    /**
+     * Copies RECORD_RAW (processing input: readbacks, analysis Y planes, CPU
+     * source frames) or RECORD_PROCESSED (output ring) frames into recorder;
+     * null stops. The caller closes the recorder. Frames the recorder can't
+     * keep up with are dropped there, never stalling the pipeline.
+     */
+    public void setFrameRecorder(FrameRecorder recorder, int frames) {
+        recordedFrames = frames;
+        frameRecorder = recorder;
+    }
+
+    // Any pipeline thread
+    private void recordFrame(int kind, ByteBuffer pixels, int width, int height, int stride, int channels,
+                             long frameStartNanos) {
+        FrameRecorder recorder = frameRecorder;
+        if (recorder != null && recordedFrames == kind && pixels != null) {
+            recorder.record(pixels, width, height, stride, channels, frameStartNanos);
+        }
+    }
+
+    /**
+     * For {@link Camera2FrameSource#setAnalysisStream}: with it the native
+     * backend processes the analysis stream instead of reading back preview
+     * frames.
+     */
+    public Camera2FrameSource.AnalysisListener getAnalysisListener() {
+        return analysisListener;
     }
 
     public void setProcessingEnabled(boolean enabled) {
         this.isProcessingEnabled = enabled;
     }
 
+    public void setFPSMonitor(FPSMonitor monitor) {
+        this.fpsMonitor = monitor;
+    }
+
+    public PipelineTimings getPipelineTimings() {
+        return pipelineTimings;
+    }
+
+    /** Camera startup milestones; the camera begins them, this view marks the first frame. */
+    public StartupMetrics getStartupMetrics() {
+        return startupMetrics;
+    }
+
+    public FramePacer getFramePacer() {
+        return framePacer;
+    }
+
+    public AsyncReadback getAsyncReadback() {
+        return renderer.getAsyncReadback();
+    }
+
+    /**
+     * Overlays drawn over the displayed frame, in coordinates normalised to the
+     * processed frame. Shown from the next drawn frame.
+     */
+    public OverlayRenderer getOverlayRenderer() {
+        return renderer.getOverlayRenderer();
+    }
+
+    public OpenCVProcessor.AsyncStats getAsyncStats() {
+        return openCVProcessor != null ? openCVProcessor.getAsyncStats() : null;
+    }
+
+    public void setAsyncProcessing(final boolean enabled) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (openCVProcessor == null || enabled == asyncProcessing) {
+                    return;
+                }
+                if (enabled) {
+                    asyncProcessing = openCVProcessor.startAsync(frameCallback);
+                } else {
+                    openCVProcessor.stopAsync();
+                    asyncProcessing = false;
+                }
+            }
+        });
+    }
+
     public void setProcessingMode(int mode) {
         this.processingMode = mode;
-        if (openCVProcessor != null) {
-            openCVProcessor.setProcessingMode(mode);
+        pipelineTimings.setProcessingMode(mode);
+        applyPipeline();
+    }
+
+    /**
+     * Applies a quality level: processing scale divisor, kernel level (see
+     * {@link QualityGovernor#pipelineSpec(int, int)}) and frame skip. Skipped
+     * camera frames keep showing the last processed result.
+     */
+    public void setQuality(int scaleDivisor, int kernelLevel, int frameSkip) {
+        this.frameSkip = Math.max(1, frameSkip);
+        setProcessingScale(scaleDivisor);
+        if (kernelLevel != this.kernelLevel) {
+            this.kernelLevel = kernelLevel;
+            applyPipeline();
+        }
+    }
+
+    private void applyPipeline() {
+        if (openCVProcessor == null) {
+            return;
+        }
+        String spec = QualityGovernor.pipelineSpec(processingMode, kernelLevel);
+        if (spec == null || !openCVProcessor.setPipeline(spec)) {
+            openCVProcessor.setProcessingMode(processingMode);
+        }
+    }
+
+    /**
+     * One of the OpenCVProcessor.SCALE_* divisors; capture resolution is
+     * unchanged. Applied from the next processed frame, on the GPU where
+     * frames are read back asynchronously and natively otherwise.
+     */
+    public boolean setProcessingScale(int divisor) {
+        if (divisor != OpenCVProcessor.SCALE_FULL && divisor != OpenCVProcessor.SCALE_HALF
+                && divisor != OpenCVProcessor.SCALE_QUARTER) {
+            return false;
+        }
+        processingScale = divisor;
+        return true;
+    }
+
+    // The divisor the native processor applies on top of the readback
+    private void applyNativeScale(int divisor) {
+        if (divisor != nativeScale && openCVProcessor.setProcessingScale(divisor)) {
+            nativeScale = divisor;
         }
     }
 
+    /** BACKEND_NATIVE or BACKEND_GPU; takes effect from the next camera frame. */
+    public void setProcessingBackend(int backend) {
+        processingBackend = backend == BACKEND_GPU ? BACKEND_GPU : BACKEND_NATIVE;
+    }
+
+    public int getProcessingBackend() {
+        return processingBackend;
+    }
+
+    /** GPU backend edge mode: draws edges over the camera picture instead of on black. */
+    public void setEdgeOverlay(final boolean enabled) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                renderer.setGpuEdgeOverlay(enabled);
+            }
+        });
+    }
+
+    /**
+     * Runs the current mode through both backends on the next camera frame and
+     * logs how far the GPU result is from the CPU one (mean and max absolute
+     * difference per channel, 0-255). The edge modes differ by design (Sobel
+     * threshold vs Canny); for them the edge agreement is what counts, see
+     * {@link BackendComparison#edgeAgreement}.
+     */
+    public void verifyGpuBackend() {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                compareBackends();
+            }
+        });
+    }
+
     public SurfaceTexture getSurfaceTexture() {
         return surfaceTexture;
     }
     
-    public void createSurfaceTexture() {
-        // This method is now called by camera handler when needed
-        // The actual creation happens in createSurfaceTextureInternal()
-        Log.d(TAG, "createSurfaceTexture called - SurfaceTexture should already exist");
+    /**
+     * Runs action once the camera SurfaceTexture exists: right away on the
+     * calling thread if it already does, else on the GL thread when it has
+     * been created. Actions should only hand off to their own thread.
+     */
+    public void whenSurfaceTextureReady(Runnable action) {
+        synchronized (surfaceTextureWaiters) {
+            if (surfaceTexture == null) {
+                surfaceTextureWaiters.add(action);
+                return;
+            }
+        }
+        action.run();
     }
     
     private void createSurfaceTextureInternal() {
@@ -95,44 +414,56 @@ public class CameraGLSurfaceView extends GLSurfaceView {
             surfaceTexture.setDefaultBufferSize(1920, 1080);
             
             // Set up the SurfaceTexture listener to process camera frames
-            surfaceTexture.setOnFrameAvailableListener(new SurfaceTexture.OnFrameAvailableListener() {
-                @Override
-                public void onFrameAvailable(SurfaceTexture surfaceTexture) {
-                    // Must call on OpenGL thread
-                    queueEvent(new Runnable() {
-                        @Override
-                        public void run() {
-                            processCameraFrame();
-                        }
-                    });
-                }
-            });
+            surfaceTexture.setOnFrameAvailableListener(frameAvailableListener);
             
             // Set the camera texture in the renderer
             renderer.setCameraTexture(cameraTextureId);
             
             Log.d(TAG, "SurfaceTexture created with OpenGL texture ID: " + cameraTextureId);
+            
+            Runnable[] waiters;
+            synchronized (surfaceTextureWaiters) {
+                waiters = surfaceTextureWaiters.toArray(new Runnable[0]);
+                surfaceTextureWaiters.clear();
+            }
+            for (Runnable waiter : waiters) {
+                waiter.run();
+            }
         }
     }
     
     private void processCameraFrame() {
         // This is already called from the OpenGL thread via queueEvent in createSurfaceTexture
         try {
+            long frameStartNanos = System.nanoTime();
+            
             // Update the SurfaceTexture with the camera frame
             surfaceTexture.updateTexImage();
+            startupMetrics.firstFrame();
             
             // Get the texture matrix for proper orientation
-            float[] mtx = new float[16];
-            surfaceTexture.getTransformMatrix(mtx);
-            renderer.setTextureMatrix(mtx);
+            surfaceTexture.getTransformMatrix(cameraTransform);
+            renderer.setTextureMatrix(cameraTransform);
             
-            // Enable camera texture mode
-            renderer.enableCameraTexture();
+            boolean gpuBackend = processingBackend == BACKEND_GPU;
+            boolean processed = isProcessingEnabled && (gpuBackend
+                    ? processCameraTexture() : processCameraPixels(frameStartNanos));
+            if (!processed) {
+                // Enable camera texture mode
+                renderer.enableCameraTexture();
+            }
             
-            // Request a render to display the camera frame
-            requestRender();
+            if (fpsMonitor != null) {
+                fpsMonitor.recordFrame();
+            }
             
-            Log.d(TAG, "Camera frame processed successfully");
+            // The native backend shows something new only once a result is
+            // uploaded (presentProcessedFrame), not for every camera frame
+            if (!processed || gpuBackend) {
+                framePacer.frameReady(frameStartNanos);
+            }
+            
+            if (OpenGLRenderer.TRACE) Log.d(TAG, "Camera frame processed successfully");
             
         } catch (Exception e) {
             Log.e(TAG, "Error processing camera frame", e);
@@ -142,46 +473,355 @@ public class CameraGLSurfaceView extends GLSurfaceView {
         }
     }
 
+    /**
+     * GPU backend: processes the camera texture in place with shaders. Nothing
+     * is read back, so only the GPU submission cost is recorded.
+     */
+    private boolean processCameraTexture() {
+        FrameSource source = frameSource;
+        if (source == null || source.getWidth() == 0) {
+            return false;
+        }
+        int scale = processingScale;
+        long processStart = System.nanoTime();
+        boolean processed = renderer.processCameraFrameOnGpu(processingMode,
+                source.getWidth() / scale, source.getHeight() / scale);
+        if (processed) {
+            pipelineTimings.record(PipelineTimings.STAGE_PROCESS, System.nanoTime() - processStart);
+        }
+        return processed;
+    }
+
+    private void compareBackends() {
+        FrameSource source = frameSource;
+        if (source == null || !source.isTextureSource() || source.getWidth() == 0) {
+            return;
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        ensureFrameBuffers(width, height);
+        ByteBuffer gpuOutput = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+        boolean ok = renderer.readCameraFrame(cameraFrameBuffer, width, height)
+                && renderer.processCameraFrameOnGpu(processingMode, width, height)
+                && renderer.readGpuOutput(gpuOutput);
+        BackendComparison comparison = ok
+                ? BackendComparison.compare(processingMode, cameraFrameBuffer, gpuOutput, width, height) : null;
+        if (comparison == null) {
+            Log.w(TAG, "Backend comparison skipped for mode " + processingMode);
+            return;
+        }
+        Log.d(TAG, comparison.toString());
+    }
+
+    /**
+     * Runs the current camera frame through the native pipeline. In async mode
+     * this only reads the frame back and submits it; the result is presented
+     * later by presentProcessedFrame(). On GLES3 the readback itself is async
+     * and already at processing scale: this frame's pixels are submitted on the
+     * next camera frame. Called on the GL thread after updateTexImage().
+     */
+    private boolean processCameraPixels(long frameStartNanos) {
+        FrameSource source = frameSource;
+        if (source == null || source.getWidth() == 0 || openCVProcessor == null) {
+            return false;
+        }
+        if (frameStartNanos - lastAnalysisFrameNanos < ANALYSIS_TIMEOUT_NANOS) {
+            // Processed from the analysis stream, shown when its result lands
+            return true;
+        }
+        // Small async readbacks need GLES3 and the async worker to hand them to
+        boolean gpuDownscale = asyncProcessing && renderer.isAsyncReadbackSupported();
+        long readbackStart = System.nanoTime();
+        if (gpuDownscale) {
+            // Readbacks issued on earlier frames, normally the previous one
+            renderer.pollCameraReadback(readbackConsumer);
+        }
+        if (++framesSinceProcessed < frameSkip) {
+            // Shed load: leave the previous result on screen
+            return true;
+        }
+        framesSinceProcessed = 0;
+        
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (gpuDownscale) {
+            applyNativeScale(OpenCVProcessor.SCALE_FULL);
+            int scale = processingScale;
+            boolean issued = renderer.readCameraFrameAsync(width / scale, height / scale, frameStartNanos);
+            pipelineTimings.record(PipelineTimings.STAGE_READBACK, System.nanoTime() - readbackStart);
+            return issued;
+        }
+        applyNativeScale(processingScale);
+        ensureFrameBuffers(width, height);
+        
+        readbackStart = System.nanoTime();
+        if (!renderer.readCameraFrame(cameraFrameBuffer, width, height)) {
+            return false;
+        }
+        
+        long processStart = System.nanoTime();
+        pipelineTimings.record(PipelineTimings.STAGE_READBACK, processStart - readbackStart);
+        recordFrame(RECORD_RAW, cameraFrameBuffer, width, height, width * 4, 4, frameStartNanos);
+        
+        if (asyncProcessing) {
+            return openCVProcessor.submitFrame(cameraFrameBuffer, width, height, width * 4, frameStartNanos);
+        }
+        
+        if (openCVProcessor.processFrameToRing(cameraFrameBuffer, width, height, width * 4, frameStartNanos) < 0) {
+            return false;
+        }
+        pipelineTimings.record(PipelineTimings.STAGE_PROCESS, System.nanoTime() - processStart);
+        return presentProcessedFrame();
+    }
+
+    /**
+     * Uploads the newest processed frame from the output ring, if any.
+     * Runs on the GL thread.
+     */
+    private boolean presentProcessedFrame() {
+        if (openCVProcessor == null) {
+            return false;
+        }
+        int slot = openCVProcessor.acquireRingFrame();
+        if (slot < 0) {
+            return false;
+        }
+        
+        long uploadStart = System.nanoTime();
+        long frameStartNanos;
+        try {
+            if (!isProcessingEnabled) {
+                // Result of a frame submitted before processing was switched off
+                return false;
+            }
+            frameStartNanos = openCVProcessor.getRingFrameTimestamp(slot);
+            // Smaller than the camera frame when processing at reduced scale;
+            // the renderer's linear sampling stretches it back to full screen
+            int width = openCVProcessor.getRingFrameWidth(slot);
+            int height = openCVProcessor.getRingFrameHeight(slot);
+            // Gray and edge results arrive as one byte per pixel
+            int channels = openCVProcessor.getRingFrameChannels(slot);
+            recordFrame(RECORD_PROCESSED, openCVProcessor.getRingBuffer(slot), width, height, width * channels,
+                    channels, frameStartNanos);
+            ByteBuffer mapped = renderer.beginTextureUpload(width, height, channels);
+            if (mapped != null) {
+                // GLES3: native copies straight into the mapped pixel buffer
+                renderer.endTextureUpload(openCVProcessor.copyRingFrame(slot, mapped));
+            } else {
+                renderer.updateTexture(openCVProcessor.getRingBuffer(slot), width, height, channels);
+            }
+        } finally {
+            openCVProcessor.releaseRingFrame(slot);
+        }
+        long uploadEnd = System.nanoTime();
+        
+        pipelineTimings.record(PipelineTimings.STAGE_UPLOAD, uploadEnd - uploadStart);
+        pipelineTimings.record(PipelineTimings.STAGE_TOTAL, uploadEnd - frameStartNanos);
+        framePacer.frameReady(frameStartNanos);
+        return true;
+    }
+
+    /**
+     * Analysis thread: runs a camera analysis image through the native
+     * pipeline into the output ring and has it presented like an async result.
+     */
+    private void processAnalysisImage(Image image, long frameStartNanos) {
+        lastAnalysisFrameNanos = frameStartNanos;
+        OpenCVProcessor processor = openCVProcessor;
+        if (!isProcessingEnabled || processor == null || processingBackend == BACKEND_GPU) {
+            return;
+        }
+        if (++analysisFramesSinceProcessed < frameSkip) {
+            return;
+        }
+        analysisFramesSinceProcessed = 0;
+        
+        if (frameRecorder != null) {
+            // The luma plane: what gray and edge modes process
+            Image.Plane luma = image.getPlanes()[0];
+            recordFrame(RECORD_RAW, luma.getBuffer(), image.getWidth(), image.getHeight(), luma.getRowStride(), 1,
+                    frameStartNanos);
+        }
+        long processStart = System.nanoTime();
+        if (processor.processImageToRing(image, frameStartNanos) >= 0) {
+            pipelineTimings.record(PipelineTimings.STAGE_PROCESS, System.nanoTime() - processStart);
+            presentProcessedFrameLater();
+        }
+    }
+
+    // From any thread: presents the newest ring frame, on the upload thread
+    // where there is one (GLES3, so the GL thread only draws), else the GL thread
+    private void presentProcessedFrameLater() {
+        TextureUploader uploader = renderer.getTextureUploader();
+        if (uploader != null) {
+            uploader.post(uploadProcessedFrameTask);
+        } else {
+            queueEvent(presentProcessedFrameTask);
+        }
+    }
+
+    /**
+     * Like presentProcessedFrame(), but runs on the texture upload thread: the
+     * frame goes into an uploader texture and is drawn once the renderer has
+     * latched it.
+     */
+    private void uploadProcessedFrame() {
+        OpenCVProcessor processor = openCVProcessor;
+        TextureUploader uploader = renderer.getTextureUploader();
+        if (processor == null || uploader == null) {
+            return;
+        }
+        int slot = processor.acquireRingFrame();
+        if (slot < 0) {
+            return;
+        }
+        
+        long uploadStart = System.nanoTime();
+        long frameStartNanos;
+        try {
+            if (!isProcessingEnabled) {
+                return;
+            }
+            frameStartNanos = processor.getRingFrameTimestamp(slot);
+            ByteBuffer pixels = processor.getRingBuffer(slot);
+            int width = processor.getRingFrameWidth(slot);
+            int height = processor.getRingFrameHeight(slot);
+            int channels = processor.getRingFrameChannels(slot);
+            recordFrame(RECORD_PROCESSED, pixels, width, height, width * channels, channels, frameStartNanos);
+            if (!uploader.upload(pixels, width, height, channels)) {
+                return;
+            }
+        } finally {
+            processor.releaseRingFrame(slot);
+        }
+        long uploadEnd = System.nanoTime();
+        
+        pipelineTimings.record(PipelineTimings.STAGE_UPLOAD, uploadEnd - uploadStart);
+        pipelineTimings.record(PipelineTimings.STAGE_TOTAL, uploadEnd - frameStartNanos);
+        framePacer.frameReady(frameStartNanos);
+    }
+
+    /**
+     * A frame from a CPU source, on the source's thread: submitted to the
+     * native worker like a camera readback (or processed right here without
+     * it), or copied and shown as is when processing is off.
+     */
+    private void processSourceFrame(ByteBuffer pixels, int width, int height, int stride, int channels,
+                                    long frameStartNanos) {
+        OpenCVProcessor processor = openCVProcessor;
+        if (fpsMonitor != null) {
+            fpsMonitor.recordFrame();
+        }
+        if (isProcessingEnabled && processor != null) {
+            if (++sourceFramesSinceProcessed < frameSkip) {
+                return;
+            }
+            sourceFramesSinceProcessed = 0;
+            recordFrame(RECORD_RAW, pixels, width, height, stride, channels, frameStartNanos);
+            applyNativeScale(processingScale);
+            if (asyncProcessing && channels == 4) {
+                processor.submitFrame(pixels, width, height, stride, frameStartNanos);
+                return;
+            }
+            // The worker only takes RGBA; gray frames are processed right here
+            long processStart = System.nanoTime();
+            if (processor.processFrameToRing(pixels, width, height, stride, channels, frameStartNanos) >= 0) {
+                pipelineTimings.record(PipelineTimings.STAGE_PROCESS, System.nanoTime() - processStart);
+                presentProcessedFrameLater();
+            }
+            return;
+        }
+        
+        synchronized (sourceFrameLock) {
+            int rowBytes = width * channels;
+            if (sourceFrame == null || sourceFrame.capacity() < rowBytes * height) {
+                sourceFrame = ByteBuffer.allocateDirect(rowBytes * height).order(ByteOrder.nativeOrder());
+            }
+            sourceFrame.clear();
+            ByteBuffer rows = pixels.duplicate();
+            for (int y = 0; y < height; y++) {
+                rows.limit(y * stride + rowBytes).position(y * stride);
+                sourceFrame.put(rows);
+            }
+            sourceFrameWidth = width;
+            sourceFrameHeight = height;
+            sourceFrameChannels = channels;
+            sourceFrameStartNanos = frameStartNanos;
+        }
+        queueEvent(presentSourceFrameTask);
+    }
+
+    // GL thread: uploads the newest unprocessed CPU source frame
+    private void presentSourceFrame() {
+        long frameStartNanos;
+        synchronized (sourceFrameLock) {
+            if (sourceFrame == null) {
+                return;
+            }
+            renderer.updateTexture(sourceFrame, sourceFrameWidth, sourceFrameHeight, sourceFrameChannels);
+            frameStartNanos = sourceFrameStartNanos;
+        }
+        framePacer.frameReady(frameStartNanos);
+    }
+
+    private void ensureFrameBuffers(int width, int height) {
+        if (frameBufferWidth == width && frameBufferHeight == height) {
+            return;
+        }
+        cameraFrameBuffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+        frameBufferWidth = width;
+        frameBufferHeight = height;
+        Log.d(TAG, "Frame buffers allocated: " + width + "x" + height);
+    }
+
     // Generate a test pattern for demonstration
     public void showTestPattern() {
         // Create a simple test pattern to show the app is working
-        int[] testPattern = generateTestPattern(800, 600);
+        int[] testPattern = SyntheticFrameSource.generateTestPattern(800, 600);
         renderer.updateTexture(testPattern, 800, 600);
+        requestRender();
     }
     
-    private int[] generateTestPattern(int width, int height) {
-        int[] pattern = new int[width * height];
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int index = y * width + x;
-                // Create a more visible test pattern with bright colors
-                int r = 255; // Bright red
-                int g = (x * 255) / width; // Green gradient
-                int b = (y * 255) / height; // Blue gradient
-                
-                // Add some geometric patterns to make it more visible
-                if ((x / 50 + y / 50) % 2 == 0) {
-                    pattern[index] = 0xFFFFFFFF; // White squares
-                } else {
-                    pattern[index] = 0xFF000000 | (r << 16) | (g << 8) | b; // Colorful squares
-                }
+    // Asks for a GLES3 context and settles for GLES2 where that fails
+    private static class FallbackContextFactory implements GLSurfaceView.EGLContextFactory {
+        private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+        @Override
+        public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig config) {
+            int[] attributes = {EGL_CONTEXT_CLIENT_VERSION, 3, EGL10.EGL_NONE};
+            EGLContext context = egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT, attributes);
+            if (context == null || context == EGL10.EGL_NO_CONTEXT) {
+                Log.d(TAG, "GLES3 context unavailable, using GLES2");
+                attributes[1] = 2;
+                context = egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT, attributes);
             }
+            return context;
+        }
+
+        @Override
+        public void destroyContext(EGL10 egl, EGLDisplay display, EGLContext context) {
+            egl.eglDestroyContext(display, context);
         }
-        return pattern;
     }
 
+    /**
+     * Releases everything; call from the UI thread after the frame source has
+     * stopped. The GL thread is paused first, which waits for its current
+     * frame and takes the EGL context, and with it the camera texture, down.
+     * The processor outlives any late caller (uploader thread, native worker)
+     * as an inert object, so the field isn't cleared.
+     */
     public void cleanup() {
+        if (framePacer != null) {
+            framePacer.stop();
+        }
+        onPause();
+        renderer.releaseTextureUploader();
         if (surfaceTexture != null) {
             surfaceTexture.release();
             surfaceTexture = null;
         }
-        if (cameraTextureId != -1) {
-            GLES20.glDeleteTextures(1, new int[]{cameraTextureId}, 0);
-            cameraTextureId = -1;
-        }
-        if (openCVProcessor != null) {
-            openCVProcessor.destroy();
-            openCVProcessor = null;
-        }
+        cameraTextureId = -1;
+        openCVProcessor.destroy();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,270 @@
+package com.example.opencvopenglapp;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Picks what the camera captures: preview size, analysis stream size and AE
+ * target FPS range. Limits come from the device (stream sizes, their minimum
+ * frame durations, the supported FPS ranges) and from what the current
+ * processing mode was measured to cost per pixel.
+ *
+ * The processed stream (the analysis stream, or the preview without one)
+ * first shrinks, down to a quarter of its largest area, to keep the top
+ * frame rate; past that the frame rate comes down instead, so an expensive
+ * mode doesn't have the camera deliver frames the pipeline would drop. A mode
+ * not measured yet is assumed free until its first cost arrives.
+ */
+public class CapturePolicy {
+    private static final String TAG = "CapturePolicy";
+
+    /** Mode for when nothing is processed, e.g. processing switched off. */
+    public static final int MODE_NONE = -1;
+
+    // Costs are kept for modes 0 until this; other modes are never limited
+    private static final int MODE_COUNT = 4;
+    // Share of the frame interval processing may take, the rest is slack for
+    // readback jitter and the rest of the frame
+    private static final double BUDGET_SHARE = 0.8;
+    // Weight of a new window's cost in the running estimate
+    private static final double COST_SMOOTHING = 0.3;
+
+    /** What to configure the session with. */
+    public static class Config {
+        public final Size previewSize;
+        public final Size analysisSize; // null without an analysis stream
+        public final Range<Integer> fpsRange;
+
+        Config(Size previewSize, Size analysisSize, Range<Integer> fpsRange) {
+            this.previewSize = previewSize;
+            this.analysisSize = analysisSize;
+            this.fpsRange = fpsRange;
+        }
+
+        /** True when going from this to other needs a new session, not just a new request. */
+        boolean needsNewSession(Config other) {
+            return !previewSize.equals(other.previewSize)
+                    || (analysisSize == null ? other.analysisSize != null : !analysisSize.equals(other.analysisSize));
+        }
+
+        @Override
+        public String toString() {
+            return "preview " + previewSize + (analysisSize != null ? ", analysis " + analysisSize : "")
+                    + ", fps " + fpsRange;
+        }
+    }
+
+    private int maxPreviewWidth = 1280;
+    private int maxPreviewHeight = 720;
+    private int minFps = 15;
+    private int maxFps = 30;
+    // Running processing cost of each mode in ms per megapixel, 0 until measured
+    private final double[] costPerMegapixel = new double[MODE_COUNT];
+
+    /** Largest preview to capture; reduced from 1920x1080 for Samsung stability. */
+    public synchronized void setMaxPreviewSize(int width, int height) {
+        maxPreviewWidth = width;
+        maxPreviewHeight = height;
+    }
+
+    /** Frame rates to stay within; the top one is tried first. */
+    public synchronized void setFrameRateLimits(int minFps, int maxFps) {
+        this.minFps = minFps;
+        this.maxFps = Math.max(minFps, maxFps);
+    }
+
+    /**
+     * Feeds one measurement window of mode: average per-frame processing cost
+     * at pixels per processed frame. Returns true when it is the mode's first,
+     * i.e. the configuration chosen for it so far was a guess.
+     */
+    public synchronized boolean recordCost(int mode, double costMillis, long pixels) {
+        if (mode < 0 || mode >= MODE_COUNT || costMillis <= 0 || pixels <= 0) {
+            return false;
+        }
+        double cost = costMillis * 1_000_000.0 / pixels;
+        boolean first = costPerMegapixel[mode] == 0;
+        costPerMegapixel[mode] = first ? cost : costPerMegapixel[mode] + COST_SMOOTHING * (cost - costPerMegapixel[mode]);
+        return first;
+    }
+
+    /** Measured cost of mode in ms per megapixel, 0 if unknown. */
+    public synchronized double getCostPerMegapixel(int mode) {
+        return mode >= 0 && mode < MODE_COUNT ? costPerMegapixel[mode] : 0;
+    }
+
+    /**
+     * Chooses the configuration for mode. With maxAnalysisWidth > 0 an
+     * analysis stream of at most that size is included and is what gets
+     * processed; its size follows the preview's aspect ratio where possible.
+     * fpsRanges are the device's CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES.
+     */
+    public synchronized Config choose(int mode, StreamConfigurationMap map, Range<Integer>[] fpsRanges,
+                                      int maxAnalysisWidth, int maxAnalysisHeight) {
+        Size[] previewChoices = map.getOutputSizes(SurfaceTexture.class);
+        Size[] analysisChoices = maxAnalysisWidth > 0 ? map.getOutputSizes(ImageFormat.YUV_420_888) : null;
+        if (analysisChoices != null && analysisChoices.length == 0) {
+            analysisChoices = null;
+        }
+        List<Size> previews = fitting(previewChoices, maxPreviewWidth, maxPreviewHeight, null);
+        double cost = getCostPerMegapixel(mode);
+        List<Integer> rates = frameRates(fpsRanges);
+
+        for (int fps : rates) {
+            double budgetMillis = BUDGET_SHARE * 1000.0 / fps;
+            for (Size preview : previews) {
+                if (maxFps(map, preview, null) < fps) {
+                    continue;
+                }
+                if (analysisChoices == null) {
+                    if (isAffordable(preview, previews, cost, budgetMillis)) {
+                        return config(preview, null, fpsRanges, fps);
+                    }
+                    continue;
+                }
+                // Only the analysis stream is processed, the preview can stay large
+                List<Size> analyses = fitting(analysisChoices, maxAnalysisWidth, maxAnalysisHeight, preview);
+                for (Size analysis : analyses) {
+                    if (maxFps(map, preview, analysis) >= fps && isAffordable(analysis, analyses, cost, budgetMillis)) {
+                        return config(preview, analysis, fpsRanges, fps);
+                    }
+                }
+            }
+        }
+
+        // Nothing keeps up even at the lowest rate: the smallest of everything
+        Size preview = analysisChoices == null ? previews.get(previews.size() - 1) : previews.get(0);
+        Size analysis = null;
+        if (analysisChoices != null) {
+            List<Size> analyses = fitting(analysisChoices, maxAnalysisWidth, maxAnalysisHeight, preview);
+            analysis = analyses.get(0);
+            for (Size option : analyses) {
+                if (matchesAspect(option, analyses.get(0)) && area(option) < area(analysis)) {
+                    analysis = option;
+                }
+            }
+        }
+        return config(preview, analysis, fpsRanges, rates.get(rates.size() - 1));
+    }
+
+    // A size is affordable when it can be processed within the budget; sizes
+    // under a quarter of the largest aren't considered, lower rates are
+    private static boolean isAffordable(Size size, List<Size> sizes, double costPerMegapixel, double budgetMillis) {
+        if (area(size) * 4 < area(sizes.get(0))) {
+            return false;
+        }
+        return costPerMegapixel * area(size) / 1_000_000.0 <= budgetMillis;
+    }
+
+    private Config config(Size preview, Size analysis, Range<Integer>[] fpsRanges, int fps) {
+        Config config = new Config(preview, analysis, fpsRange(fpsRanges, fps));
+        Log.d(TAG, "Chose " + config);
+        return config;
+    }
+
+    /**
+     * Upper ends of the device's ranges within the limits, highest first;
+     * just maxFps when the device lists none within them.
+     */
+    private List<Integer> frameRates(Range<Integer>[] fpsRanges) {
+        List<Integer> rates = new ArrayList<>();
+        if (fpsRanges != null) {
+            for (Range<Integer> range : fpsRanges) {
+                int upper = range.getUpper();
+                if (upper >= minFps && upper <= maxFps && !rates.contains(upper)) {
+                    rates.add(upper);
+                }
+            }
+        }
+        if (rates.isEmpty()) {
+            rates.add(maxFps);
+        }
+        Collections.sort(rates, Collections.reverseOrder());
+        return rates;
+    }
+
+    // Among the ranges topping out at fps, the one with the highest floor:
+    // steadier frame pacing than letting AE stretch exposures
+    private static Range<Integer> fpsRange(Range<Integer>[] fpsRanges, int fps) {
+        Range<Integer> best = null;
+        if (fpsRanges != null) {
+            for (Range<Integer> range : fpsRanges) {
+                if (range.getUpper() == fps && (best == null || range.getLower() > best.getLower())) {
+                    best = range;
+                }
+            }
+        }
+        return best != null ? best : new Range<>(fps, fps);
+    }
+
+    /**
+     * Sizes within width x height, largest first; with aspectOf, those of its
+     * aspect ratio come first. Falls back to the smallest size there is.
+     */
+    private static List<Size> fitting(Size[] choices, int width, int height, final Size aspectOf) {
+        List<Size> sizes = new ArrayList<>();
+        for (Size option : choices) {
+            if (option.getWidth() <= width && option.getHeight() <= height) {
+                sizes.add(option);
+            }
+        }
+        if (sizes.isEmpty()) {
+            sizes.add(Collections.min(Arrays.asList(choices), new Comparator<Size>() {
+                @Override
+                public int compare(Size lhs, Size rhs) {
+                    return Long.compare(area(lhs), area(rhs));
+                }
+            }));
+        }
+        Collections.sort(sizes, new Comparator<Size>() {
+            @Override
+            public int compare(Size lhs, Size rhs) {
+                if (aspectOf != null) {
+                    boolean lhsMatches = matchesAspect(lhs, aspectOf);
+                    if (lhsMatches != matchesAspect(rhs, aspectOf)) {
+                        return lhsMatches ? -1 : 1;
+                    }
+                }
+                return Long.compare(area(rhs), area(lhs));
+            }
+        });
+        return sizes;
+    }
+
+    // Highest rate the device streams these outputs at together; 0 durations are unknown
+    private static double maxFps(StreamConfigurationMap map, Size preview, Size analysis) {
+        long duration = map.getOutputMinFrameDuration(SurfaceTexture.class, preview);
+        if (analysis != null) {
+            duration = Math.max(duration, map.getOutputMinFrameDuration(ImageFormat.YUV_420_888, analysis));
+        }
+        return duration > 0 ? 1_000_000_000.0 / duration : Double.MAX_VALUE;
+    }
+
+    private static boolean matchesAspect(Size size, Size aspectOf) {
+        return (long) size.getWidth() * aspectOf.getHeight() == (long) size.getHeight() * aspectOf.getWidth();
+    }
+
+    private static long area(Size size) {
+        return (long) size.getWidth() * size.getHeight();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("cost per MP");
+        for (int mode = 0; mode < MODE_COUNT; mode++) {
+            sb.append(String.format(Locale.US, ", mode %d %.2f ms", mode, costPerMegapixel[mode]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.opencvopenglapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a raw frame file: tightly packed RGBA frames of one size stored
+ * back to back with no header, e.g. dumped from the readback buffer. A
+ * trailing partial frame is ignored. Frames are read into one reusable
+ * buffer; with looping the file restarts after its last frame.
+ */
+public class FileReplayFrameSource extends ThreadedFrameSource {
+    private final File file;
+    private final int width;
+    private final int height;
+    private final int frameBytes;
+    private final long frameCount;
+    private final ByteBuffer frame;
+    private boolean looping = false;
+    private FileChannel channel; // source thread only
+    private volatile IOException error;
+
+    public FileReplayFrameSource(File file, int width, int height, double fps) throws IOException {
+        super("FileReplay");
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        }
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        frameBytes = width * height * 4;
+        frameCount = file.length() / frameBytes;
+        if (frameCount == 0) {
+            throw new IOException(file + " holds no " + width + "x" + height + " RGBA frame");
+        }
+        setFrameRate(fps);
+        frame = ByteBuffer.allocateDirect(frameBytes).order(ByteOrder.nativeOrder());
+    }
+
+    /** Restart from the first frame after the last one. Set before start(). */
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /** Why replay ended early, or null. */
+    public IOException getError() {
+        return error;
+    }
+
+    @Override
+    ByteBuffer nextFrame(long index) {
+        if (!looping && index >= frameCount) {
+            return null;
+        }
+        try {
+            if (channel == null) {
+                channel = new FileInputStream(file).getChannel();
+            }
+            long position = (index % frameCount) * frameBytes;
+            frame.clear();
+            while (frame.hasRemaining()) {
+                if (channel.read(frame, position + frame.position()) < 0) {
+                    // Truncated since the constructor measured it
+                    return null;
+                }
+            }
+            frame.flip();
+            return frame;
+        } catch (IOException e) {
+            error = e;
+            return null;
+        }
+    }
+
+    @Override
+    void onFinished() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Read-only; nothing was lost
+            }
+            channel = null;
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.opencvopenglapp;
+
+import android.opengl.GLSurfaceView;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drives a {@link GLSurfaceView} in RENDERMODE_WHEN_DIRTY: the view is only
+ * redrawn when a new camera or processed frame is ready, and the render
+ * request is issued from a Choreographer callback so drawing starts right
+ * after vsync and has the whole frame interval to finish.
+ *
+ * frameReady() is called by whichever thread finished the frame (the GL or
+ * the texture upload thread), onFrameDrawn() on the GL thread; counters can be
+ * read from any thread.
+ */
+public class FramePacer implements Choreographer.FrameCallback {
+    private final GLSurfaceView view;
+    private final PipelineTimings timings;
+    private final Choreographer choreographer;
+    private final AtomicBoolean callbackPending = new AtomicBoolean(false);
+
+    // The newest frame not drawn yet
+    private int pendingFrames = 0;
+    private long pendingFrameStartNanos = 0;
+
+    private long framesReady = 0;
+    private long framesPresented = 0;
+    private long framesDropped = 0;    // replaced by a newer frame before being drawn
+    private long framesDuplicated = 0; // draws that showed no new frame
+    private long vsyncs = 0;
+    private long lastVsyncNanos = 0;
+
+    /** Must be created on the UI thread, whose Choreographer paces the view. */
+    public FramePacer(GLSurfaceView view, PipelineTimings timings) {
+        this.view = view;
+        this.timings = timings;
+        this.choreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * Marks new content for the next vsync. frameStartNanos is when the frame
+     * left the camera (System.nanoTime() at updateTexImage).
+     */
+    public void frameReady(long frameStartNanos) {
+        synchronized (this) {
+            framesReady++;
+            if (pendingFrames > 0) {
+                framesDropped++;
+            }
+            pendingFrames++;
+            pendingFrameStartNanos = frameStartNanos;
+        }
+        if (callbackPending.compareAndSet(false, true)) {
+            // postFrameCallback is safe from any thread; it runs on the UI looper
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        callbackPending.set(false);
+        synchronized (this) {
+            vsyncs++;
+            lastVsyncNanos = frameTimeNanos;
+        }
+        view.requestRender();
+    }
+
+    /**
+     * Called by the renderer at the end of onDrawFrame. Display latency runs to
+     * here; the buffer swap that follows lands on the next vsync.
+     */
+    public void onFrameDrawn() {
+        long drawnNanos = System.nanoTime();
+        long frameStartNanos;
+        synchronized (this) {
+            if (pendingFrames == 0) {
+                // Redrawn by the view itself, e.g. after a surface change
+                framesDuplicated++;
+                return;
+            }
+            framesPresented++;
+            pendingFrames = 0;
+            frameStartNanos = pendingFrameStartNanos;
+        }
+        timings.record(PipelineTimings.STAGE_DISPLAY, drawnNanos - frameStartNanos);
+    }
+
+    public void stop() {
+        choreographer.removeFrameCallback(this);
+        callbackPending.set(false);
+    }
+
+    public synchronized long getFramesReady() {
+        return framesReady;
+    }
+
+    public synchronized long getFramesPresented() {
+        return framesPresented;
+    }
+
+    public synchronized long getFramesDropped() {
+        return framesDropped;
+    }
+
+    public synchronized long getFramesDuplicated() {
+        return framesDuplicated;
+    }
+
+    public synchronized long getVsyncs() {
+        return vsyncs;
+    }
+
+    public synchronized long getLastVsyncNanos() {
+        return lastVsyncNanos;
+    }
+}
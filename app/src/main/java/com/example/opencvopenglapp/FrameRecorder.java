@@ -0,0 +1,218 @@
+package com.example.opencvopenglapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records frames (raw camera frames or processing results, gray or RGBA) into
+ * a {@link FrameRecording} file for later replay. {@link #record} only copies
+ * the frame into a free buffer of a small pool and returns; a writer thread
+ * appends it to the file through a FileChannel. When every buffer is still
+ * waiting to be written the frame is dropped and counted, so a slow disk
+ * never stalls the caller.
+ *
+ * The frame index is written on {@link #close()}; a file that was never
+ * closed has no index and doesn't open for replay.
+ */
+public class FrameRecorder {
+    private static final int BUFFER_COUNT = 4;
+
+    private static class Frame {
+        ByteBuffer pixels;
+        int width;
+        int height;
+        int channels;
+        long timestampNanos;
+    }
+
+    private final File file;
+    private final RandomAccessFile output;
+    private final FileChannel channel;
+    private final BlockingQueue<Frame> free = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final BlockingQueue<Frame> pending = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+    private final Frame endOfStream = new Frame();
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private volatile IOException error;
+
+    // Writer thread
+    private ByteBuffer index = ByteBuffer.allocate(256 * FrameRecording.INDEX_ENTRY_BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private int frameCount = 0;
+    private long position = FrameRecording.HEADER_BYTES;
+
+    // Guarded by this
+    private long recorded = 0;
+    private long dropped = 0;
+
+    public FrameRecorder(File file) throws IOException {
+        this.file = file;
+        output = new RandomAccessFile(file, "rw");
+        output.setLength(0);
+        channel = output.getChannel();
+        // Placeholder header; the real one is written once the index is known
+        ByteBuffer header = FrameRecording.header(0, 0);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            free.add(new Frame());
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeFrames();
+            }
+        }, "FrameRecorder");
+        // Without close() the file has no index anyway; don't hold up exit
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Queues a copy of a frame with 1 (gray) or 4 (RGBA) bytes per pixel and
+     * stride bytes per row; pixels is read from 0 and left unchanged. Returns
+     * false if the frame was dropped. Safe from any thread; frames are stored
+     * in the order of the calls.
+     */
+    public synchronized boolean record(ByteBuffer pixels, int width, int height, int stride, int channels, long timestampNanos) {
+        if (closed || error != null || (channels != 1 && channels != 4) || width <= 0 || height <= 0) {
+            return false;
+        }
+        Frame frame = free.poll();
+        if (frame == null) {
+            dropped++;
+            return false;
+        }
+        int rowBytes = width * channels;
+        int size = rowBytes * height;
+        if (frame.pixels == null || frame.pixels.capacity() < size) {
+            frame.pixels = ByteBuffer.allocateDirect(size);
+        }
+        frame.pixels.clear();
+        ByteBuffer rows = pixels.duplicate();
+        for (int y = 0; y < height; y++) {
+            rows.limit(y * stride + rowBytes).position(y * stride);
+            frame.pixels.put(rows);
+        }
+        frame.pixels.flip();
+        frame.width = width;
+        frame.height = height;
+        frame.channels = channels;
+        frame.timestampNanos = timestampNanos;
+        pending.add(frame);
+        recorded++;
+        return true;
+    }
+
+    /** Frames handed to the writer. */
+    public synchronized long getRecorded() {
+        return recorded;
+    }
+
+    /** Frames rejected because the writer was behind. */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /** The write error that stopped recording, or null. */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Writes the queued frames and the index and closes the file. Blocks
+     * until done; throws the first write error, if any.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.add(endOfStream);
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            if (error == null) {
+                writeIndex();
+            }
+        } finally {
+            output.close();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void writeFrames() {
+        while (true) {
+            Frame frame;
+            try {
+                frame = pending.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (frame == endOfStream) {
+                return;
+            }
+            if (error == null) {
+                try {
+                    append(frame);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            free.add(frame);
+        }
+    }
+
+    private void append(Frame frame) throws IOException {
+        long offset = position;
+        while (frame.pixels.hasRemaining()) {
+            position += channel.write(frame.pixels, position);
+        }
+        if (index.remaining() < FrameRecording.INDEX_ENTRY_BYTES) {
+            ByteBuffer grown = ByteBuffer.allocate(index.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            index.flip();
+            grown.put(index);
+            index = grown;
+        }
+        FrameRecording.putIndexEntry(index, frame.timestampNanos, offset, frame.width, frame.height, frame.channels);
+        frameCount++;
+    }
+
+    private void writeIndex() throws IOException {
+        long indexOffset = position;
+        index.flip();
+        while (index.hasRemaining()) {
+            position += channel.write(index, position);
+        }
+        ByteBuffer header = FrameRecording.header(frameCount, indexOffset);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(false);
+    }
+}
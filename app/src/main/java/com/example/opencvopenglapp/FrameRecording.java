@@ -0,0 +1,185 @@
+package com.example.opencvopenglapp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * A recorded frame file, memory-mapped for replay. Frames are returned as
+ * read-only direct views of the mapping, so they go to OpenCVProcessor
+ * without being copied or read into the Java heap.
+ *
+ * Layout, all little-endian:
+ * <pre>
+ * header (32 bytes)   int magic "FRC1", int version, int frame count,
+ *                     int reserved, long index offset, long reserved
+ * payloads            tightly packed gray (1 byte per pixel) or RGBA (4),
+ *                     rows in the order they were recorded
+ * index (32 bytes     long timestamp (ns), long payload offset,
+ *   per frame)        int width, int height, int channels, int reserved
+ * </pre>
+ * Written by {@link FrameRecorder}.
+ */
+public class FrameRecording implements Closeable {
+    static final int HEADER_BYTES = 32;
+    static final int INDEX_ENTRY_BYTES = 32;
+    private static final int MAGIC = 0x31435246; // "FRC1" read as little-endian
+    private static final int VERSION = 1;
+    // One mapping can't exceed 2 GB; frames are grouped into mappings of at
+    // most this size so longer recordings still map without copying
+    private static final long MAX_MAPPING_BYTES = 1L << 30;
+
+    private final RandomAccessFile input;
+    private final int frameCount;
+    private final long[] timestamps;
+    private final int[] widths;
+    private final int[] heights;
+    private final int[] channels;
+    private final ByteBuffer[] frames;
+
+    private FrameRecording(RandomAccessFile input, int frameCount) {
+        this.input = input;
+        this.frameCount = frameCount;
+        timestamps = new long[frameCount];
+        widths = new int[frameCount];
+        heights = new int[frameCount];
+        channels = new int[frameCount];
+        frames = new ByteBuffer[frameCount];
+    }
+
+    /** Maps a recording; fails if it is malformed or was never closed by its recorder. */
+    public static FrameRecording open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FrameRecording recording = read(input);
+            input = null;
+            return recording;
+        } finally {
+            if (input != null) {
+                input.close();
+            }
+        }
+    }
+
+    private static FrameRecording read(RandomAccessFile input) throws IOException {
+        FileChannel channel = input.getChannel();
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a frame recording (version " + VERSION + ")");
+        }
+        int frameCount = header.getInt(8);
+        long indexOffset = header.getLong(16);
+        if (frameCount <= 0 || indexOffset < HEADER_BYTES
+                || indexOffset + (long) frameCount * INDEX_ENTRY_BYTES > fileSize) {
+            throw new IOException("Recording has no index; was the recorder closed?");
+        }
+
+        FrameRecording recording = new FrameRecording(input, frameCount);
+        ByteBuffer index = ByteBuffer.allocate(frameCount * INDEX_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, index, indexOffset);
+        long[] offsets = new long[frameCount];
+        int[] sizes = new int[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            int entry = i * INDEX_ENTRY_BYTES;
+            recording.timestamps[i] = index.getLong(entry);
+            offsets[i] = index.getLong(entry + 8);
+            recording.widths[i] = index.getInt(entry + 16);
+            recording.heights[i] = index.getInt(entry + 20);
+            recording.channels[i] = index.getInt(entry + 24);
+            long size = (long) recording.widths[i] * recording.heights[i] * recording.channels[i];
+            if ((recording.channels[i] != 1 && recording.channels[i] != 4) || size <= 0
+                    || size > MAX_MAPPING_BYTES || offsets[i] < HEADER_BYTES || offsets[i] + size > indexOffset) {
+                throw new IOException("Bad index entry " + i);
+            }
+            sizes[i] = (int) size;
+        }
+
+        // Consecutive frames share a mapping until it would pass the limit
+        ArrayList<MappedByteBuffer> mappings = new ArrayList<>();
+        int first = 0;
+        while (first < frameCount) {
+            long start = offsets[first];
+            long end = start + sizes[first];
+            int last = first;
+            while (last + 1 < frameCount && offsets[last + 1] >= start
+                    && offsets[last + 1] + sizes[last + 1] - start <= MAX_MAPPING_BYTES) {
+                last++;
+                end = Math.max(end, offsets[last] + sizes[last]);
+            }
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            mappings.add(mapping);
+            for (int i = first; i <= last; i++) {
+                ByteBuffer view = mapping.duplicate();
+                view.position((int) (offsets[i] - start));
+                view.limit(view.position() + sizes[i]);
+                recording.frames[i] = view.slice();
+            }
+            first = last + 1;
+        }
+        return recording;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /** Read-only direct view of frame i's pixels, tightly packed. */
+    public ByteBuffer getFrame(int i) {
+        return frames[i];
+    }
+
+    public int getWidth(int i) {
+        return widths[i];
+    }
+
+    public int getHeight(int i) {
+        return heights[i];
+    }
+
+    /** 1 (gray) or 4 (RGBA). */
+    public int getChannels(int i) {
+        return channels[i];
+    }
+
+    /** When frame i was recorded, on the recorder's clock (System.nanoTime()). */
+    public long getTimestampNanos(int i) {
+        return timestamps[i];
+    }
+
+    /**
+     * Closes the file. The mappings stay valid until they are garbage
+     * collected, so frames already handed out remain readable.
+     */
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    static ByteBuffer header(int frameCount, long indexOffset) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(frameCount).putInt(0).putLong(indexOffset).putLong(0);
+        header.flip();
+        return header;
+    }
+
+    static void putIndexEntry(ByteBuffer index, long timestampNanos, long offset, int width, int height,
+                              int channels) {
+        index.putLong(timestampNanos).putLong(offset).putInt(width).putInt(height).putInt(channels).putInt(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Recording is truncated");
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.opencvopenglapp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Where frames come from. The camera delivers into the view's SurfaceTexture
+ * and is read back on the GL thread ({@link #isTextureSource()}); every other
+ * source hands CPU frames to its {@link Listener} on its own thread, so the
+ * processing pipeline runs the same way with or without a camera.
+ *
+ * CPU sources use no Android classes and can drive OpenCVProcessor from a
+ * plain JVM, see {@link FrameSourceBenchmark}.
+ */
+public interface FrameSource {
+
+    /** Receives CPU frames; the buffer is only valid during the call. */
+    interface Listener {
+        /**
+         * pixels is RGBA (4 channels) or gray (1), stride bytes per row;
+         * timestampNanos is on the System.nanoTime() clock, like camera frame
+         * start times.
+         */
+        void onFrame(ByteBuffer pixels, int width, int height, int stride, int channels, long timestampNanos);
+    }
+
+    /** Ignored by texture sources. Set before start(). */
+    void setListener(Listener listener);
+
+    void start();
+
+    /** Stops delivering frames; returns once no listener call is in progress. */
+    void stop();
+
+    boolean isRunning();
+
+    /** Frame size, 0 until the source knows it (the camera, once configured). */
+    int getWidth();
+
+    int getHeight();
+
+    /** True when frames arrive through the view's SurfaceTexture instead of the listener. */
+    boolean isTextureSource();
+}
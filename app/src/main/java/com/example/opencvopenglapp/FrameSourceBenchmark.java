@@ -0,0 +1,124 @@
+package com.example.opencvopenglapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Runs the CPU pipeline on frames from a {@link FrameSource} with no camera,
+ * view or GL, and reports throughput. Frames are processed synchronously on
+ * the source thread, unthrottled, so every frame is processed exactly once
+ * and runs over the same input give comparable numbers.
+ *
+ * From a plain JVM, with libopencv_processor built for the host on
+ * java.library.path:
+ * <pre>
+ * FrameSourceBenchmark synthetic WIDTH HEIGHT FRAMES [MODE]
+ * FrameSourceBenchmark replay FILE WIDTH HEIGHT [MODE]
+ * FrameSourceBenchmark recording FILE [MODE]
+ * </pre>
+ * where a recording is a {@link FrameRecorder} file. Building and running
+ * it on Linux, from the project root (android.jar is only needed by javac):
+ * <pre>
+ * cmake -S app/src/main/cpp -B build/host -DHOST_BUILD=ON
+ * cmake --build build/host
+ * javac -d build/host/classes -cp $ANDROID_HOME/platforms/android-34/android.jar \
+ *     -sourcepath app/src/main/java app/src/main/java/com/example/opencvopenglapp/FrameSourceBenchmark.java
+ * java -Djava.library.path=build/host -cp build/host/classes \
+ *     com.example.opencvopenglapp.FrameSourceBenchmark synthetic 1280 720 300 1
+ * </pre>
+ */
+public class FrameSourceBenchmark {
+
+    public static class Result {
+        public long frames;
+        public long failed;
+        public double seconds;
+        public double averageProcessMillis;
+        public double maxProcessMillis;
+
+        public double getFramesPerSecond() {
+            return seconds > 0 ? frames / seconds : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d frames (%d failed) in %.2f s: %.1f fps, process avg %.2f ms, max %.2f ms",
+                    frames, failed, seconds, getFramesPerSecond(), averageProcessMillis, maxProcessMillis);
+        }
+    }
+
+    /**
+     * Processes every frame source delivers until it finishes on its own
+     * (frame limit or end of file). The source must not be started yet.
+     */
+    public static Result run(ThreadedFrameSource source, final OpenCVProcessor processor) {
+        final Result result = new Result();
+        final long[] processNanos = new long[2]; // sum, max
+        source.setFrameRate(0);
+        source.setListener(new FrameSource.Listener() {
+            @Override
+            public void onFrame(ByteBuffer pixels, int width, int height, int stride, int channels,
+                                long timestampNanos) {
+                long start = System.nanoTime();
+                int slot = processor.processFrameToRing(pixels, width, height, stride, channels, timestampNanos);
+                long elapsed = System.nanoTime() - start;
+                if (slot < 0) {
+                    result.failed++;
+                    return;
+                }
+                // Nothing displays it; free the ring for the next frame
+                int acquired = processor.acquireRingFrame();
+                if (acquired >= 0) {
+                    processor.releaseRingFrame(acquired);
+                }
+                result.frames++;
+                processNanos[0] += elapsed;
+                processNanos[1] = Math.max(processNanos[1], elapsed);
+            }
+        });
+
+        long start = System.nanoTime();
+        source.start();
+        source.awaitFinished();
+        result.seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        source.setListener(null);
+        if (result.frames > 0) {
+            result.averageProcessMillis = processNanos[0] / (result.frames * 1_000_000.0);
+        }
+        result.maxProcessMillis = processNanos[1] / 1_000_000.0;
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        ThreadedFrameSource source;
+        int modeArgument;
+        if (args.length >= 4 && args[0].equals("synthetic")) {
+            source = new SyntheticFrameSource(Integer.parseInt(args[1]), Integer.parseInt(args[2]), 0);
+            source.setFrameLimit(Long.parseLong(args[3]));
+            modeArgument = 4;
+        } else if (args.length >= 4 && args[0].equals("replay")) {
+            source = new FileReplayFrameSource(new File(args[1]), Integer.parseInt(args[2]),
+                    Integer.parseInt(args[3]), 0);
+            modeArgument = 4;
+        } else if (args.length >= 2 && args[0].equals("recording")) {
+            source = new RecordingFrameSource(FrameRecording.open(new File(args[1])), 0);
+            modeArgument = 2;
+        } else {
+            System.err.println("Usage: FrameSourceBenchmark synthetic WIDTH HEIGHT FRAMES [MODE]");
+            System.err.println("       FrameSourceBenchmark replay FILE WIDTH HEIGHT [MODE]");
+            System.err.println("       FrameSourceBenchmark recording FILE [MODE]");
+            System.exit(2);
+            return;
+        }
+        int mode = args.length > modeArgument ? Integer.parseInt(args[modeArgument]) : 0;
+
+        OpenCVProcessor processor = new OpenCVProcessor();
+        processor.setProcessingMode(mode);
+        Result result = run(source, processor);
+        processor.destroy();
+        System.out.println(String.format(Locale.US, "mode %d, %dx%d: %s",
+                mode, source.getWidth(), source.getHeight(), result));
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.opencvopenglapp;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Texture-backed framebuffers reused across passes and frames. A released
+ * framebuffer goes back to the free list and is handed out again to the next
+ * request with the same size and format, so steady-state frames create no GL
+ * objects. GL thread only.
+ */
+public class FramebufferPool {
+    private static final String TAG = "FramebufferPool";
+
+    static class Framebuffer {
+        int framebuffer;
+        int texture;
+        int width;
+        int height;
+        int format;
+    }
+
+    private final ArrayList<Framebuffer> free = new ArrayList<>();
+    private int allocated = 0;
+
+    /**
+     * Returns a framebuffer of width x height whose color attachment has the
+     * given format. GL_RGBA is the only format GLES2 guarantees to be renderable.
+     */
+    Framebuffer acquire(int width, int height, int format) {
+        for (int i = free.size() - 1; i >= 0; i--) {
+            Framebuffer candidate = free.get(i);
+            if (candidate.width == width && candidate.height == height && candidate.format == format) {
+                return free.remove(i);
+            }
+        }
+        return create(width, height, format);
+    }
+
+    void release(Framebuffer framebuffer) {
+        if (framebuffer != null) {
+            free.add(framebuffer);
+        }
+    }
+
+    /** Deletes the idle framebuffers, e.g. after the processing size changed. */
+    void trim() {
+        int[] ids = new int[1];
+        for (Framebuffer framebuffer : free) {
+            ids[0] = framebuffer.framebuffer;
+            GLES20.glDeleteFramebuffers(1, ids, 0);
+            ids[0] = framebuffer.texture;
+            GLES20.glDeleteTextures(1, ids, 0);
+            allocated--;
+        }
+        free.clear();
+    }
+
+    /** Forgets everything after the context was lost. */
+    void invalidate() {
+        free.clear();
+        allocated = 0;
+    }
+
+    int getAllocatedCount() {
+        return allocated;
+    }
+
+    private Framebuffer create(int width, int height, int format) {
+        Framebuffer target = new Framebuffer();
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        target.texture = ids[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, target.texture);
+        // Passes sample texel centres, so linear filtering only matters when
+        // the result is stretched to the screen
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                           format, GLES20.GL_UNSIGNED_BYTE, null);
+
+        GLES20.glGenFramebuffers(1, ids, 0);
+        target.framebuffer = ids[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, target.framebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                                      GLES20.GL_TEXTURE_2D, target.texture, 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "Pooled framebuffer incomplete: " + status);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+        target.width = width;
+        target.height = height;
+        target.format = format;
+        allocated++;
+        Log.d(TAG, "Framebuffer created: " + width + "x" + height + " (" + allocated + " allocated)");
+        return target;
+    }
+}
@@ -0,0 +1,352 @@
+package com.example.opencvopenglapp;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Shader implementation of the processing modes, run straight on the camera's
+ * OES texture so the frame never leaves GPU memory:
+ * grayscale is a luma pass, edges are a thresholded Sobel magnitude and blur
+ * is a separable Gaussian done as two passes. Each mode is a {@link RenderGraph}
+ * whose intermediate targets come from a shared {@link FramebufferPool}, so
+ * passes ping-pong between pooled framebuffers and an extra visual (such as
+ * edges over the picture) costs one pass.
+ * Must only be used on the GL thread; owned by {@link OpenGLRenderer}.
+ */
+public class GpuProcessor {
+    private static final String TAG = "GpuProcessor";
+
+    private static final String HIGHP_PREAMBLE =
+            "#ifdef GL_FRAGMENT_PRECISION_HIGH\n" +
+            "precision highp float;\n" +
+            "#else\n" +
+            "precision mediump float;\n" +
+            "#endif\n";
+
+    // Rec. 601 luma, same weights as cv::cvtColor
+    private static final String GRAY_OES_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            HIGHP_PREAMBLE +
+            "varying vec2 texCoord;" +
+            "uniform samplerExternalOES uTexture;" +
+            "void main() {" +
+            "  float luma = dot(texture2D(uTexture, texCoord).rgb, vec3(0.299, 0.587, 0.114));" +
+            "  gl_FragColor = vec4(luma, luma, luma, 1.0);" +
+            "}";
+
+    private static final String COPY_OES_SHADER =
+            "#extension GL_OES_EGL_image_external : require\n" +
+            HIGHP_PREAMBLE +
+            "varying vec2 texCoord;" +
+            "uniform samplerExternalOES uTexture;" +
+            "void main() {" +
+            "  gl_FragColor = texture2D(uTexture, texCoord);" +
+            "}";
+
+    private static final String SOBEL_SHADER =
+            HIGHP_PREAMBLE +
+            "varying vec2 texCoord;" +
+            "uniform sampler2D uTexture;" +
+            "uniform vec2 uTexelSize;" +
+            "uniform float uThreshold;" +
+            "float luma(float dx, float dy) {" +
+            "  return texture2D(uTexture, texCoord + vec2(dx, dy) * uTexelSize).r;" +
+            "}" +
+            "void main() {" +
+            "  float tl = luma(-1.0, -1.0); float t = luma(0.0, -1.0); float tr = luma(1.0, -1.0);" +
+            "  float l = luma(-1.0, 0.0); float r = luma(1.0, 0.0);" +
+            "  float bl = luma(-1.0, 1.0); float b = luma(0.0, 1.0); float br = luma(1.0, 1.0);" +
+            "  float gx = (tr + 2.0 * r + br) - (tl + 2.0 * l + bl);" +
+            "  float gy = (bl + 2.0 * b + br) - (tl + 2.0 * t + tr);" +
+            "  float edge = step(uThreshold, length(vec2(gx, gy)));" +
+            "  gl_FragColor = vec4(edge, edge, edge, 1.0);" +
+            "}";
+
+    // One direction of a separable Gaussian; uStep is one texel along it
+    private static final int MAX_RADIUS = 7;
+    private static final String GAUSSIAN_SHADER =
+            HIGHP_PREAMBLE +
+            "varying vec2 texCoord;" +
+            "uniform sampler2D uTexture;" +
+            "uniform vec2 uStep;" +
+            "uniform float uWeights[" + (MAX_RADIUS + 1) + "];" +
+            "void main() {" +
+            "  vec4 sum = texture2D(uTexture, texCoord) * uWeights[0];" +
+            "  for (int i = 1; i <= " + MAX_RADIUS + "; i++) {" +
+            "    vec2 offset = uStep * float(i);" +
+            "    sum += (texture2D(uTexture, texCoord + offset) + texture2D(uTexture, texCoord - offset)) * uWeights[i];" +
+            "  }" +
+            "  gl_FragColor = sum;" +
+            "}";
+
+    // Edges drawn over the picture: mask texels replace the color
+    private static final String OVERLAY_SHADER =
+            HIGHP_PREAMBLE +
+            "varying vec2 texCoord;" +
+            "uniform sampler2D uTexture;" +
+            "uniform sampler2D uMask;" +
+            "uniform vec4 uColor;" +
+            "void main() {" +
+            "  vec4 color = texture2D(uTexture, texCoord);" +
+            "  float mask = texture2D(uMask, texCoord).r;" +
+            "  gl_FragColor = mix(color, uColor, mask);" +
+            "}";
+
+    // Matches the CPU blur (15x15, sigma derived from the size like OpenCV)
+    private static final int BLUR_RADIUS = 7;
+    public static final float DEFAULT_EDGE_THRESHOLD = 0.4f;
+
+    private static final String CAMERA = "camera";
+    private static final int MODE_COUNT = 3; // original has no graph
+
+    private final OpenGLRenderer renderer;
+    private final float[] identityMatrix = new float[16];
+    private final float[] blurWeights = new float[MAX_RADIUS + 1];
+    private float edgeThreshold = DEFAULT_EDGE_THRESHOLD;
+    private boolean edgeOverlay = false;
+
+    private final FramebufferPool framebufferPool = new FramebufferPool();
+    // One graph per mode, built on first use in the current context
+    private final RenderGraph[] graphs = new RenderGraph[MODE_COUNT];
+    private RenderGraph activeGraph;
+    private FramebufferPool.Framebuffer output;
+    private float[] cameraTexMatrix;
+    private int poolWidth = 0;
+    private int poolHeight = 0;
+
+    // Programs come from the renderer's shader cache; handles are looked up
+    // when the graphs are built
+    private OpenGLRenderer.QuadProgram grayProgram;
+    private OpenGLRenderer.QuadProgram copyProgram;
+    private OpenGLRenderer.QuadProgram sobelProgram;
+    private OpenGLRenderer.QuadProgram gaussianProgram;
+    private OpenGLRenderer.QuadProgram overlayProgram;
+    private int texelSizeHandle;
+    private int thresholdHandle;
+    private int stepHandle;
+    private int weightsHandle;
+    private int maskHandle;
+    private int colorHandle;
+
+    GpuProcessor(OpenGLRenderer renderer) {
+        this.renderer = renderer;
+        Matrix.setIdentityM(identityMatrix, 0);
+        computeGaussianWeights(BLUR_RADIUS, blurWeights);
+    }
+
+    /** Forgets GL objects after the context was lost; they are rebuilt on demand. */
+    void invalidate() {
+        grayProgram = null;
+        // The names are gone with the context, nothing to release
+        for (int mode = 0; mode < MODE_COUNT; mode++) {
+            graphs[mode] = null;
+        }
+        activeGraph = null;
+        output = null;
+        framebufferPool.invalidate();
+        poolWidth = 0;
+        poolHeight = 0;
+    }
+
+    void setEdgeThreshold(float threshold) {
+        edgeThreshold = threshold;
+    }
+
+    /** Draws edges over the camera picture instead of on black; one extra pass. */
+    void setEdgeOverlay(boolean enabled) {
+        if (enabled != edgeOverlay) {
+            edgeOverlay = enabled;
+            releaseGraph(1);
+        }
+    }
+
+    // GL thread, in the graph's context; rebuilt on its next use
+    private void releaseGraph(int mode) {
+        RenderGraph graph = graphs[mode];
+        if (graph == null) {
+            return;
+        }
+        if (graph == activeGraph) {
+            activeGraph = null;
+            output = null;
+        }
+        graph.release();
+        graphs[mode] = null;
+    }
+
+    /**
+     * Processes the camera texture at width x height and returns the texture
+     * holding the result, or 0 when the mode has nothing to do on the GPU
+     * (original). Leaves framebuffer 0 bound; the caller restores its viewport.
+     */
+    int process(int mode, int cameraTextureId, float[] texMatrix, int width, int height) {
+        if (mode < 0 || mode >= MODE_COUNT || width <= 0 || height <= 0) {
+            return 0;
+        }
+        if (grayProgram == null) {
+            createPrograms();
+        }
+        RenderGraph graph = graphs[mode];
+        if (graph == null) {
+            graph = buildGraph(mode);
+            graphs[mode] = graph;
+        }
+        if (graph != activeGraph) {
+            if (activeGraph != null) {
+                activeGraph.releaseOutput();
+            }
+            activeGraph = graph;
+        }
+        if (width != poolWidth || height != poolHeight) {
+            // Targets of the old size would only sit in the pool
+            graph.releaseOutput();
+            framebufferPool.trim();
+            poolWidth = width;
+            poolHeight = height;
+        }
+
+        cameraTexMatrix = texMatrix;
+        graph.setExternal(CAMERA, cameraTextureId);
+        output = graph.execute(width, height);
+        return output.texture;
+    }
+
+    /**
+     * Reads the last result back as tightly packed RGBA, for checking the GPU
+     * path against the CPU one. Slow; not for per-frame use.
+     */
+    boolean readOutput(ByteBuffer dst) {
+        if (output == null || dst == null || dst.capacity() < output.width * output.height * 4) {
+            return false;
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, output.framebuffer);
+        dst.position(0);
+        GLES20.glReadPixels(0, 0, output.width, output.height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, dst);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        return true;
+    }
+
+    private RenderGraph buildGraph(int mode) {
+        RenderGraph graph = new RenderGraph("mode " + mode, framebufferPool, CAMERA);
+        switch (mode) {
+            case 1: // Edges: gray, then Sobel magnitude, optionally over the picture
+                graph.addPass("gray", CAMERA, "luma", grayPass);
+                if (edgeOverlay) {
+                    graph.addPass("sobel", "luma", "edges", sobelPass);
+                    graph.addPass("copy", CAMERA, "color", copyPass);
+                    graph.addPass("overlay", new String[] {"color", "edges"}, RenderGraph.OUTPUT, overlayPass);
+                } else {
+                    graph.addPass("sobel", "luma", RenderGraph.OUTPUT, sobelPass);
+                }
+                break;
+            case 2: // Blur: horizontal then vertical pass
+                graph.addPass("copy", CAMERA, "color", copyPass);
+                graph.addPass("blurH", "color", "blurred", horizontalBlurPass);
+                graph.addPass("blurV", "blurred", RenderGraph.OUTPUT, verticalBlurPass);
+                break;
+            case 0: // Grayscale
+            default:
+                graph.addPass("gray", CAMERA, RenderGraph.OUTPUT, grayPass);
+                break;
+        }
+        return graph.compile();
+    }
+
+    // Camera orientation is applied by the passes reading the OES texture,
+    // once; later passes sample 1:1
+    private final RenderGraph.Pass grayPass = new RenderGraph.Pass() {
+        @Override
+        public void draw(RenderGraph graph, int[] inputs) {
+            renderer.drawQuad(grayProgram, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, inputs[0], identityMatrix, cameraTexMatrix);
+        }
+    };
+
+    private final RenderGraph.Pass copyPass = new RenderGraph.Pass() {
+        @Override
+        public void draw(RenderGraph graph, int[] inputs) {
+            renderer.drawQuad(copyProgram, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, inputs[0], identityMatrix, cameraTexMatrix);
+        }
+    };
+
+    private final RenderGraph.Pass sobelPass = new RenderGraph.Pass() {
+        @Override
+        public void draw(RenderGraph graph, int[] inputs) {
+            GLES20.glUseProgram(sobelProgram.program);
+            GLES20.glUniform2f(texelSizeHandle, 1.0f / graph.getWidth(), 1.0f / graph.getHeight());
+            GLES20.glUniform1f(thresholdHandle, edgeThreshold);
+            renderer.drawQuad(sobelProgram, GLES20.GL_TEXTURE_2D, inputs[0], identityMatrix, identityMatrix);
+        }
+    };
+
+    private final RenderGraph.Pass horizontalBlurPass = new RenderGraph.Pass() {
+        @Override
+        public void draw(RenderGraph graph, int[] inputs) {
+            drawGaussian(inputs[0], 1.0f / graph.getWidth(), 0.0f);
+        }
+    };
+
+    private final RenderGraph.Pass verticalBlurPass = new RenderGraph.Pass() {
+        @Override
+        public void draw(RenderGraph graph, int[] inputs) {
+            drawGaussian(inputs[0], 0.0f, 1.0f / graph.getHeight());
+        }
+    };
+
+    private final RenderGraph.Pass overlayPass = new RenderGraph.Pass() {
+        @Override
+        public void draw(RenderGraph graph, int[] inputs) {
+            GLES20.glUseProgram(overlayProgram.program);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, inputs[1]);
+            GLES20.glUniform1i(maskHandle, 1);
+            GLES20.glUniform4f(colorHandle, 0.0f, 1.0f, 0.0f, 1.0f);
+            renderer.drawQuad(overlayProgram, GLES20.GL_TEXTURE_2D, inputs[0], identityMatrix, identityMatrix);
+        }
+    };
+
+    private void drawGaussian(int source, float stepX, float stepY) {
+        GLES20.glUseProgram(gaussianProgram.program);
+        GLES20.glUniform2f(stepHandle, stepX, stepY);
+        GLES20.glUniform1fv(weightsHandle, blurWeights.length, blurWeights, 0);
+        renderer.drawQuad(gaussianProgram, GLES20.GL_TEXTURE_2D, source, identityMatrix, identityMatrix);
+    }
+
+    private void createPrograms() {
+        ShaderCache shaders = renderer.getShaderCache();
+        grayProgram = shaders.get(GRAY_OES_SHADER);
+        copyProgram = shaders.get(COPY_OES_SHADER);
+        sobelProgram = shaders.get(SOBEL_SHADER);
+        gaussianProgram = shaders.get(GAUSSIAN_SHADER);
+        overlayProgram = shaders.get(OVERLAY_SHADER);
+        texelSizeHandle = GLES20.glGetUniformLocation(sobelProgram.program, "uTexelSize");
+        thresholdHandle = GLES20.glGetUniformLocation(sobelProgram.program, "uThreshold");
+        stepHandle = GLES20.glGetUniformLocation(gaussianProgram.program, "uStep");
+        weightsHandle = GLES20.glGetUniformLocation(gaussianProgram.program, "uWeights");
+        maskHandle = GLES20.glGetUniformLocation(overlayProgram.program, "uMask");
+        colorHandle = GLES20.glGetUniformLocation(overlayProgram.program, "uColor");
+        Log.d(TAG, "GPU processing programs created; " + shaders.describeStats());
+    }
+
+    // Half of a normalised 1D Gaussian of size 2 * radius + 1, with sigma
+    // picked the way cv::getGaussianKernel does for sigma <= 0
+    private static void computeGaussianWeights(int radius, float[] weights) {
+        int size = 2 * radius + 1;
+        double sigma = 0.3 * ((size - 1) * 0.5 - 1) + 0.8;
+        double sum = 0;
+        for (int i = 0; i <= radius; i++) {
+            double w = Math.exp(-(i * i) / (2 * sigma * sigma));
+            weights[i] = (float) w;
+            sum += i == 0 ? w : 2 * w;
+        }
+        for (int i = 0; i <= radius; i++) {
+            weights[i] /= (float) sum;
+        }
+        for (int i = radius + 1; i < weights.length; i++) {
+            weights[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.opencvopenglapp;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Per-pass GPU time from EXT_disjoint_timer_query, on GLES3 contexts that
+ * expose it. Results are read a few frames late so the GL thread never waits
+ * for the GPU; a pass whose query from that many frames ago is still pending
+ * just goes unmeasured for that frame. GL thread only.
+ */
+public class GpuTimer {
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    // Frames of queries in flight per pass
+    private static final int LATENCY = 3;
+
+    private final int slots;
+    private final int[] queries;
+    private final boolean[] pending;
+    private final int[] value = new int[1];
+    private int frame = 0;
+    private int activeQuery = -1;
+
+    private final long[] sumNanos;
+    private final int[] samples;
+
+    /** Returns a timer for slots passes, or null if the context can't time them. */
+    static GpuTimer create(int slots) {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        if (!OpenGLRenderer.isGles3(version) || extensions == null
+                || !extensions.contains("GL_EXT_disjoint_timer_query")) {
+            return null;
+        }
+        return new GpuTimer(slots);
+    }
+
+    private GpuTimer(int slots) {
+        this.slots = slots;
+        queries = new int[slots * LATENCY];
+        pending = new boolean[slots * LATENCY];
+        sumNanos = new long[slots];
+        samples = new int[slots];
+        GLES30.glGenQueries(queries.length, queries, 0);
+    }
+
+    /** Collects finished results and moves on to the next frame's queries. */
+    void beginFrame() {
+        // A disjoint event (e.g. a frequency change) invalidates every result
+        // read since the last check
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, value, 0);
+        boolean disjoint = value[0] != 0;
+        for (int i = 0; i < queries.length; i++) {
+            if (!pending[i]) {
+                continue;
+            }
+            GLES30.glGetQueryObjectuiv(queries[i], GLES30.GL_QUERY_RESULT_AVAILABLE, value, 0);
+            if (value[0] == 0) {
+                continue;
+            }
+            GLES30.glGetQueryObjectuiv(queries[i], GLES30.GL_QUERY_RESULT, value, 0);
+            pending[i] = false;
+            if (!disjoint) {
+                int slot = i % slots;
+                sumNanos[slot] += value[0] & 0xFFFFFFFFL;
+                samples[slot]++;
+            }
+        }
+        frame = (frame + 1) % LATENCY;
+    }
+
+    void begin(int slot) {
+        int index = frame * slots + slot;
+        if (pending[index]) {
+            return;
+        }
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[index]);
+        activeQuery = index;
+    }
+
+    void end() {
+        if (activeQuery < 0) {
+            return;
+        }
+        GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        pending[activeQuery] = true;
+        activeQuery = -1;
+    }
+
+    /** Deletes the queries; the timer can't be used afterwards. */
+    void release() {
+        if (activeQuery >= 0) {
+            GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+            activeQuery = -1;
+        }
+        GLES30.glDeleteQueries(queries.length, queries, 0);
+    }
+
+    /**
+     * Average of slot's measurements since the last call, or -1 if there were
+     * none; starts a new averaging window for that slot.
+     */
+    double takeAverageMillis(int slot) {
+        int count = samples[slot];
+        double average = count > 0 ? sumNanos[slot] / (count * 1_000_000.0) : -1;
+        sumNanos[slot] = 0;
+        samples[slot] = 0;
+        return average;
+    }
+}
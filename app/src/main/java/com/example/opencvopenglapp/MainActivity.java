@@ -14,12 +14,18 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import java.io.File;
+import java.io.IOException;
+
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
     private static final int CAMERA_PERMISSION_REQUEST = 1001;
+    // CPU processing runs on a second, small camera stream; the preview stays full size
+    private static final int ANALYSIS_WIDTH = 640;
+    private static final int ANALYSIS_HEIGHT = 360;
     
     private CameraGLSurfaceView glSurfaceView;
-    private SimpleCameraHandler cameraHandler;
+    private FrameSource frameSource;
     private Button toggleProcessingButton;
     private Button modeButton;
     private TextView fpsTextView;
@@ -30,7 +36,9 @@ public class MainActivity extends AppCompatActivity {
     private String[] modeNames = {"Grayscale", "Canny Edge", "Blur", "Original"};
     
     private FPSMonitor fpsMonitor;
+    private QualityGovernor qualityGovernor;
     private WebSocketClient webSocketClient;
+    private FrameRecorder frameRecorder;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -39,11 +47,15 @@ public class MainActivity extends AppCompatActivity {
         
         initViews();
         setupCamera();
+        setupQualityGovernor();
         setupFPSMonitor();
         setupWebSocket();
         
-        // Always request permission first, don't start camera automatically
-        requestCameraPermission();
+        // With permission the camera opens in onResume, while the GL surface
+        // is still being created; otherwise once it is granted
+        if (!checkCameraPermission()) {
+            requestCameraPermission();
+        }
     }
 
     private void initViews() {
@@ -54,29 +66,95 @@ public class MainActivity extends AppCompatActivity {
         resolutionTextView = findViewById(R.id.resolution_text);
         
         toggleProcessingButton.setOnClickListener(v -> toggleProcessing());
+        toggleProcessingButton.setOnLongClickListener(v -> {
+            toggleRecording();
+            return true;
+        });
         modeButton.setOnClickListener(v -> cycleMode());
+        modeButton.setOnLongClickListener(v -> {
+            toggleBackend();
+            return true;
+        });
         
         updateModeButtonText();
     }
 
     private void setupCamera() {
-        cameraHandler = new SimpleCameraHandler(this);
-        cameraHandler.setGLSurfaceView(glSurfaceView);
-        glSurfaceView.setCameraHandler(cameraHandler);
+        Camera2FrameSource cameraSource = new Camera2FrameSource(this);
+        cameraSource.setGLSurfaceView(glSurfaceView);
+        cameraSource.setAnalysisStream(ANALYSIS_WIDTH, ANALYSIS_HEIGHT, glSurfaceView.getAnalysisListener());
+        setFrameSource(cameraSource);
+        updateCaptureMode();
+    }
+
+    private void setFrameSource(FrameSource source) {
+        if (frameSource != null) {
+            frameSource.stop();
+        }
+        frameSource = source;
+        glSurfaceView.setFrameSource(source);
+    }
+
+    private void setupQualityGovernor() {
+        qualityGovernor = new QualityGovernor(glSurfaceView);
+        qualityGovernor.setListener((previousLevel, level, reason) -> {
+            if (webSocketClient != null && webSocketClient.isConnected()) {
+                webSocketClient.sendQualityChange(previousLevel, qualityGovernor);
+            }
+        });
     }
 
     private void setupFPSMonitor() {
         fpsMonitor = new FPSMonitor(fps -> runOnUiThread(() -> {
+            PipelineTimings timings = glSurfaceView.getPipelineTimings();
+            timings.snapshot();
+            qualityGovernor.update(fps, timings);
+            updateCaptureCost(timings);
             fpsTextView.setText("FPS: " + String.format("%.1f", fps));
             // Send frame data to WebSocket
-            if (webSocketClient != null && webSocketClient.isConnected() && cameraHandler != null) {
-                int width = cameraHandler.getPreviewSize() != null ? cameraHandler.getPreviewSize().getWidth() : 0;
-                int height = cameraHandler.getPreviewSize() != null ? cameraHandler.getPreviewSize().getHeight() : 0;
-                webSocketClient.sendFrameData(width, height, (float)fps, currentMode, (int)(System.currentTimeMillis() % 100));
+            if (webSocketClient != null && webSocketClient.isConnected() && frameSource != null) {
+                int width = frameSource.getWidth();
+                int height = frameSource.getHeight();
+                webSocketClient.sendFrameData(width, height, (float)fps, currentMode,
+                        (float) timings.getAverageMillis(PipelineTimings.STAGE_TOTAL), timings, qualityGovernor,
+                        glSurfaceView.getFramePacer(), glSurfaceView.getAsyncReadback());
             }
         }));
+        glSurfaceView.setFPSMonitor(fpsMonitor);
     }
     
+    // The camera captures for what the CPU pipeline costs; GPU shaders and
+    // switched off processing don't limit it
+    private void updateCaptureMode() {
+        if (frameSource instanceof Camera2FrameSource) {
+            boolean cpu = isProcessingEnabled
+                    && glSurfaceView.getProcessingBackend() == CameraGLSurfaceView.BACKEND_NATIVE;
+            ((Camera2FrameSource) frameSource).setProcessingMode(cpu ? currentMode : CapturePolicy.MODE_NONE);
+        }
+    }
+
+    private void updateCaptureCost(PipelineTimings timings) {
+        if (!(frameSource instanceof Camera2FrameSource) || !isProcessingEnabled
+                || glSurfaceView.getProcessingBackend() != CameraGLSurfaceView.BACKEND_NATIVE) {
+            return;
+        }
+        Camera2FrameSource camera = (Camera2FrameSource) frameSource;
+        // Same cost the governor judges, per pixel actually processed
+        double cost = timings.getAverageMillis(PipelineTimings.STAGE_READBACK)
+                + timings.getAverageMillis(PipelineTimings.STAGE_PROCESS)
+                + timings.getAverageMillis(PipelineTimings.STAGE_UPLOAD);
+        long pixels = camera.getProcessedPixels();
+        if (camera.getAnalysisSize() == null) {
+            // Preview readbacks shrink with the governor's scale
+            int scale = qualityGovernor.getScaleDivisor();
+            pixels /= (long) scale * scale;
+        }
+        if (camera.getCapturePolicy().recordCost(currentMode, cost, pixels)) {
+            // The mode's configuration so far assumed it was free
+            camera.refreshCaptureConfig();
+        }
+    }
+
     private void setupWebSocket() {
         webSocketClient = new WebSocketClient();
         webSocketClient.setCallback(new WebSocketClient.WebSocketCallback() {
@@ -132,33 +210,21 @@ public class MainActivity extends AppCompatActivity {
                 startCamera();
             } else {
                 Toast.makeText(this, "Camera permission denied. App will show test pattern instead.", Toast.LENGTH_LONG).show();
-                // Show test pattern instead of closing the app
-                glSurfaceView.showTestPattern();
+                // Run the pipeline on a generated pattern instead of closing the app
+                setFrameSource(new SyntheticFrameSource(1280, 720, 30));
+                frameSource.start();
+                updateResolutionText();
             }
         }
     }
 
     private void startCamera() {
         try {
-            // Wait a moment for SurfaceTexture to be fully initialized
-            glSurfaceView.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        cameraHandler.startPreview();
-                        updateResolutionText();
-                        
-                        Log.d(TAG, "Camera started successfully");
-                        Toast.makeText(MainActivity.this, "Camera started successfully - should see live feed", Toast.LENGTH_SHORT).show();
-                    } catch (Exception e) {
-                        Log.e(TAG, "Failed to start camera", e);
-                        Toast.makeText(MainActivity.this, "Failed to start camera - showing test pattern", Toast.LENGTH_LONG).show();
-                        // Fallback to test pattern if camera fails
-                        glSurfaceView.showTestPattern();
-                    }
-                }
-            }, 500); // Wait 500ms for SurfaceTexture initialization
-            
+            // Opens the camera right away; the session follows once the
+            // view's SurfaceTexture exists
+            frameSource.start();
+            updateResolutionText();
+            Log.d(TAG, "Camera starting");
         } catch (Exception e) {
             Log.e(TAG, "Failed to start camera", e);
             Toast.makeText(this, "Failed to start camera - showing test pattern", Toast.LENGTH_LONG).show();
@@ -173,28 +239,73 @@ public class MainActivity extends AppCompatActivity {
         
         String buttonText = isProcessingEnabled ? "Disable Processing" : "Enable Processing";
         toggleProcessingButton.setText(buttonText);
+        updateCaptureMode();
         
         Toast.makeText(this, 
                 isProcessingEnabled ? "Processing enabled" : "Processing disabled", 
                 Toast.LENGTH_SHORT).show();
     }
 
+    // Records camera input for replay with RecordingFrameSource or FrameSourceBenchmark
+    private void toggleRecording() {
+        if (frameRecorder != null) {
+            stopRecording();
+            return;
+        }
+        File file = new File(getExternalFilesDir(null), "frames-" + System.currentTimeMillis() + ".frc");
+        try {
+            frameRecorder = new FrameRecorder(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start recording", e);
+            Toast.makeText(this, "Failed to start recording", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        glSurfaceView.setFrameRecorder(frameRecorder, CameraGLSurfaceView.RECORD_RAW);
+        Toast.makeText(this, "Recording to " + file.getName(), Toast.LENGTH_SHORT).show();
+    }
+
+    private void stopRecording() {
+        if (frameRecorder == null) {
+            return;
+        }
+        glSurfaceView.setFrameRecorder(null, CameraGLSurfaceView.RECORD_RAW);
+        FrameRecorder recorder = frameRecorder;
+        frameRecorder = null;
+        try {
+            recorder.close();
+            Log.d(TAG, "Recorded " + recorder.getRecorded() + " frames (" + recorder.getDropped()
+                    + " dropped) to " + recorder.getFile());
+            Toast.makeText(this, "Recorded " + recorder.getRecorded() + " frames", Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Recording failed", e);
+            Toast.makeText(this, "Recording failed", Toast.LENGTH_SHORT).show();
+        }
+    }
+
     private void cycleMode() {
         currentMode = (currentMode + 1) % modeNames.length;
         glSurfaceView.setProcessingMode(currentMode);
         updateModeButtonText();
+        updateCaptureMode();
         
         Toast.makeText(this, "Mode: " + modeNames[currentMode], Toast.LENGTH_SHORT).show();
     }
 
+    private void toggleBackend() {
+        boolean gpu = glSurfaceView.getProcessingBackend() != CameraGLSurfaceView.BACKEND_GPU;
+        glSurfaceView.setProcessingBackend(gpu ? CameraGLSurfaceView.BACKEND_GPU : CameraGLSurfaceView.BACKEND_NATIVE);
+        updateCaptureMode();
+        
+        Toast.makeText(this, gpu ? "Processing on GPU shaders" : "Processing with OpenCV", Toast.LENGTH_SHORT).show();
+    }
+
     private void updateModeButtonText() {
         modeButton.setText("Mode: " + modeNames[currentMode]);
     }
 
     private void updateResolutionText() {
-        if (cameraHandler.getPreviewSize() != null) {
-            String resolution = cameraHandler.getPreviewSize().getWidth() + "x" + 
-                              cameraHandler.getPreviewSize().getHeight();
+        if (frameSource.getWidth() > 0) {
+            String resolution = frameSource.getWidth() + "x" + frameSource.getHeight();
             resolutionTextView.setText("Resolution: " + resolution);
         }
     }
@@ -203,30 +314,36 @@ public class MainActivity extends AppCompatActivity {
     protected void onResume() {
         super.onResume();
         // Only start camera if permission is granted and not already running
-        if (checkCameraPermission() && cameraHandler != null && !cameraHandler.isPreviewRunning()) {
-            startCamera();
+        if (frameSource != null && !frameSource.isRunning()) {
+            if (!frameSource.isTextureSource()) {
+                frameSource.start();
+            } else if (checkCameraPermission()) {
+                startCamera();
+            }
         }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        if (cameraHandler != null) {
-            cameraHandler.stopPreview();
+        stopRecording();
+        if (frameSource != null) {
+            frameSource.stop();
         }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // Sources feed the view, so they stop before it is torn down
+        if (frameSource != null) {
+            frameSource.stop();
+        }
         if (glSurfaceView != null) {
             glSurfaceView.cleanup();
         }
         if (webSocketClient != null) {
             webSocketClient.disconnect();
         }
-        if (cameraHandler != null) {
-            cameraHandler.stopPreview();
-        }
     }
 }
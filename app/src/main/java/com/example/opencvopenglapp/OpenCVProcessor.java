@@ -1,39 +1,618 @@
 package com.example.opencvopenglapp;
 
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
+
 public class OpenCVProcessor {
     static {
         System.loadLibrary("opencv_processor");
     }
 
-    private long nativeProcessorPtr;
+    public static final int DEFAULT_RING_CAPACITY = 3;
+
+    // Processing scale divisors: ring output is 1/n of the input size per axis
+    public static final int SCALE_FULL = 1;
+    public static final int SCALE_HALF = 2;
+    public static final int SCALE_QUARTER = 4;
+
+    // Native calls run under the read side and destroy() takes the write side,
+    // so the FrameProcessor is never freed under a call from another thread
+    // (GL, texture upload, camera analysis, CPU sources). Calls don't nest:
+    // StampedLock isn't reentrant. After destroy() every call is a no-op.
+    private final StampedLock lifecycle = new StampedLock();
+    private volatile long nativeProcessorPtr;
+    // Starting and stopping the worker, and destroy(). Held instead of the
+    // read lock while joining the worker, whose callback may take the read
+    // lock itself and would block behind a writer waiting on the join
+    private final Object workerLock = new Object();
+    
+    // Direct views of the native output ring, refreshed when the ring is reallocated
+    private ByteBuffer[] ringBuffers;
+    private int ringGeneration = -1;
+    
+    private volatile FrameCallback frameCallback;
+    private final long[] asyncStatsValues = new long[8];
+    private final long[] cacheStatsValues = new long[1 + 2 * CacheStats.PRODUCT_COUNT];
+
+    /** Invoked on the native worker thread when an async frame lands in the ring. */
+    public interface FrameCallback {
+        void onFrameProcessed(int slot, long timestampNanos, long latencyNanos);
+    }
+
+    public static class AsyncStats {
+        public int queueDepth;
+        public long submitted;
+        public long processed;
+        public long dropped;
+        public long ringDropped;
+        public long lastLatencyNanos;
+        public long averageLatencyNanos;
+        public long averageProcessNanos;
+    }
+
+    /**
+     * Per-frame intermediate cache counters, cumulative since the processor was
+     * created. A miss is a computation, so misses never exceed frames when every
+     * product is computed at most once per frame.
+     */
+    public static class CacheStats {
+        public static final int PRODUCT_GRAY = 0;
+        public static final int PRODUCT_INTEGRAL = 1;
+        public static final int PRODUCT_COUNT = 2;
+
+        public long frames;
+        public final long[] hits = new long[PRODUCT_COUNT];
+        public final long[] misses = new long[PRODUCT_COUNT];
+    }
 
     public OpenCVProcessor() {
-        nativeProcessorPtr = nativeCreateProcessor();
+        this(DEFAULT_RING_CAPACITY);
     }
 
+    public OpenCVProcessor(int ringCapacity) {
+        nativeProcessorPtr = nativeCreateProcessor(ringCapacity);
+    }
+
+    /**
+     * Frees the native processor. Safe from any thread while others still
+     * use this object: it waits for native calls in progress, and later ones
+     * do nothing. The async worker is joined first, outside the write lock,
+     * so its callback never waits on it.
+     */
     public void destroy() {
-        if (nativeProcessorPtr != 0) {
-            nativeDestroyProcessor(nativeProcessorPtr);
-            nativeProcessorPtr = 0;
+        synchronized (workerLock) {
+            // No worker can be started again before the write lock below
+            stopAsync();
+            long stamp = lifecycle.writeLock();
+            try {
+                long ptr = nativeProcessorPtr;
+                if (ptr != 0) {
+                    nativeProcessorPtr = 0;
+                    nativeDestroyProcessor(ptr);
+                }
+            } finally {
+                lifecycle.unlockWrite(stamp);
+            }
+        }
+        synchronized (this) {
+            ringBuffers = null;
         }
     }
 
+    /**
+     * Compatibility shim: copies the input and allocates a new result array on
+     * every call. Prefer {@link #processFrame(ByteBuffer, ByteBuffer, int, int, int)}
+     * on per-frame paths.
+     */
     public int[] processFrame(int[] inputData, int width, int height) {
+        long stamp = acquire();
+        try {
+            return stamp != 0 ? nativeProcessFrame(nativeProcessorPtr, inputData, width, height) : null;
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /**
+     * Processes an RGBA frame from one caller-owned direct buffer into another.
+     * Both buffers are wrapped natively without copying; {@code stride} is the
+     * row stride in bytes and applies to input and output alike.
+     */
+    public boolean processFrame(ByteBuffer inputBuffer, ByteBuffer outputBuffer,
+                                int width, int height, int stride) {
+        if (inputBuffer == null || outputBuffer == null || !inputBuffer.isDirect() || !outputBuffer.isDirect()) {
+            return false;
+        }
+        long stamp = acquire();
+        try {
+            return stamp != 0 && nativeProcessFrameBuffer(nativeProcessorPtr, inputBuffer, outputBuffer,
+                    width, height, stride);
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /**
+     * Processes a YUV_420_888 frame straight from the camera planes into an RGBA
+     * direct buffer. Grayscale and Canny run on the Y plane alone; Blur and
+     * Original convert the chroma once. Strides are in bytes.
+     */
+    public boolean processYuvFrame(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                                   int width, int height, int yRowStride, int uvRowStride,
+                                   int uvPixelStride, ByteBuffer outputBuffer, int outputStride) {
+        if (outputBuffer == null || !outputBuffer.isDirect()) {
+            return false;
+        }
+        long stamp = acquire();
+        try {
+            return stamp != 0 && nativeProcessYuvFrame(nativeProcessorPtr, yPlane, uPlane, vPlane,
+                    width, height, yRowStride, uvRowStride, uvPixelStride, outputBuffer, outputStride);
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /**
+     * Convenience wrapper for a YUV_420_888 {@link Image}, e.g. from an ImageReader.
+     * The caller still owns the image and must close it afterwards.
+     */
+    public boolean processImage(Image image, ByteBuffer outputBuffer, int outputStride) {
+        if (image == null || image.getFormat() != ImageFormat.YUV_420_888) {
+            return false;
+        }
+        Image.Plane[] planes = image.getPlanes();
+        return processYuvFrame(planes[0].getBuffer(), planes[1].getBuffer(), planes[2].getBuffer(),
+                image.getWidth(), image.getHeight(),
+                planes[0].getRowStride(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                outputBuffer, outputStride);
+    }
+
+    /**
+     * Processes an RGBA frame into the next free slot of the native output ring
+     * and publishes it. Returns the slot index, or -1 on failure.
+     * {@code timestampNanos} (System.nanoTime() base) is kept with the slot.
+     * The slot holds the frame at the processing scale, see
+     * {@link #setProcessingScale(int)}.
+     */
+    public int processFrameToRing(ByteBuffer inputBuffer, int width, int height, int stride,
+                                  long timestampNanos) {
+        return processFrameToRing(inputBuffer, width, height, stride, 4, timestampNanos);
+    }
+
+    /**
+     * {@link #processFrameToRing(ByteBuffer, int, int, int, long)} for RGBA (4
+     * channels) or gray (1 channel) input, such as a recorded Y plane.
+     */
+    public int processFrameToRing(ByteBuffer inputBuffer, int width, int height, int stride,
+                                  int channels, long timestampNanos) {
+        if (inputBuffer == null || !inputBuffer.isDirect()) {
+            return -1;
+        }
+        long stamp = acquire();
+        try {
+            return stamp != 0 ? nativeProcessFrameToRing(nativeProcessorPtr, inputBuffer, width, height, stride,
+                    channels, timestampNanos) : -1;
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /**
+     * Processes a YUV_420_888 frame (see {@link #processYuvFrame}) into the
+     * next free slot of the output ring and publishes it. Returns the slot
+     * index, or -1 on failure. The processing scale is not applied.
+     */
+    public int processYuvFrameToRing(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                                     int width, int height, int yRowStride, int uvRowStride,
+                                     int uvPixelStride, long timestampNanos) {
+        long stamp = acquire();
+        try {
+            return stamp != 0 ? nativeProcessYuvFrameToRing(nativeProcessorPtr, yPlane, uPlane, vPlane,
+                    width, height, yRowStride, uvRowStride, uvPixelStride, timestampNanos) : -1;
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /**
+     * {@link #processYuvFrameToRing} for a YUV_420_888 {@link Image}; the
+     * caller still owns the image and can close it as soon as this returns.
+     */
+    public int processImageToRing(Image image, long timestampNanos) {
+        if (image == null || image.getFormat() != ImageFormat.YUV_420_888) {
+            return -1;
+        }
+        Image.Plane[] planes = image.getPlanes();
+        return processYuvFrameToRing(planes[0].getBuffer(), planes[1].getBuffer(), planes[2].getBuffer(),
+                image.getWidth(), image.getHeight(),
+                planes[0].getRowStride(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                timestampNanos);
+    }
+
+    /**
+     * Starts the native worker thread. Frames handed to {@link #submitFrame} are
+     * processed off the caller's thread into the output ring; if a frame is
+     * still waiting when the next one arrives, the older one is dropped.
+     * Results can be polled with {@link #acquireRingFrame()} or pushed through
+     * {@code callback} (may be null).
+     */
+    public boolean startAsync(FrameCallback callback) {
+        synchronized (workerLock) {
+            long stamp = acquire();
+            try {
+                if (stamp == 0) {
+                    return false;
+                }
+                frameCallback = callback;
+                return nativeStartWorker(nativeProcessorPtr);
+            } finally {
+                release(stamp);
+            }
+        }
+    }
+
+    /**
+     * Joins the worker; its callback must not wait for the caller. The join
+     * runs outside the read lock, so the callback's own calls on this
+     * processor go through even while destroy() is pending on another thread.
+     */
+    public void stopAsync() {
+        frameCallback = null;
+        synchronized (workerLock) {
+            // destroy() frees the processor only while holding workerLock
+            long ptr = nativeProcessorPtr;
+            if (ptr != 0) {
+                nativeStopWorker(ptr);
+            }
+        }
+    }
+
+    /**
+     * Queues an RGBA frame for the async worker and returns immediately. The
+     * input is copied natively, so the buffer can be reused right away.
+     */
+    public boolean submitFrame(ByteBuffer inputBuffer, int width, int height, int stride,
+                               long timestampNanos) {
+        if (inputBuffer == null || !inputBuffer.isDirect()) {
+            return false;
+        }
+        long stamp = acquire();
+        try {
+            return stamp != 0 && nativeSubmitFrame(nativeProcessorPtr, inputBuffer, width, height, stride,
+                    timestampNanos);
+        } finally {
+            release(stamp);
+        }
+    }
+
+    public AsyncStats getAsyncStats() {
+        AsyncStats stats = new AsyncStats();
+        synchronized (asyncStatsValues) {
+            long stamp = acquire();
+            try {
+                if (stamp == 0) {
+                    return stats;
+                }
+                nativeGetAsyncStats(nativeProcessorPtr, asyncStatsValues);
+            } finally {
+                release(stamp);
+            }
+            stats.queueDepth = (int) asyncStatsValues[0];
+            stats.submitted = asyncStatsValues[1];
+            stats.processed = asyncStatsValues[2];
+            stats.dropped = asyncStatsValues[3];
+            stats.lastLatencyNanos = asyncStatsValues[4];
+            stats.averageLatencyNanos = asyncStatsValues[5];
+            stats.averageProcessNanos = asyncStatsValues[6];
+            stats.ringDropped = asyncStatsValues[7];
+        }
+        return stats;
+    }
+
+    public CacheStats getCacheStats() {
+        CacheStats stats = new CacheStats();
+        synchronized (cacheStatsValues) {
+            long stamp = acquire();
+            try {
+                if (stamp == 0) {
+                    return stats;
+                }
+                nativeGetCacheStats(nativeProcessorPtr, cacheStatsValues);
+            } finally {
+                release(stamp);
+            }
+            stats.frames = cacheStatsValues[0];
+            System.arraycopy(cacheStatsValues, 1, stats.hits, 0, CacheStats.PRODUCT_COUNT);
+            System.arraycopy(cacheStatsValues, 1 + CacheStats.PRODUCT_COUNT, stats.misses, 0,
+                    CacheStats.PRODUCT_COUNT);
+        }
+        return stats;
+    }
+
+    /**
+     * Copies an acquired slot into {@code dst} natively (tightly packed, see
+     * {@link #getRingFrameChannels(int)}),
+     * e.g. into a mapped GL pixel buffer. Returns false if dst is not direct or
+     * too small.
+     */
+    public boolean copyRingFrame(int slot, ByteBuffer dst) {
+        if (slot < 0 || dst == null || !dst.isDirect()) {
+            return false;
+        }
+        long stamp = acquire();
+        try {
+            return stamp != 0 && nativeCopyRingFrame(nativeProcessorPtr, slot, dst);
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /** Size of the frame in an acquired slot, which follows the processing scale. */
+    public int getRingFrameWidth(int slot) {
+        long stamp = acquire();
+        try {
+            return stamp != 0 ? nativeGetRingFrameWidth(nativeProcessorPtr, slot) : 0;
+        } finally {
+            release(stamp);
+        }
+    }
+
+    public int getRingFrameHeight(int slot) {
+        long stamp = acquire();
+        try {
+            return stamp != 0 ? nativeGetRingFrameHeight(nativeProcessorPtr, slot) : 0;
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /**
+     * Bytes per pixel of the frame in an acquired slot: 1 for pipelines ending
+     * in a gray image (grayscale, edges, thresholds), otherwise 4 (RGBA).
+     */
+    public int getRingFrameChannels(int slot) {
+        long stamp = acquire();
+        try {
+            return stamp != 0 ? nativeGetRingFrameChannels(nativeProcessorPtr, slot) : 0;
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /** Timestamp the frame in {@code slot} was submitted with. */
+    public long getRingFrameTimestamp(int slot) {
+        if (slot < 0) {
+            return 0;
+        }
+        long stamp = acquire();
+        try {
+            return stamp != 0 ? nativeGetRingTimestamp(nativeProcessorPtr, slot) : 0;
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /**
+     * Number of threads used for tile-parallel processing (OpenCV's global
+     * pool). 0 restores the default of one per core.
+     */
+    public void setThreadCount(int threads) {
+        long stamp = acquire();
+        try {
+            if (stamp != 0) {
+                nativeSetThreadCount(nativeProcessorPtr, threads);
+            }
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /** Rows per processing strip; 0 splits the frame evenly across threads. */
+    public void setStripHeight(int rows) {
+        long stamp = acquire();
+        try {
+            if (stamp != 0) {
+                nativeSetStripHeight(nativeProcessorPtr, rows);
+            }
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /**
+     * Diagnostic: processes {@code inputBuffer} with the current mode both tiled
+     * and untiled and returns the largest per-pixel difference. 0 means the
+     * tiled output is bit-exact; -1 means processing failed. Must not be
+     * called while the async worker is running.
+     */
+    public double verifyTiling(ByteBuffer inputBuffer, int width, int height, int stride) {
+        if (inputBuffer == null || !inputBuffer.isDirect()) {
+            return -1;
+        }
+        long stamp = acquire();
+        try {
+            return stamp != 0 ? nativeVerifyTiling(nativeProcessorPtr, inputBuffer, width, height, stride) : -1;
+        } finally {
+            release(stamp);
+        }
+    }
+
+    // Read-locks the processor for one native call: returns the stamp, or 0
+    // (never a valid stamp) once destroyed. nativeProcessorPtr holds still
+    // until release()
+    private long acquire() {
+        long stamp = lifecycle.readLock();
         if (nativeProcessorPtr == 0) {
+            lifecycle.unlockRead(stamp);
+            return 0;
+        }
+        return stamp;
+    }
+
+    private void release(long stamp) {
+        if (stamp != 0) {
+            lifecycle.unlockRead(stamp);
+        }
+    }
+
+    // Called from the native worker thread
+    private void onNativeFrameProcessed(int slot, long timestampNanos, long latencyNanos) {
+        FrameCallback callback = frameCallback;
+        if (callback != null) {
+            callback.onFrameProcessed(slot, timestampNanos, latencyNanos);
+        }
+    }
+
+    /**
+     * Takes the newest processed frame out of the ring, or returns -1 if none is
+     * ready. The slot stays reserved until {@link #releaseRingFrame(int)}.
+     */
+    public int acquireRingFrame() {
+        long stamp = acquire();
+        try {
+            return stamp != 0 ? nativeAcquireRingFrame(nativeProcessorPtr) : -1;
+        } finally {
+            release(stamp);
+        }
+    }
+
+    public void releaseRingFrame(int slot) {
+        if (slot < 0) {
+            return;
+        }
+        long stamp = acquire();
+        try {
+            if (stamp != 0) {
+                nativeReleaseRingFrame(nativeProcessorPtr, slot);
+            }
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /**
+     * Returns a reusable direct view of a ring slot (tightly packed gray or
+     * RGBA, see {@link #getRingFrameChannels(int)}).
+     * Views are created once per ring allocation, not per frame. Called from
+     * the GL and the texture upload thread.
+     */
+    public synchronized ByteBuffer getRingBuffer(int slot) {
+        if (slot < 0) {
             return null;
         }
-        return nativeProcessFrame(nativeProcessorPtr, inputData, width, height);
+        long stamp = acquire();
+        try {
+            if (stamp == 0) {
+                return null;
+            }
+            long ptr = nativeProcessorPtr;
+            int generation = nativeGetRingGeneration(ptr);
+            if (ringBuffers == null || generation != ringGeneration) {
+                ringBuffers = new ByteBuffer[nativeGetRingCapacity(ptr)];
+                ringGeneration = generation;
+            }
+            if (slot >= ringBuffers.length) {
+                return null;
+            }
+            if (ringBuffers[slot] == null) {
+                ringBuffers[slot] = nativeGetRingBuffer(ptr, slot);
+            }
+            return ringBuffers[slot];
+        } finally {
+            release(stamp);
+        }
     }
 
     public void setProcessingMode(int mode) {
-        if (nativeProcessorPtr != 0) {
-            nativeSetProcessingMode(nativeProcessorPtr, mode);
+        long stamp = acquire();
+        try {
+            if (stamp != 0) {
+                nativeSetProcessingMode(nativeProcessorPtr, mode);
+            }
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /**
+     * Processes ring/async frames at 1/divisor of the input size
+     * ({@link #SCALE_FULL}, {@link #SCALE_HALF} or {@link #SCALE_QUARTER}).
+     * The input is area-downscaled natively and the smaller result is stretched
+     * back by the renderer's texture sampling, so the capture size is unaffected.
+     * Can be changed at runtime; returns false for any other divisor.
+     */
+    public boolean setProcessingScale(int divisor) {
+        long stamp = acquire();
+        try {
+            return stamp != 0 && nativeSetProcessingScale(nativeProcessorPtr, divisor);
+        } finally {
+            release(stamp);
+        }
+    }
+
+    /**
+     * Replaces the processing mode with a custom stage chain, e.g.
+     * {@code "gray|gauss:5|canny:50,150"}. Stages: gray, rgba, gauss:k[,sigma],
+     * canny:low,high, erode:k, dilate:k, open:k, close:k, thresh:t[,max], otsu,
+     * adaptive:k,c, overlay[:r,g,b]. Returns false and keeps the current pipeline if the spec
+     * is invalid.
+     */
+    public boolean setPipeline(String spec) {
+        if (spec == null) {
+            return false;
+        }
+        long stamp = acquire();
+        try {
+            return stamp != 0 && nativeSetPipeline(nativeProcessorPtr, spec);
+        } finally {
+            release(stamp);
         }
     }
 
     // Native method declarations
-    private native long nativeCreateProcessor();
+    private native long nativeCreateProcessor(int ringCapacity);
     private native void nativeDestroyProcessor(long processorPtr);
     private native int[] nativeProcessFrame(long processorPtr, int[] inputData, int width, int height);
+    private native boolean nativeProcessFrameBuffer(long processorPtr, ByteBuffer inputBuffer,
+                                                    ByteBuffer outputBuffer, int width, int height,
+                                                    int stride);
+    private native boolean nativeProcessYuvFrame(long processorPtr, ByteBuffer yPlane,
+                                                 ByteBuffer uPlane, ByteBuffer vPlane,
+                                                 int width, int height, int yRowStride,
+                                                 int uvRowStride, int uvPixelStride,
+                                                 ByteBuffer outputBuffer, int outputStride);
+    private native int nativeProcessFrameToRing(long processorPtr, ByteBuffer inputBuffer,
+                                                int width, int height, int stride, int channels,
+                                                long timestampNanos);
+    private native int nativeProcessYuvFrameToRing(long processorPtr, ByteBuffer yPlane,
+                                                   ByteBuffer uPlane, ByteBuffer vPlane,
+                                                   int width, int height, int yRowStride,
+                                                   int uvRowStride, int uvPixelStride,
+                                                   long timestampNanos);
+    private native boolean nativeStartWorker(long processorPtr);
+    private native void nativeStopWorker(long processorPtr);
+    private native boolean nativeSubmitFrame(long processorPtr, ByteBuffer inputBuffer,
+                                             int width, int height, int stride, long timestampNanos);
+    private native void nativeGetAsyncStats(long processorPtr, long[] statsOut);
+    private native void nativeGetCacheStats(long processorPtr, long[] statsOut);
+    private native long nativeGetRingTimestamp(long processorPtr, int slot);
+    private native int nativeAcquireRingFrame(long processorPtr);
+    private native void nativeReleaseRingFrame(long processorPtr, int slot);
+    private native ByteBuffer nativeGetRingBuffer(long processorPtr, int slot);
+    private native int nativeGetRingGeneration(long processorPtr);
+    private native int nativeGetRingCapacity(long processorPtr);
+    private native void nativeSetThreadCount(long processorPtr, int threads);
+    private native void nativeSetStripHeight(long processorPtr, int rows);
+    private native double nativeVerifyTiling(long processorPtr, ByteBuffer inputBuffer,
+                                             int width, int height, int stride);
+    private native boolean nativeCopyRingFrame(long processorPtr, int slot, ByteBuffer dst);
+    private native int nativeGetRingFrameWidth(long processorPtr, int slot);
+    private native int nativeGetRingFrameHeight(long processorPtr, int slot);
+    private native int nativeGetRingFrameChannels(long processorPtr, int slot);
+    private native boolean nativeSetProcessingScale(long processorPtr, int divisor);
     private native void nativeSetProcessingMode(long processorPtr, int mode);
+    private native boolean nativeSetPipeline(long processorPtr, String spec);
 }
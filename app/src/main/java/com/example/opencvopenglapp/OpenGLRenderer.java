@@ -1,24 +1,30 @@
 package com.example.opencvopenglapp;
 
+import android.opengl.EGL14;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.opengl.GLES11Ext;
 import android.util.Log;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.Locale;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 public class OpenGLRenderer implements GLSurfaceView.Renderer {
     private static final String TAG = "OpenGLRenderer";
+    // Per-frame trace logging; compiled out unless flipped for debugging
+    static final boolean TRACE = false;
     
     // Shader code for camera texture
-    private static final String VERTEX_SHADER_CODE =
+    static final String VERTEX_SHADER_CODE =
             "attribute vec4 vPosition;" +
             "attribute vec2 vTexCoord;" +
             "varying vec2 texCoord;" +
@@ -38,6 +44,25 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
             "  gl_FragColor = texture2D(uTexture, texCoord);" +
             "}";
 
+    // Shader code for processed frames uploaded as regular 2D textures
+    private static final String FRAGMENT_SHADER_2D_CODE =
+            "precision mediump float;" +
+            "varying vec2 texCoord;" +
+            "uniform sampler2D uTexture;" +
+            "void main() {" +
+            "  gl_FragColor = texture2D(uTexture, texCoord);" +
+            "}";
+
+    // Single-channel processed frames: broadcast the luminance to gray
+    private static final String FRAGMENT_SHADER_GRAY_CODE =
+            "precision mediump float;" +
+            "varying vec2 texCoord;" +
+            "uniform sampler2D uTexture;" +
+            "void main() {" +
+            "  float value = texture2D(uTexture, texCoord).r;" +
+            "  gl_FragColor = vec4(value, value, value, 1.0);" +
+            "}";
+
     // Quad vertices (x, y, z, u, v) - Fixed for proper camera orientation and aspect ratio
     private static final float[] QUAD_VERTICES = {
             -1.0f, -1.0f, 0.0f, 0.0f, 0.0f,  // Bottom left
@@ -47,23 +72,78 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
     };
 
     private FloatBuffer vertexBuffer;
-    private int shaderProgram;
-    private int positionHandle;
-    private int texCoordHandle;
-    private int mvpMatrixHandle;
-    private int texMatrixHandle;
-    private int textureHandle;
+    // QUAD_VERTICES in a GL buffer, so draws don't re-send client memory
+    private final int[] quadBuffer = new int[1];
+    private QuadProgram cameraProgram;
+    private QuadProgram textureProgram;
+    private QuadProgram grayTextureProgram;
+    private FramePacer framePacer;
     
     private float[] mvpMatrix = new float[16];
     private float[] texMatrix = new float[16];
+    private float[] identityMatrix = new float[16];
     private int[] textures = new int[1];
     private int frameWidth = 0;
     private int frameHeight = 0;
+    private int frameChannels = 4; // 1 = GL_LUMINANCE, 4 = GL_RGBA
     private boolean textureInitialized = false;
     
     // Camera texture support
     private int cameraTextureId = -1;
     private boolean useCameraTexture = false;
+    
+    // Offscreen target used to read camera frames back for CPU processing
+    private int[] readbackFramebuffer = new int[1];
+    private int[] readbackTexture = new int[1];
+    private int readbackWidth = 0;
+    private int readbackHeight = 0;
+    private int surfaceWidth = 0;
+    private int surfaceHeight = 0;
+    
+    // GLES3 upload path: processed frames are written into a mapped pixel
+    // unpack buffer and the texture is filled from it by the driver without
+    // blocking the GL thread. Cycling through several buffers means mapping
+    // one never waits on the transfer still reading the previous one.
+    private static final int UPLOAD_BUFFER_COUNT = 3;
+    private boolean pboUploadSupported = false;
+    private final int[] uploadBuffers = new int[UPLOAD_BUFFER_COUNT];
+    private int uploadBufferSize = 0;
+    private int uploadBufferIndex = 0;
+    private int mappedUploadWidth = 0;
+    private int mappedUploadHeight = 0;
+    private int mappedUploadChannels = 4;
+    private boolean uploadMapped = false;
+    
+    // Compiled programs shared with the GPU processing passes
+    private final ShaderCache shaderCache = new ShaderCache();
+    private File programBinaryDirectory;
+    
+    // GPU processing path: result stays in a GpuProcessor texture
+    private final GpuProcessor gpuProcessor = new GpuProcessor(this);
+    
+    // Detection boxes, contours and keypoints drawn over the frame
+    private final OverlayRenderer overlayRenderer = new OverlayRenderer();
+    
+    // GLES3 camera readback at analysis size through pack buffers and fences
+    private final AsyncReadback asyncReadback = new AsyncReadback(this);
+    private boolean asyncReadbackSupported = false;
+    private int gpuOutputTexture = 0;
+    private boolean useGpuOutput = false;
+    
+    // GLES3: processed frames uploaded on a thread with a shared context and
+    // latched here once their upload fence is queued
+    private volatile TextureUploader textureUploader;
+    private boolean useUploadedTexture = false;
+
+    // Shared by every full-screen pass, including the GPU processing path
+    static class QuadProgram {
+        int program;
+        int positionHandle;
+        int texCoordHandle;
+        int mvpMatrixHandle;
+        int texMatrixHandle;
+        int textureHandle;
+    }
 
     public OpenGLRenderer() {
         // Initialize vertex buffer
@@ -81,27 +161,71 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
         // Set background color to dark blue for visibility
         GLES20.glClearColor(0.0f, 0.0f, 0.5f, 1.0f);
         
-        // Create shader program
-        shaderProgram = createShaderProgram();
+        // Create shader programs; programs of a previous context are gone.
+        // Where the driver allows, they come from binaries stored by an
+        // earlier context instead of being compiled
+        long shaderStart = System.nanoTime();
+        shaderCache.invalidate();
+        shaderCache.setBinaryCache(ProgramBinaryCache.open(programBinaryDirectory));
+        cameraProgram = shaderCache.get(FRAGMENT_SHADER_CODE);
+        textureProgram = shaderCache.get(FRAGMENT_SHADER_2D_CODE);
+        grayTextureProgram = shaderCache.get(FRAGMENT_SHADER_GRAY_CODE);
+        Log.d(TAG, String.format(Locale.US, "Display programs ready in %.2f ms; %s",
+                (System.nanoTime() - shaderStart) / 1_000_000.0, shaderCache.describeStats()));
         
-        // Get handles
-        positionHandle = GLES20.glGetAttribLocation(shaderProgram, "vPosition");
-        texCoordHandle = GLES20.glGetAttribLocation(shaderProgram, "vTexCoord");
-        mvpMatrixHandle = GLES20.glGetUniformLocation(shaderProgram, "uMVPMatrix");
-        texMatrixHandle = GLES20.glGetUniformLocation(shaderProgram, "uTexMatrix");
-        textureHandle = GLES20.glGetUniformLocation(shaderProgram, "uTexture");
+        GLES20.glGenBuffers(1, quadBuffer, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, quadBuffer[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, QUAD_VERTICES.length * 4, vertexBuffer, GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        
+        // GL objects from a previous context are gone
+        textureInitialized = false;
+        readbackWidth = 0;
+        readbackHeight = 0;
+        gpuProcessor.invalidate();
+        asyncReadback.invalidate();
+        overlayRenderer.invalidate();
+        useGpuOutput = false;
+        uploadBufferSize = 0;
+        uploadMapped = false;
+        pboUploadSupported = isGles3(GLES20.glGetString(GLES20.GL_VERSION));
+        asyncReadbackSupported = pboUploadSupported;
+        Log.d(TAG, "Texture upload path: " + (pboUploadSupported ? "GLES3 pixel buffers" : "GLES2 glTexSubImage2D"));
+        
+        // The old uploader shares a context that no longer exists
+        releaseTextureUploader();
+        useUploadedTexture = false;
+        if (pboUploadSupported) {
+            textureUploader = new TextureUploader(EGL14.eglGetCurrentContext());
+        }
         
         // Initialize matrices
         Matrix.setIdentityM(mvpMatrix, 0);
         Matrix.setIdentityM(texMatrix, 0);
+        Matrix.setIdentityM(identityMatrix, 0);
         
         Log.d(TAG, "OpenGL renderer initialized successfully");
     }
 
+    /**
+     * App-private directory for linked program binaries; set before the
+     * surface is created. Without one every context compiles from source.
+     */
+    public void setProgramBinaryDirectory(File directory) {
+        this.programBinaryDirectory = directory;
+    }
+
+    /** Receives a callback after every draw, for latency and pacing counters. */
+    public void setFramePacer(FramePacer pacer) {
+        this.framePacer = pacer;
+    }
+
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         Log.d(TAG, "Surface changed: " + width + "x" + height);
         GLES20.glViewport(0, 0, width, height);
+        surfaceWidth = width;
+        surfaceHeight = height;
         
         // Calculate aspect ratio and set up proper MVP matrix
         float aspectRatio = (float) width / height;
@@ -122,52 +246,223 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
     public void onDrawFrame(GL10 gl) {
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
         
+        TextureUploader uploader = textureUploader;
+        if (uploader != null && uploader.latchLatest()) {
+            useUploadedTexture = true;
+            useCameraTexture = false;
+            useGpuOutput = false;
+        }
+        
+        if (useCameraTexture && cameraTextureId != -1) {
+            if (TRACE) Log.d(TAG, "Drawing camera texture: " + cameraTextureId);
+            drawQuad(cameraProgram, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, cameraTextureId, mvpMatrix, texMatrix);
+        } else if (useGpuOutput) {
+            // GPU results are rendered already oriented, like read back frames
+            drawQuad(textureProgram, GLES20.GL_TEXTURE_2D, gpuOutputTexture, mvpMatrix, identityMatrix);
+        } else if (useUploadedTexture && uploader != null) {
+            drawQuad(uploader.getDisplayedChannels() == 1 ? grayTextureProgram : textureProgram,
+                     GLES20.GL_TEXTURE_2D, uploader.getDisplayedTexture(), mvpMatrix, identityMatrix);
+        } else if (textureInitialized) {
+            // Processed frames are read back already oriented, so no texture transform
+            if (TRACE) Log.d(TAG, "Drawing processed texture");
+            drawQuad(frameChannels == 1 ? grayTextureProgram : textureProgram,
+                     GLES20.GL_TEXTURE_2D, textures[0], mvpMatrix, identityMatrix);
+        } else {
+            if (TRACE) Log.d(TAG, "No texture to draw");
+        }
+        overlayRenderer.draw(mvpMatrix);
+        
+        if (framePacer != null) {
+            framePacer.onFrameDrawn();
+        }
+    }
+
+    void drawQuad(QuadProgram quadProgram, int textureTarget, int textureId,
+                          float[] mvp, float[] texTransform) {
         // Use shader program
-        GLES20.glUseProgram(shaderProgram);
+        GLES20.glUseProgram(quadProgram.program);
         
-        // Set vertex attributes (position: x,y,z)
-        vertexBuffer.position(0);
-        GLES20.glVertexAttribPointer(positionHandle, 3, GLES20.GL_FLOAT, false, 5 * 4, vertexBuffer);
-        GLES20.glEnableVertexAttribArray(positionHandle);
+        // Set vertex attributes (position: x,y,z) from the quad buffer
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, quadBuffer[0]);
+        GLES20.glVertexAttribPointer(quadProgram.positionHandle, 3, GLES20.GL_FLOAT, false, 5 * 4, 0);
+        GLES20.glEnableVertexAttribArray(quadProgram.positionHandle);
         
         // Set texture coordinates (u,v) - offset by 3 floats
-        vertexBuffer.position(3);
-        GLES20.glVertexAttribPointer(texCoordHandle, 2, GLES20.GL_FLOAT, false, 5 * 4, vertexBuffer);
-        GLES20.glEnableVertexAttribArray(texCoordHandle);
-        
-        // Reset vertex buffer position for next frame
-        vertexBuffer.position(0);
+        GLES20.glVertexAttribPointer(quadProgram.texCoordHandle, 2, GLES20.GL_FLOAT, false, 5 * 4, 3 * 4);
+        GLES20.glEnableVertexAttribArray(quadProgram.texCoordHandle);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
         
         // Set uniforms
-        GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
-        GLES20.glUniformMatrix4fv(texMatrixHandle, 1, false, texMatrix, 0);
-        GLES20.glUniform1i(textureHandle, 0);
+        GLES20.glUniformMatrix4fv(quadProgram.mvpMatrixHandle, 1, false, mvp, 0);
+        GLES20.glUniformMatrix4fv(quadProgram.texMatrixHandle, 1, false, texTransform, 0);
+        GLES20.glUniform1i(quadProgram.textureHandle, 0);
         
         // Bind texture
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        if (useCameraTexture && cameraTextureId != -1) {
-            GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, cameraTextureId);
-            Log.d(TAG, "Drawing camera texture: " + cameraTextureId);
-        } else if (textureInitialized) {
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
-            Log.d(TAG, "Drawing test pattern texture");
-        } else {
-            Log.d(TAG, "No texture to draw");
-            GLES20.glDisableVertexAttribArray(positionHandle);
-            GLES20.glDisableVertexAttribArray(texCoordHandle);
-            return;
-        }
+        GLES20.glBindTexture(textureTarget, textureId);
         
         // Draw quad
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
         
         // Disable vertex attributes
-        GLES20.glDisableVertexAttribArray(positionHandle);
-        GLES20.glDisableVertexAttribArray(texCoordHandle);
+        GLES20.glDisableVertexAttribArray(quadProgram.positionHandle);
+        GLES20.glDisableVertexAttribArray(quadProgram.texCoordHandle);
+    }
+
+    /**
+     * Renders the current camera texture into an offscreen RGBA target and reads
+     * it back into {@code dst} (tightly packed, width * 4 bytes per row).
+     * Must be called on the GL thread after updateTexImage().
+     */
+    public boolean readCameraFrame(ByteBuffer dst, int width, int height) {
+        if (cameraTextureId == -1 || dst == null || dst.capacity() < width * height * 4) {
+            return false;
+        }
+        
+        if (readbackWidth != width || readbackHeight != height) {
+            initializeReadbackTarget(width, height);
+        }
+        
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, readbackFramebuffer[0]);
+        GLES20.glViewport(0, 0, width, height);
+        drawQuad(cameraProgram, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, cameraTextureId, identityMatrix, texMatrix);
+        
+        dst.position(0);
+        GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, dst);
+        
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(0, 0, surfaceWidth, surfaceHeight);
+        return true;
+    }
+
+    /** True once a GLES3 context is up; see {@link #readCameraFrameAsync}. */
+    public boolean isAsyncReadbackSupported() {
+        return asyncReadbackSupported;
+    }
+
+    /**
+     * Starts reading the current camera frame back at width x height (the
+     * GPU does the downscale) without waiting for it. The pixels arrive
+     * through {@link #pollCameraReadback} on a later frame. GLES3 only; must
+     * be called on the GL thread after updateTexImage().
+     */
+    public boolean readCameraFrameAsync(int width, int height, long frameStartNanos) {
+        if (!asyncReadbackSupported || cameraTextureId == -1 || width <= 0 || height <= 0) {
+            return false;
+        }
+        asyncReadback.issue(cameraTextureId, texMatrix, width, height, frameStartNanos);
+        GLES20.glViewport(0, 0, surfaceWidth, surfaceHeight);
+        return true;
+    }
+
+    /** Delivers finished async readbacks to consumer; never waits on the GPU. */
+    public int pollCameraReadback(AsyncReadback.Consumer consumer) {
+        return asyncReadbackSupported ? asyncReadback.poll(consumer) : 0;
+    }
+
+    public AsyncReadback getAsyncReadback() {
+        return asyncReadback;
+    }
+
+    public OverlayRenderer getOverlayRenderer() {
+        return overlayRenderer;
+    }
+
+    /**
+     * Uploader for processed frames running beside the GL thread, or null on
+     * GLES2 and before the surface exists. Frames it uploads are drawn by the
+     * next onDrawFrame().
+     */
+    public TextureUploader getTextureUploader() {
+        TextureUploader uploader = textureUploader;
+        return uploader != null && uploader.isReady() ? uploader : null;
+    }
+
+    /** Stops the upload thread; a new one is started with the next surface. */
+    public void releaseTextureUploader() {
+        TextureUploader uploader = textureUploader;
+        textureUploader = null;
+        if (uploader != null) {
+            uploader.release();
+        }
+    }
+
+    QuadProgram getCameraProgram() {
+        return cameraProgram;
+    }
+
+    /**
+     * Runs a processing mode on the current camera texture with shaders, at
+     * width x height, and shows the result. Returns false when the mode has no
+     * GPU work (original), in which case the camera texture should be shown.
+     * Must be called on the GL thread after updateTexImage().
+     */
+    public boolean processCameraFrameOnGpu(int mode, int width, int height) {
+        if (cameraTextureId == -1) {
+            return false;
+        }
+        int output = gpuProcessor.process(mode, cameraTextureId, texMatrix, width, height);
+        GLES20.glViewport(0, 0, surfaceWidth, surfaceHeight);
+        if (output == 0) {
+            return false;
+        }
+        gpuOutputTexture = output;
+        useGpuOutput = true;
+        useCameraTexture = false;
+        useUploadedTexture = false;
+        return true;
+    }
+
+    /** Reads the last GPU result back (tightly packed RGBA); for verification only. */
+    public boolean readGpuOutput(ByteBuffer dst) {
+        return gpuProcessor.readOutput(dst);
+    }
+
+    public void setGpuEdgeThreshold(float threshold) {
+        gpuProcessor.setEdgeThreshold(threshold);
+    }
+
+    /** GPU edge mode: draw edges over the camera picture rather than on black. */
+    public void setGpuEdgeOverlay(boolean enabled) {
+        gpuProcessor.setEdgeOverlay(enabled);
+    }
+
+    ShaderCache getShaderCache() {
+        return shaderCache;
+    }
+
+    private void initializeReadbackTarget(int width, int height) {
+        if (readbackWidth != 0) {
+            GLES20.glDeleteFramebuffers(1, readbackFramebuffer, 0);
+            GLES20.glDeleteTextures(1, readbackTexture, 0);
+        }
+        
+        GLES20.glGenTextures(1, readbackTexture, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, readbackTexture[0]);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                           GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        
+        GLES20.glGenFramebuffers(1, readbackFramebuffer, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, readbackFramebuffer[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                                      GLES20.GL_TEXTURE_2D, readbackTexture[0], 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "Readback framebuffer incomplete: " + status);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        
+        readbackWidth = width;
+        readbackHeight = height;
+        Log.d(TAG, "Readback target initialized: " + width + "x" + height);
     }
 
     public void updateTexture(int[] pixelData, int width, int height) {
-        Log.d(TAG, "updateTexture called: " + width + "x" + height + ", data length: " + (pixelData != null ? pixelData.length : "null"));
+        if (TRACE) Log.d(TAG, "updateTexture called: " + width + "x" + height + ", data length: " + (pixelData != null ? pixelData.length : "null"));
         
         if (width <= 0 || height <= 0 || pixelData == null) {
             Log.w(TAG, "updateTexture: invalid parameters");
@@ -176,14 +471,11 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
         
         // Disable camera texture mode
         useCameraTexture = false;
+        useGpuOutput = false;
+        useUploadedTexture = false;
         
         // Initialize texture if needed
-        if (!textureInitialized || frameWidth != width || frameHeight != height) {
-            Log.d(TAG, "Initializing texture: " + width + "x" + height);
-            initializeTexture(width, height);
-            frameWidth = width;
-            frameHeight = height;
-        }
+        ensureTexture(width, height, 4);
         
         // Update texture data
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
@@ -193,6 +485,144 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
         
         Log.d(TAG, "Test pattern texture updated successfully");
     }
+
+    /**
+     * Uploads a tightly packed RGBA frame from a direct buffer, e.g. the output
+     * of {@link OpenCVProcessor#processFrame(ByteBuffer, ByteBuffer, int, int, int)}.
+     */
+    public void updateTexture(ByteBuffer pixelData, int width, int height) {
+        updateTexture(pixelData, width, height, 4);
+    }
+
+    /**
+     * Uploads a tightly packed frame with 1 (gray, as GL_LUMINANCE) or 4
+     * (RGBA) bytes per pixel from a direct buffer.
+     */
+    public void updateTexture(ByteBuffer pixelData, int width, int height, int channels) {
+        if (width <= 0 || height <= 0 || pixelData == null || (channels != 1 && channels != 4)
+                || pixelData.capacity() < width * height * channels) {
+            Log.w(TAG, "updateTexture: invalid parameters");
+            return;
+        }
+        
+        useCameraTexture = false;
+        useGpuOutput = false;
+        useUploadedTexture = false;
+        ensureTexture(width, height, channels);
+        
+        pixelData.position(0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+        uploadPixels(width, height, channels, pixelData);
+    }
+
+    private void uploadPixels(int width, int height, int channels, ByteBuffer pixelData) {
+        if (channels == 1) {
+            // Gray rows are width bytes, not necessarily 4-aligned
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+            if (pixelData != null) {
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                                      GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, pixelData);
+            } else {
+                GLES30.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                                       GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, 0);
+            }
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        } else if (pixelData != null) {
+            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                                  GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixelData);
+        } else {
+            GLES30.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height,
+                                   GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        }
+    }
+    
+    /**
+     * Starts an upload through the GLES3 pixel buffer ring: returns mapped
+     * memory for a tightly packed frame of width x height with 1 (gray) or 4
+     * (RGBA) bytes per pixel, which the caller fills (e.g. natively) before
+     * calling {@link #endTextureUpload}. Returns null on GLES2 contexts or if
+     * mapping fails, in which case
+     * {@link #updateTexture(ByteBuffer, int, int, int)} is the fallback.
+     */
+    public ByteBuffer beginTextureUpload(int width, int height, int channels) {
+        if (!pboUploadSupported || uploadMapped || width <= 0 || height <= 0
+                || (channels != 1 && channels != 4)) {
+            return null;
+        }
+        // Texture storage is (re)allocated before a buffer is bound, otherwise
+        // glTexImage2D would source from it
+        ensureTexture(width, height, channels);
+        
+        int size = width * height * channels;
+        if (size > uploadBufferSize) {
+            initializeUploadBuffers(size);
+        }
+        uploadBufferIndex = (uploadBufferIndex + 1) % UPLOAD_BUFFER_COUNT;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, uploadBuffers[uploadBufferIndex]);
+        // Invalidating lets the driver hand out fresh memory instead of
+        // syncing with an upload that may still read this buffer
+        ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_UNPACK_BUFFER, 0, size,
+                GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (mapped == null) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+            Log.w(TAG, "glMapBufferRange failed (0x" + Integer.toHexString(GLES20.glGetError())
+                    + "), falling back to glTexSubImage2D uploads");
+            pboUploadSupported = false;
+            return null;
+        }
+        
+        mappedUploadWidth = width;
+        mappedUploadHeight = height;
+        mappedUploadChannels = channels;
+        uploadMapped = true;
+        return mapped;
+    }
+
+    /**
+     * Finishes an upload started by {@link #beginTextureUpload}. The copy into
+     * the texture is queued, not waited for. Pass {@code written = false} if the
+     * mapped memory could not be filled; the texture is then left unchanged.
+     */
+    public void endTextureUpload(boolean written) {
+        if (!uploadMapped) {
+            return;
+        }
+        uploadMapped = false;
+        
+        // Unmap can report the contents were lost (e.g. display mode change)
+        boolean intact = GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+        if (written && intact) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+            // No client pointer: sources from the bound unpack buffer
+            uploadPixels(mappedUploadWidth, mappedUploadHeight, mappedUploadChannels, null);
+            useCameraTexture = false;
+            useGpuOutput = false;
+            useUploadedTexture = false;
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+    }
+
+    private void initializeUploadBuffers(int size) {
+        if (uploadBufferSize != 0) {
+            GLES20.glDeleteBuffers(UPLOAD_BUFFER_COUNT, uploadBuffers, 0);
+        }
+        GLES20.glGenBuffers(UPLOAD_BUFFER_COUNT, uploadBuffers, 0);
+        for (int buffer : uploadBuffers) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, buffer);
+            GLES30.glBufferData(GLES30.GL_PIXEL_UNPACK_BUFFER, size, null, GLES30.GL_STREAM_DRAW);
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+        uploadBufferSize = size;
+        Log.d(TAG, "Upload buffers initialized: " + UPLOAD_BUFFER_COUNT + " x " + size + " bytes");
+    }
+
+    static boolean isGles3(String version) {
+        // "OpenGL ES 3.2 ..." - the context factory falls back to 2.0 if 3 is unavailable
+        String prefix = "OpenGL ES ";
+        return version != null && version.startsWith(prefix) && version.length() > prefix.length()
+                && Character.isDigit(version.charAt(prefix.length()))
+                && version.charAt(prefix.length()) >= '3';
+    }
     
     public void setCameraTexture(int textureId) {
         this.cameraTextureId = textureId;
@@ -205,15 +635,29 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
     
     public void enableCameraTexture() {
         useCameraTexture = true;
-        Log.d(TAG, "Camera texture mode enabled");
+        if (TRACE) Log.d(TAG, "Camera texture mode enabled");
     }
     
     public void disableCameraTexture() {
         useCameraTexture = false;
-        Log.d(TAG, "Camera texture mode disabled");
+        if (TRACE) Log.d(TAG, "Camera texture mode disabled");
+    }
+
+    private void ensureTexture(int width, int height, int channels) {
+        if (!textureInitialized || frameWidth != width || frameHeight != height || frameChannels != channels) {
+            Log.d(TAG, "Initializing texture: " + width + "x" + height + ", " + channels + " channel(s)");
+            initializeTexture(width, height, channels);
+            frameWidth = width;
+            frameHeight = height;
+            frameChannels = channels;
+        }
     }
 
-    private void initializeTexture(int width, int height) {
+    private void initializeTexture(int width, int height, int channels) {
+        if (textureInitialized) {
+            GLES20.glDeleteTextures(1, textures, 0);
+        }
+        
         // Generate texture
         GLES20.glGenTextures(1, textures, 0);
         GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
@@ -224,22 +668,55 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
         
-        // Allocate texture storage
-        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, 
-                           GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        // Allocate texture storage; gray frames take a quarter of the memory
+        int format = channels == 1 ? GLES20.GL_LUMINANCE : GLES20.GL_RGBA;
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                           format, GLES20.GL_UNSIGNED_BYTE, null);
         
         textureInitialized = true;
         Log.d(TAG, "Test pattern texture initialized: " + width + "x" + height);
     }
 
-    private int createShaderProgram() {
-        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_CODE);
-        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_CODE);
+    static QuadProgram createQuadProgram(String fragmentShaderCode) {
+        return bindQuadProgram(createShaderProgram(fragmentShaderCode, false));
+    }
+
+    /** Looks up the quad attribute and uniform handles of a linked program. */
+    static QuadProgram bindQuadProgram(int program) {
+        QuadProgram quadProgram = new QuadProgram();
+        quadProgram.program = program;
+        
+        // Get handles
+        quadProgram.positionHandle = GLES20.glGetAttribLocation(quadProgram.program, "vPosition");
+        quadProgram.texCoordHandle = GLES20.glGetAttribLocation(quadProgram.program, "vTexCoord");
+        quadProgram.mvpMatrixHandle = GLES20.glGetUniformLocation(quadProgram.program, "uMVPMatrix");
+        quadProgram.texMatrixHandle = GLES20.glGetUniformLocation(quadProgram.program, "uTexMatrix");
+        quadProgram.textureHandle = GLES20.glGetUniformLocation(quadProgram.program, "uTexture");
+        return quadProgram;
+    }
+
+    /**
+     * Compiles and links the quad vertex shader with fragmentShaderCode.
+     * retrievable asks a GLES3 driver to keep the binary for glGetProgramBinary.
+     */
+    static int createShaderProgram(String fragmentShaderCode, boolean retrievable) {
+        return linkProgram(VERTEX_SHADER_CODE, fragmentShaderCode, retrievable);
+    }
+
+    static int linkProgram(String vertexShaderCode, String fragmentShaderCode, boolean retrievable) {
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderCode);
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
         
         int program = GLES20.glCreateProgram();
         GLES20.glAttachShader(program, vertexShader);
         GLES20.glAttachShader(program, fragmentShader);
+        if (retrievable) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
         GLES20.glLinkProgram(program);
+        // The program keeps what it needs; the shader objects can go
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
         
         // Check linking status
         int[] linkStatus = new int[1];
@@ -254,7 +731,7 @@ public class OpenGLRenderer implements GLSurfaceView.Renderer {
         return program;
     }
 
-    private int loadShader(int type, String shaderCode) {
+    private static int loadShader(int type, String shaderCode) {
         int shader = GLES20.glCreateShader(type);
         GLES20.glShaderSource(shader, shaderCode);
         GLES20.glCompileShader(shader);
@@ -0,0 +1,256 @@
+package com.example.opencvopenglapp;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Vector overlays (detection boxes, contours, keypoints) drawn over the
+ * displayed frame. Primitives are collected into a batch by a producer thread
+ * between {@link #beginFrame()} and {@link #endFrame()}; the GL thread packs
+ * the newest finished batch into one dynamic vertex buffer and draws every
+ * line in one call and every point in another, however many primitives there
+ * are.
+ *
+ * Coordinates are normalised to the processed frame: (0, 0) is its first
+ * pixel and (1, 1) the far corner, so pixel positions from OpenCV are divided
+ * by the frame's width and height. Colors are ARGB ints.
+ *
+ * One producer at a time; the batch arrays only grow, so steady-state frames
+ * allocate nothing.
+ */
+public class OverlayRenderer {
+    private static final String VERTEX_SHADER_CODE =
+            "attribute vec2 vPosition;" +
+            "attribute vec4 vColor;" +
+            "uniform mat4 uMVPMatrix;" +
+            "uniform float uPointSize;" +
+            "varying vec4 color;" +
+            "void main() {" +
+            "  gl_Position = uMVPMatrix * vec4(vPosition * 2.0 - 1.0, 0.0, 1.0);" +
+            "  gl_PointSize = uPointSize;" +
+            "  color = vColor;" +
+            "}";
+
+    private static final String FRAGMENT_SHADER_CODE =
+            "precision mediump float;" +
+            "varying vec4 color;" +
+            "void main() {" +
+            "  gl_FragColor = color;" +
+            "}";
+
+    // x, y, r, g, b, a
+    private static final int FLOATS_PER_VERTEX = 6;
+    private static final int STRIDE = FLOATS_PER_VERTEX * 4;
+
+    private static class Batch {
+        float[] lines = new float[1024 * FLOATS_PER_VERTEX];
+        float[] points = new float[256 * FLOATS_PER_VERTEX];
+        int lineVertices;
+        int pointVertices;
+
+        void clear() {
+            lineVertices = 0;
+            pointVertices = 0;
+        }
+    }
+
+    // Producer fills building; endFrame() swaps it with published
+    private Batch building = new Batch();
+    private Batch published = new Batch();
+    private boolean dirty = false;
+
+    // GL thread
+    private int program;
+    private int positionHandle;
+    private int colorHandle;
+    private int mvpMatrixHandle;
+    private int pointSizeHandle;
+    private final int[] vertexBuffer = new int[1];
+    private int vertexBufferBytes = 0;
+    private FloatBuffer staging;
+    private int lineVertices = 0;
+    private int pointVertices = 0;
+    private float lineWidth = 3.0f;
+    private float pointSize = 6.0f;
+
+    /** Starts a new set of overlays; the previous set stays on screen until endFrame(). */
+    public void beginFrame() {
+        building.clear();
+    }
+
+    /** Publishes the overlays added since beginFrame() for the next draw. */
+    public void endFrame() {
+        synchronized (this) {
+            Batch finished = building;
+            building = published;
+            published = finished;
+            dirty = true;
+        }
+    }
+
+    /** Removes all overlays from the next draw. */
+    public void clear() {
+        beginFrame();
+        endFrame();
+    }
+
+    public void addRect(float left, float top, float right, float bottom, int color) {
+        addLine(left, top, right, top, color);
+        addLine(right, top, right, bottom, color);
+        addLine(right, bottom, left, bottom, color);
+        addLine(left, bottom, left, top, color);
+    }
+
+    /** Adds count rectangles packed as left, top, right, bottom. */
+    public void addRects(float[] rects, int count, int color) {
+        for (int i = 0; i < count; i++) {
+            int offset = i * 4;
+            addRect(rects[offset], rects[offset + 1], rects[offset + 2], rects[offset + 3], color);
+        }
+    }
+
+    /** Adds a polyline through pointCount points packed as x, y. */
+    public void addPolyline(float[] xy, int pointCount, boolean closed, int color) {
+        for (int i = 1; i < pointCount; i++) {
+            addLine(xy[2 * i - 2], xy[2 * i - 1], xy[2 * i], xy[2 * i + 1], color);
+        }
+        if (closed && pointCount > 2) {
+            addLine(xy[2 * pointCount - 2], xy[2 * pointCount - 1], xy[0], xy[1], color);
+        }
+    }
+
+    /** Adds count points packed as x, y. */
+    public void addPoints(float[] xy, int count, int color) {
+        Batch batch = building;
+        batch.points = ensureCapacity(batch.points, (batch.pointVertices + count) * FLOATS_PER_VERTEX);
+        for (int i = 0; i < count; i++) {
+            putVertex(batch.points, batch.pointVertices++, xy[2 * i], xy[2 * i + 1], color);
+        }
+    }
+
+    public void addLine(float x0, float y0, float x1, float y1, int color) {
+        Batch batch = building;
+        batch.lines = ensureCapacity(batch.lines, (batch.lineVertices + 2) * FLOATS_PER_VERTEX);
+        putVertex(batch.lines, batch.lineVertices++, x0, y0, color);
+        putVertex(batch.lines, batch.lineVertices++, x1, y1, color);
+    }
+
+    public void setLineWidth(float width) {
+        lineWidth = width;
+    }
+
+    public void setPointSize(float size) {
+        pointSize = size;
+    }
+
+    /** Forgets GL objects after the context was lost; they are rebuilt on demand. */
+    void invalidate() {
+        program = 0;
+        vertexBufferBytes = 0;
+        synchronized (this) {
+            // Re-upload the current overlays into the new context
+            dirty = true;
+        }
+    }
+
+    /**
+     * Draws the latest published overlays with the frame's MVP matrix. GL
+     * thread only; call after the frame itself has been drawn.
+     */
+    void draw(float[] mvp) {
+        if (program == 0) {
+            createProgram();
+        }
+        synchronized (this) {
+            if (dirty) {
+                upload(published);
+                dirty = false;
+            }
+        }
+        if (lineVertices == 0 && pointVertices == 0) {
+            return;
+        }
+
+        GLES20.glUseProgram(program);
+        GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvp, 0);
+        GLES20.glUniform1f(pointSizeHandle, pointSize);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffer[0]);
+        GLES20.glVertexAttribPointer(positionHandle, 2, GLES20.GL_FLOAT, false, STRIDE, 0);
+        GLES20.glVertexAttribPointer(colorHandle, 4, GLES20.GL_FLOAT, false, STRIDE, 2 * 4);
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glEnableVertexAttribArray(colorHandle);
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+
+        // Lines sit at the start of the buffer, points right after them
+        if (lineVertices > 0) {
+            GLES20.glLineWidth(lineWidth);
+            GLES20.glDrawArrays(GLES20.GL_LINES, 0, lineVertices);
+        }
+        if (pointVertices > 0) {
+            GLES20.glDrawArrays(GLES20.GL_POINTS, lineVertices, pointVertices);
+        }
+
+        GLES20.glDisable(GLES20.GL_BLEND);
+        GLES20.glDisableVertexAttribArray(positionHandle);
+        GLES20.glDisableVertexAttribArray(colorHandle);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    private void upload(Batch batch) {
+        lineVertices = batch.lineVertices;
+        pointVertices = batch.pointVertices;
+        int floats = (lineVertices + pointVertices) * FLOATS_PER_VERTEX;
+        if (floats == 0) {
+            return;
+        }
+        if (staging == null || staging.capacity() < floats) {
+            staging = ByteBuffer.allocateDirect(floats * 2 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+        staging.clear();
+        staging.put(batch.lines, 0, lineVertices * FLOATS_PER_VERTEX);
+        staging.put(batch.points, 0, pointVertices * FLOATS_PER_VERTEX);
+        staging.position(0);
+
+        int bytes = floats * 4;
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBuffer[0]);
+        if (bytes > vertexBufferBytes) {
+            vertexBufferBytes = staging.capacity() * 4;
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexBufferBytes, null, GLES20.GL_DYNAMIC_DRAW);
+        }
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, bytes, staging);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    private void createProgram() {
+        program = OpenGLRenderer.linkProgram(VERTEX_SHADER_CODE, FRAGMENT_SHADER_CODE, false);
+        positionHandle = GLES20.glGetAttribLocation(program, "vPosition");
+        colorHandle = GLES20.glGetAttribLocation(program, "vColor");
+        mvpMatrixHandle = GLES20.glGetUniformLocation(program, "uMVPMatrix");
+        pointSizeHandle = GLES20.glGetUniformLocation(program, "uPointSize");
+        GLES20.glGenBuffers(1, vertexBuffer, 0);
+        vertexBufferBytes = 0;
+    }
+
+    private static void putVertex(float[] data, int vertex, float x, float y, int color) {
+        int offset = vertex * FLOATS_PER_VERTEX;
+        data[offset] = x;
+        data[offset + 1] = y;
+        data[offset + 2] = ((color >> 16) & 0xFF) / 255.0f;
+        data[offset + 3] = ((color >> 8) & 0xFF) / 255.0f;
+        data[offset + 4] = (color & 0xFF) / 255.0f;
+        data[offset + 5] = ((color >>> 24) & 0xFF) / 255.0f;
+    }
+
+    private static float[] ensureCapacity(float[] data, int floats) {
+        if (floats <= data.length) {
+            return data;
+        }
+        float[] grown = new float[Math.max(floats, data.length * 2)];
+        System.arraycopy(data, 0, grown, 0, data.length);
+        return grown;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.opencvopenglapp;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+public class PipelineTimings {
+    private static final String TAG = "PipelineTimings";
+
+    public static final int STAGE_READBACK = 0; // GPU camera texture -> CPU buffer
+    public static final int STAGE_PROCESS = 1;  // native FrameProcessor (async: submit to result)
+    public static final int STAGE_UPLOAD = 2;   // CPU buffer -> GL texture
+    public static final int STAGE_TOTAL = 3;    // updateTexImage to upload of that frame's result
+    public static final int STAGE_DISPLAY = 4;  // updateTexImage to the draw that shows the frame
+    public static final int STAGE_COUNT = 5;
+
+    private static final String[] STAGE_NAMES = {"readback", "process", "upload", "total", "display"};
+
+    // Accumulated over the current window, published by snapshot()
+    private final long[] windowSumNanos = new long[STAGE_COUNT];
+    private final long[] windowMaxNanos = new long[STAGE_COUNT];
+    private final int[] windowSamples = new int[STAGE_COUNT];
+
+    // Averages of the last completed window
+    private final double[] averageMillis = new double[STAGE_COUNT];
+    private final double[] maxMillis = new double[STAGE_COUNT];
+    private int processingMode = 0;
+
+    public synchronized void record(int stage, long nanos) {
+        windowSumNanos[stage] += nanos;
+        windowSamples[stage]++;
+        if (nanos > windowMaxNanos[stage]) {
+            windowMaxNanos[stage] = nanos;
+        }
+    }
+
+    public synchronized void setProcessingMode(int mode) {
+        if (mode != processingMode) {
+            // Don't let the previous mode's cost leak into the new mode's numbers
+            clearWindow();
+            processingMode = mode;
+        }
+    }
+
+    /**
+     * Closes the current measurement window and publishes its averages.
+     * Called once per FPS update so stage times line up with the reported FPS.
+     */
+    public synchronized void snapshot() {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            int samples = windowSamples[stage];
+            averageMillis[stage] = samples > 0 ? windowSumNanos[stage] / (samples * 1_000_000.0) : 0.0;
+            maxMillis[stage] = windowMaxNanos[stage] / 1_000_000.0;
+        }
+        if (windowSamples[STAGE_TOTAL] > 0) {
+            Log.d(TAG, toString());
+        }
+        clearWindow();
+    }
+
+    public synchronized double getAverageMillis(int stage) {
+        return averageMillis[stage];
+    }
+
+    public synchronized double getMaxMillis(int stage) {
+        return maxMillis[stage];
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    private void clearWindow() {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            windowSumNanos[stage] = 0;
+            windowMaxNanos[stage] = 0;
+            windowSamples[stage] = 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("mode ").append(processingMode);
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            sb.append(String.format(Locale.US, ", %s %.2f/%.2f ms",
+                    STAGE_NAMES[stage], averageMillis[stage], maxMillis[stage]));
+        }
+        return sb.toString();
+    }
+}
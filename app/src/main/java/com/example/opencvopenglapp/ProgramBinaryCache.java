@@ -0,0 +1,185 @@
+package com.example.opencvopenglapp;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Linked programs persisted with glGetProgramBinary, so later contexts skip
+ * compiling and linking from source. Binaries live in one directory per
+ * driver (vendor, renderer and version string); a driver update therefore
+ * starts a fresh directory and the old one is deleted. Within it each file is
+ * named after a hash of the program's sources. Anything that fails to load
+ * is deleted and the caller compiles from source. GLES3 contexts only; GL
+ * thread only.
+ */
+public class ProgramBinaryCache {
+    private static final String TAG = "ProgramBinaryCache";
+
+    private static final int FILE_MAGIC = 0x50424331; // "PBC1"
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File rootDirectory;
+    private File directory;
+
+    private ProgramBinaryCache(File rootDirectory) {
+        this.rootDirectory = rootDirectory;
+    }
+
+    /**
+     * Opens the cache for the current context's driver under rootDirectory,
+     * or returns null where program binaries aren't available.
+     */
+    static ProgramBinaryCache open(File rootDirectory) {
+        if (rootDirectory == null || !OpenGLRenderer.isGles3(GLES20.glGetString(GLES20.GL_VERSION))) {
+            return null;
+        }
+        int[] formats = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        if (formats[0] <= 0) {
+            Log.d(TAG, "Driver supports no program binary formats");
+            return null;
+        }
+
+        String driver = GLES20.glGetString(GLES20.GL_VENDOR) + "|" + GLES20.glGetString(GLES20.GL_RENDERER)
+                + "|" + GLES20.glGetString(GLES20.GL_VERSION);
+        ProgramBinaryCache cache = new ProgramBinaryCache(rootDirectory);
+        cache.directory = new File(rootDirectory, hash(driver));
+        if (!cache.directory.isDirectory() && !cache.directory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + cache.directory);
+            return null;
+        }
+        cache.deleteStaleDrivers();
+        return cache;
+    }
+
+    /** Returns a linked program for the sources, or 0 if none was stored or it no longer loads. */
+    int load(String vertexSource, String fragmentSource) {
+        File file = fileFor(vertexSource, fragmentSource);
+        if (!file.isFile()) {
+            return 0;
+        }
+        int program = 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("bad header");
+            }
+            int format = in.readInt();
+            int length = in.readInt();
+            if (length <= 0 || length > file.length()) {
+                throw new IOException("bad length " + length);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+            binary.put(bytes).position(0);
+
+            program = GLES20.glCreateProgram();
+            GLES30.glProgramBinary(program, format, binary, length);
+            int[] linkStatus = new int[1];
+            GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+            if (linkStatus[0] != GLES20.GL_TRUE) {
+                // The driver may reject binaries it produced itself, e.g. after an update
+                throw new IOException("binary rejected by the driver");
+            }
+            return program;
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding " + file.getName() + ": " + e.getMessage());
+            if (program != 0) {
+                GLES20.glDeleteProgram(program);
+            }
+            file.delete();
+            return 0;
+        }
+    }
+
+    /**
+     * Stores a program linked from the sources. The program should have been
+     * linked with GL_PROGRAM_BINARY_RETRIEVABLE_HINT set.
+     */
+    void store(String vertexSource, String fragmentSource, int program) {
+        int[] values = new int[2];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, values, 0);
+        int length = values[0];
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        GLES30.glGetProgramBinary(program, length, values, 0, values, 1, binary);
+        int written = values[0];
+        int format = values[1];
+        if (written <= 0) {
+            return;
+        }
+        byte[] bytes = new byte[written];
+        binary.position(0);
+        binary.get(bytes);
+
+        File file = fileFor(vertexSource, fragmentSource);
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temporary))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(format);
+            out.writeInt(written);
+            out.write(bytes);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot store program binary", e);
+            temporary.delete();
+            return;
+        }
+        // A reader never sees a partly written file
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+        }
+    }
+
+    private File fileFor(String vertexSource, String fragmentSource) {
+        return new File(directory, hash(vertexSource + "\n" + fragmentSource) + ".bin");
+    }
+
+    private void deleteStaleDrivers() {
+        File[] entries = rootDirectory.listFiles();
+        if (entries == null) {
+            return;
+        }
+        for (File entry : entries) {
+            if (entry.equals(directory)) {
+                continue;
+            }
+            File[] files = entry.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            entry.delete();
+            Log.d(TAG, "Deleted binaries of another driver: " + entry.getName());
+        }
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android runtime ships SHA-1
+            return Integer.toHexString(text.hashCode());
+        }
+    }
+}
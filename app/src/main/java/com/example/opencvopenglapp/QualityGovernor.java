@@ -0,0 +1,236 @@
+package com.example.opencvopenglapp;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Keeps per-frame processing cost inside a frame budget by stepping along a
+ * quality ladder: processing scale first, then filter kernel size, then the
+ * share of camera frames that get processed at all. Driven once per FPS window
+ * with that window's {@link PipelineTimings}; decisions are applied to the
+ * {@link CameraGLSurfaceView} and reported to an optional listener.
+ */
+public class QualityGovernor {
+    private static final String TAG = "QualityGovernor";
+
+    public static final float DEFAULT_BUDGET_MS = 33.3f; // 30 FPS
+
+    // Quality ladder, best first
+    private static final int[] LEVEL_SCALE = {
+            OpenCVProcessor.SCALE_FULL, OpenCVProcessor.SCALE_HALF, OpenCVProcessor.SCALE_HALF,
+            OpenCVProcessor.SCALE_QUARTER, OpenCVProcessor.SCALE_QUARTER, OpenCVProcessor.SCALE_QUARTER};
+    private static final int[] LEVEL_KERNEL = {0, 0, 1, 1, 2, 2};
+    private static final int[] LEVEL_FRAME_SKIP = {1, 1, 1, 1, 2, 3};
+    public static final int LEVEL_COUNT = LEVEL_SCALE.length;
+
+    // Load is per-frame cost over the time one processed frame may take
+    // (budget x frame skip). The gap between the two thresholds is the
+    // hysteresis band where the level is left alone.
+    private static final double DEGRADE_LOAD = 0.9;
+    private static final double UPGRADE_LOAD = 0.5;
+    private static final int DEGRADE_WINDOWS = 2;
+    // Upgrades wait this many calm windows; the wait doubles whenever an
+    // upgrade has to be taken back soon after, so the governor stops probing
+    // a level the device can't hold
+    private static final int MIN_UPGRADE_WINDOWS = 3;
+    private static final int MAX_UPGRADE_WINDOWS = 48;
+
+    public interface Listener {
+        void onLevelChanged(int previousLevel, int level, String reason);
+    }
+
+    private final CameraGLSurfaceView target;
+    private Listener listener;
+    private float budgetMillis = DEFAULT_BUDGET_MS;
+    private boolean enabled = true;
+
+    private int level = 0;
+    private int overWindows = 0;
+    private int underWindows = 0;
+    private int upgradeWindows = MIN_UPGRADE_WINDOWS;
+    private int windowsSinceUpgrade = Integer.MAX_VALUE;
+    // The window after a change mixes both levels, so it isn't judged
+    private boolean settling = false;
+
+    private double lastCostMillis = 0;
+    private double lastLoad = 0;
+    private double lastFps = 0;
+    private String lastReason = "initial";
+
+    public QualityGovernor(CameraGLSurfaceView target) {
+        this.target = target;
+        apply();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized void setBudgetMillis(float budgetMillis) {
+        if (budgetMillis > 0) {
+            this.budgetMillis = budgetMillis;
+            resetCounters();
+        }
+    }
+
+    /** Disabling returns to full quality and holds it there. */
+    public void setEnabled(boolean enabled) {
+        synchronized (this) {
+            if (this.enabled == enabled) {
+                return;
+            }
+            this.enabled = enabled;
+        }
+        if (!enabled) {
+            changeLevel(0, "disabled");
+        }
+    }
+
+    /**
+     * Feeds one measurement window. Call right after {@link PipelineTimings#snapshot()}.
+     */
+    public void update(double fps, PipelineTimings timings) {
+        int newLevel;
+        String reason;
+        synchronized (this) {
+            lastFps = fps;
+            double cost = timings.getAverageMillis(PipelineTimings.STAGE_READBACK)
+                    + timings.getAverageMillis(PipelineTimings.STAGE_PROCESS)
+                    + timings.getAverageMillis(PipelineTimings.STAGE_UPLOAD);
+            if (!enabled || cost <= 0) {
+                // Nothing was processed (e.g. processing switched off)
+                return;
+            }
+            lastCostMillis = cost;
+            lastLoad = cost / (budgetMillis * LEVEL_FRAME_SKIP[level]);
+            if (windowsSinceUpgrade < Integer.MAX_VALUE) {
+                windowsSinceUpgrade++;
+            }
+            if (settling) {
+                settling = false;
+                return;
+            }
+
+            if (lastLoad > DEGRADE_LOAD) {
+                underWindows = 0;
+                overWindows++;
+            } else if (lastLoad < UPGRADE_LOAD) {
+                overWindows = 0;
+                underWindows++;
+            } else {
+                overWindows = 0;
+                underWindows = 0;
+            }
+
+            if (overWindows >= DEGRADE_WINDOWS && level < LEVEL_COUNT - 1) {
+                if (windowsSinceUpgrade <= upgradeWindows) {
+                    upgradeWindows = Math.min(upgradeWindows * 2, MAX_UPGRADE_WINDOWS);
+                }
+                newLevel = level + 1;
+                reason = String.format(Locale.US, "over budget: %.1f ms (load %.2f)", cost, lastLoad);
+            } else if (underWindows >= upgradeWindows && level > 0) {
+                newLevel = level - 1;
+                windowsSinceUpgrade = 0;
+                reason = String.format(Locale.US, "headroom: %.1f ms (load %.2f)", cost, lastLoad);
+            } else {
+                return;
+            }
+        }
+        changeLevel(newLevel, reason);
+    }
+
+    private void changeLevel(int newLevel, String reason) {
+        int previousLevel;
+        Listener currentListener;
+        synchronized (this) {
+            previousLevel = level;
+            if (newLevel == previousLevel) {
+                return;
+            }
+            level = newLevel;
+            lastReason = reason;
+            resetCounters();
+            currentListener = listener;
+        }
+        apply();
+        Log.d(TAG, "Level " + previousLevel + " -> " + newLevel + " (" + reason + "): " + describeLevel(newLevel));
+        if (currentListener != null) {
+            currentListener.onLevelChanged(previousLevel, newLevel, reason);
+        }
+    }
+
+    private void resetCounters() {
+        overWindows = 0;
+        underWindows = 0;
+        settling = true;
+    }
+
+    private void apply() {
+        int current = getLevel();
+        target.setQuality(LEVEL_SCALE[current], LEVEL_KERNEL[current], LEVEL_FRAME_SKIP[current]);
+    }
+
+    public synchronized int getLevel() {
+        return level;
+    }
+
+    public synchronized int getScaleDivisor() {
+        return LEVEL_SCALE[level];
+    }
+
+    public synchronized int getKernelLevel() {
+        return LEVEL_KERNEL[level];
+    }
+
+    public synchronized int getFrameSkip() {
+        return LEVEL_FRAME_SKIP[level];
+    }
+
+    public synchronized float getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    public synchronized double getLastCostMillis() {
+        return lastCostMillis;
+    }
+
+    public synchronized double getLastLoad() {
+        return lastLoad;
+    }
+
+    public synchronized double getLastFps() {
+        return lastFps;
+    }
+
+    public synchronized String getLastReason() {
+        return lastReason;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Pipeline spec for a processing mode at a reduced kernel level, or null at
+     * level 0 where the mode's built-in pipeline is used.
+     */
+    public static String pipelineSpec(int mode, int kernelLevel) {
+        if (kernelLevel <= 0) {
+            return null;
+        }
+        switch (mode) {
+            case 1: // Canny: smaller pre-blur
+                return kernelLevel == 1 ? "gray|gauss:3,1.0|canny:50,150" : "gray|canny:60,180";
+            case 2: // Blur
+                return kernelLevel == 1 ? "gauss:9" : "gauss:5";
+            default: // Grayscale and original have no kernel to shrink
+                return null;
+        }
+    }
+
+    private static String describeLevel(int level) {
+        return "scale 1/" + LEVEL_SCALE[level] + ", kernel level " + LEVEL_KERNEL[level]
+                + ", process 1 in " + LEVEL_FRAME_SKIP[level];
+    }
+}
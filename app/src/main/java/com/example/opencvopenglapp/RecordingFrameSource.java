@@ -0,0 +1,64 @@
+package com.example.opencvopenglapp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Replays a {@link FrameRecording}. Frames are handed out as views of the
+ * file mapping, so nothing is copied or read ahead; the page cache does the
+ * I/O. Frames may differ in size and channels, getWidth()/getHeight() follow
+ * the frame being delivered.
+ *
+ * Replays at the frame rate given (0 for as fast as possible) unless original
+ * timing is set, in which case frames keep their recorded gaps.
+ */
+public class RecordingFrameSource extends ThreadedFrameSource {
+    private final FrameRecording recording;
+    private final int frameCount;
+    private boolean looping = false;
+    private volatile int current = 0;
+
+    public RecordingFrameSource(FrameRecording recording, double fps) {
+        super("RecordingReplay");
+        this.recording = recording;
+        frameCount = recording.getFrameCount();
+        setFrameRate(fps);
+    }
+
+    /** Restart from the first frame after the last one. Set before start(). */
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+    }
+
+    public FrameRecording getRecording() {
+        return recording;
+    }
+
+    @Override
+    ByteBuffer nextFrame(long index) {
+        if (!looping && index >= frameCount) {
+            return null;
+        }
+        current = (int) (index % frameCount);
+        return recording.getFrame(current);
+    }
+
+    @Override
+    int frameChannels(long index) {
+        return recording.getChannels((int) (index % frameCount));
+    }
+
+    @Override
+    long recordedTimeNanos(long index) {
+        return recording.getTimestampNanos((int) (index % frameCount));
+    }
+
+    @Override
+    public int getWidth() {
+        return recording.getWidth(current);
+    }
+
+    @Override
+    public int getHeight() {
+        return recording.getHeight(current);
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.opencvopenglapp;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * An ordered list of named full-screen passes connected by named textures.
+ * Each pass reads external textures (such as the camera's) or the outputs of
+ * earlier passes, and renders into a framebuffer taken from a
+ * {@link FramebufferPool}. Intermediates go back to the pool right after their
+ * last reader ran, so a chain of passes only holds as many targets as are
+ * alive at once. The texture written as {@link #OUTPUT} is kept until the
+ * next execute().
+ *
+ * Passes are added once; compile() resolves names to indices so execute()
+ * allocates nothing. GL thread only.
+ */
+public class RenderGraph {
+    private static final String TAG = "RenderGraph";
+
+    public static final String OUTPUT = "output";
+    // Frames per GPU timing log line
+    private static final int TIMING_WINDOW = 120;
+
+    /** Draws one pass into the bound framebuffer, given its input textures in declaration order. */
+    public interface Pass {
+        void draw(RenderGraph graph, int[] inputTextures);
+    }
+
+    private static class Node {
+        String name;
+        Pass pass;
+        String[] inputNames;
+        String outputName;
+        int[] inputs;        // resource indices
+        int output;
+        int[] inputTextures; // filled per frame
+    }
+
+    private final String name;
+    private final FramebufferPool pool;
+    private final ArrayList<Node> nodes = new ArrayList<>();
+
+    // Resources: externals first, then pass outputs
+    private final ArrayList<String> resourceNames = new ArrayList<>();
+    private final int externalCount;
+    private final int[] externalTextures;
+    private FramebufferPool.Framebuffer[] targets;
+    private int[] lastReader;
+    private int outputResource = -1;
+    private boolean compiled = false;
+
+    private GpuTimer timer;
+    private double[] gpuMillis;
+    private int timedFrames = 0;
+    private int width = 0;
+    private int height = 0;
+
+    RenderGraph(String name, FramebufferPool pool, String... externals) {
+        this.name = name;
+        this.pool = pool;
+        for (String external : externals) {
+            resourceNames.add(external);
+        }
+        externalCount = externals.length;
+        externalTextures = new int[externalCount];
+    }
+
+    /** Adds a pass reading the named inputs and writing outputName. */
+    RenderGraph addPass(String passName, String[] inputs, String outputName, Pass pass) {
+        if (compiled) {
+            throw new IllegalStateException("Passes must be added before compile()");
+        }
+        Node node = new Node();
+        node.name = passName;
+        node.pass = pass;
+        node.inputNames = inputs;
+        node.outputName = outputName;
+        nodes.add(node);
+        return this;
+    }
+
+    RenderGraph addPass(String passName, String input, String outputName, Pass pass) {
+        return addPass(passName, new String[] {input}, outputName, pass);
+    }
+
+    /**
+     * Resolves pass inputs to the resources they name and works out when each
+     * intermediate can be recycled. Starts GPU timing where supported.
+     */
+    RenderGraph compile() {
+        for (Node node : nodes) {
+            node.inputs = new int[node.inputNames.length];
+            node.inputTextures = new int[node.inputNames.length];
+            for (int i = 0; i < node.inputNames.length; i++) {
+                int resource = resourceNames.indexOf(node.inputNames[i]);
+                if (resource < 0) {
+                    throw new IllegalArgumentException("Pass " + node.name + " reads unknown texture " + node.inputNames[i]);
+                }
+                node.inputs[i] = resource;
+            }
+            if (resourceNames.indexOf(node.outputName) >= 0) {
+                throw new IllegalArgumentException("Texture " + node.outputName + " is written twice");
+            }
+            resourceNames.add(node.outputName);
+            node.output = resourceNames.size() - 1;
+        }
+        outputResource = resourceNames.indexOf(OUTPUT);
+        if (outputResource < externalCount) {
+            throw new IllegalArgumentException("No pass writes " + OUTPUT);
+        }
+
+        // An output nobody reads is recycled right after its pass
+        lastReader = new int[resourceNames.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            lastReader[nodes.get(i).output] = i;
+            for (int resource : nodes.get(i).inputs) {
+                lastReader[resource] = i;
+            }
+        }
+        targets = new FramebufferPool.Framebuffer[resourceNames.size()];
+
+        timer = GpuTimer.create(nodes.size());
+        gpuMillis = new double[nodes.size()];
+        compiled = true;
+        Log.d(TAG, name + ": " + nodes.size() + " passes" + (timer != null ? ", GPU timed" : ""));
+        return this;
+    }
+
+    /** Binds the texture an external input name refers to for the next execute(). */
+    void setExternal(String externalName, int texture) {
+        for (int i = 0; i < externalCount; i++) {
+            if (resourceNames.get(i).equals(externalName)) {
+                externalTextures[i] = texture;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Unknown external texture " + externalName);
+    }
+
+    /**
+     * Runs every pass at width x height and returns the framebuffer holding
+     * {@link #OUTPUT}. Leaves framebuffer 0 bound; the caller restores its viewport.
+     */
+    FramebufferPool.Framebuffer execute(int width, int height) {
+        releaseOutput();
+        this.width = width;
+        this.height = height;
+        if (timer != null) {
+            timer.beginFrame();
+        }
+
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            for (int j = 0; j < node.inputs.length; j++) {
+                int resource = node.inputs[j];
+                node.inputTextures[j] = resource < externalCount
+                        ? externalTextures[resource] : targets[resource].texture;
+            }
+
+            FramebufferPool.Framebuffer target = pool.acquire(width, height, GLES20.GL_RGBA);
+            targets[node.output] = target;
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, target.framebuffer);
+            GLES20.glViewport(0, 0, width, height);
+
+            if (timer != null) {
+                timer.begin(i);
+            }
+            node.pass.draw(this, node.inputTextures);
+            if (timer != null) {
+                timer.end();
+            }
+
+            // Recycle what nobody reads any more; the output outlives the frame
+            for (int resource = externalCount; resource < targets.length; resource++) {
+                if (targets[resource] != null && resource != outputResource && lastReader[resource] <= i) {
+                    pool.release(targets[resource]);
+                    targets[resource] = null;
+                }
+            }
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+
+        if (timer != null && ++timedFrames >= TIMING_WINDOW) {
+            timedFrames = 0;
+            logGpuTimes();
+        }
+        return targets[outputResource];
+    }
+
+    /** Hands the kept output back to the pool, e.g. when another graph takes over. */
+    void releaseOutput() {
+        if (targets != null && outputResource >= 0 && targets[outputResource] != null) {
+            pool.release(targets[outputResource]);
+            targets[outputResource] = null;
+        }
+    }
+
+    /**
+     * Returns every target to the pool and deletes the timer queries, before
+     * the graph is dropped in a live context. After a context loss the names
+     * are already gone; just drop it.
+     */
+    void release() {
+        if (targets != null) {
+            for (int resource = externalCount; resource < targets.length; resource++) {
+                pool.release(targets[resource]);
+                targets[resource] = null;
+            }
+        }
+        if (timer != null) {
+            timer.release();
+            timer = null;
+        }
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getPassCount() {
+        return nodes.size();
+    }
+
+    String getPassName(int pass) {
+        return nodes.get(pass).name;
+    }
+
+    /** Average GPU time of a pass over the last timing window, or -1 if not measured. */
+    double getPassGpuMillis(int pass) {
+        return timer != null ? gpuMillis[pass] : -1;
+    }
+
+    private void logGpuTimes() {
+        StringBuilder sb = new StringBuilder(name).append(" GPU");
+        for (int i = 0; i < nodes.size(); i++) {
+            gpuMillis[i] = timer.takeAverageMillis(i);
+            sb.append(String.format(Locale.US, ", %s %.2f ms", nodes.get(i).name, gpuMillis[i]));
+        }
+        Log.d(TAG, sb.toString());
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.opencvopenglapp;
+
+import android.opengl.GLES20;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Compiled quad programs keyed by fragment shader source, so every pass and
+ * view that uses the same shader shares one program. With a
+ * {@link ProgramBinaryCache}, programs linked by an earlier context are loaded
+ * as binaries (warm) and only new ones are compiled from source (cold); both
+ * costs are counted. GL thread only.
+ */
+public class ShaderCache {
+    private final HashMap<String, OpenGLRenderer.QuadProgram> programs = new HashMap<>();
+    private ProgramBinaryCache binaryCache;
+
+    // Since the last invalidate(), i.e. for the current context
+    private int warmLoads = 0;
+    private int coldCompiles = 0;
+    private long warmNanos = 0;
+    private long coldNanos = 0;
+
+    /** Binary storage for the current context, or null to always compile. */
+    void setBinaryCache(ProgramBinaryCache binaryCache) {
+        this.binaryCache = binaryCache;
+    }
+
+    /** Returns the program for fragmentSource, loading or compiling it on first use. */
+    OpenGLRenderer.QuadProgram get(String fragmentSource) {
+        OpenGLRenderer.QuadProgram program = programs.get(fragmentSource);
+        if (program != null) {
+            return program;
+        }
+
+        long start = System.nanoTime();
+        int id = binaryCache != null ? binaryCache.load(OpenGLRenderer.VERTEX_SHADER_CODE, fragmentSource) : 0;
+        if (id != 0) {
+            warmLoads++;
+            warmNanos += System.nanoTime() - start;
+        } else {
+            id = OpenGLRenderer.createShaderProgram(fragmentSource, binaryCache != null);
+            coldCompiles++;
+            coldNanos += System.nanoTime() - start;
+            if (id != 0 && binaryCache != null) {
+                binaryCache.store(OpenGLRenderer.VERTEX_SHADER_CODE, fragmentSource, id);
+            }
+        }
+        program = OpenGLRenderer.bindQuadProgram(id);
+        programs.put(fragmentSource, program);
+        return program;
+    }
+
+    int getWarmLoads() {
+        return warmLoads;
+    }
+
+    int getColdCompiles() {
+        return coldCompiles;
+    }
+
+    double getWarmMillis() {
+        return warmNanos / 1_000_000.0;
+    }
+
+    double getColdMillis() {
+        return coldNanos / 1_000_000.0;
+    }
+
+    String describeStats() {
+        return String.format(Locale.US, "programs: %d from binary in %.2f ms, %d compiled in %.2f ms%s",
+                warmLoads, getWarmMillis(), coldCompiles, getColdMillis(),
+                binaryCache == null ? " (no binary cache)" : "");
+    }
+
+    int size() {
+        return programs.size();
+    }
+
+    /** Forgets programs after the context was lost; they died with it. */
+    void invalidate() {
+        programs.clear();
+        binaryCache = null;
+        warmLoads = 0;
+        coldCompiles = 0;
+        warmNanos = 0;
+        coldNanos = 0;
+    }
+
+    /** Deletes every cached program. Needs the owning context current. */
+    void release() {
+        for (OpenGLRenderer.QuadProgram program : programs.values()) {
+            GLES20.glDeleteProgram(program.program);
+        }
+        programs.clear();
+    }
+}
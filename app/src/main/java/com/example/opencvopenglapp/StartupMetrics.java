@@ -0,0 +1,80 @@
+package com.example.opencvopenglapp;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Milestones of a camera start, in ms since {@link #begin()}: the camera
+ * opening and the SurfaceTexture being created run in parallel, the session
+ * is configured once both are done, and the first camera frame ends the
+ * startup. Logged when the first frame arrives.
+ */
+public class StartupMetrics {
+    private static final String TAG = "StartupMetrics";
+
+    public static final int STAGE_CAMERA_OPENED = 0;
+    public static final int STAGE_SURFACE_READY = 1;
+    public static final int STAGE_SESSION_CONFIGURED = 2;
+    public static final int STAGE_FIRST_FRAME = 3;
+    public static final int STAGE_COUNT = 4;
+
+    private static final String[] STAGE_NAMES = {"camera opened", "surface ready", "session configured", "first frame"};
+
+    private long beginNanos = 0;
+    private final long[] stageNanos = new long[STAGE_COUNT];
+    // Lets the per-frame firstFrame() call skip the lock once it has fired
+    private volatile boolean awaitingFirstFrame = false;
+
+    /** Starts a new measurement; earlier milestones are forgotten. */
+    public synchronized void begin() {
+        beginNanos = System.nanoTime();
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            stageNanos[stage] = 0;
+        }
+        awaitingFirstFrame = true;
+    }
+
+    /** Records stage the first time it is reached since begin(). Any thread. */
+    public synchronized void mark(int stage) {
+        if (beginNanos == 0 || stageNanos[stage] != 0) {
+            return;
+        }
+        stageNanos[stage] = System.nanoTime();
+        if (stage == STAGE_FIRST_FRAME) {
+            awaitingFirstFrame = false;
+            Log.d(TAG, toString());
+        }
+    }
+
+    /** For every camera frame; only the first after begin() counts. */
+    public void firstFrame() {
+        if (awaitingFirstFrame) {
+            mark(STAGE_FIRST_FRAME);
+        }
+    }
+
+    /** Milliseconds from begin() to stage, or -1 if it wasn't reached. */
+    public synchronized double getMillis(int stage) {
+        return stageNanos[stage] != 0 ? (stageNanos[stage] - beginNanos) / 1_000_000.0 : -1;
+    }
+
+    public double getTimeToFirstFrameMillis() {
+        return getMillis(STAGE_FIRST_FRAME);
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("startup");
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            double millis = getMillis(stage);
+            sb.append(", ").append(STAGE_NAMES[stage]);
+            sb.append(millis >= 0 ? String.format(Locale.US, " %.1f ms", millis) : " -");
+        }
+        return sb.toString();
+    }
+}
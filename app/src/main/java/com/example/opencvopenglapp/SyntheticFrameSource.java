@@ -0,0 +1,85 @@
+package com.example.opencvopenglapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Generated RGBA frames: the test pattern (white squares over a red, green
+ * and blue gradient) scrolling a few pixels per frame, so consecutive frames
+ * differ the way camera frames do. Needs no camera or file, which makes it
+ * the reference input for throughput runs.
+ */
+public class SyntheticFrameSource extends ThreadedFrameSource {
+    private static final int SQUARE_SIZE = 50;
+    private static final int SCROLL_PIXELS = 4;
+
+    private final int width;
+    private final int height;
+    // One pattern two squares wider than the frame; each frame copies a
+    // window of it, so generating a frame is a row copy per row
+    private final int patternWidth;
+    private final byte[] pattern;
+    private final ByteBuffer frame;
+
+    public SyntheticFrameSource(int width, int height, double fps) {
+        super("SyntheticFrames");
+        this.width = width;
+        this.height = height;
+        setFrameRate(fps);
+        patternWidth = width + 2 * SQUARE_SIZE;
+        pattern = new byte[patternWidth * height * 4];
+        int[] argb = generateTestPattern(patternWidth, height);
+        for (int i = 0; i < argb.length; i++) {
+            pattern[4 * i] = (byte) (argb[i] >> 16);
+            pattern[4 * i + 1] = (byte) (argb[i] >> 8);
+            pattern[4 * i + 2] = (byte) argb[i];
+            pattern[4 * i + 3] = (byte) (argb[i] >>> 24);
+        }
+        frame = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+    }
+
+    /** The pattern as ARGB ints, width x height. */
+    public static int[] generateTestPattern(int width, int height) {
+        int[] pattern = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int index = y * width + x;
+                // Create a more visible test pattern with bright colors
+                int r = 255; // Bright red
+                int g = (x * 255) / width; // Green gradient
+                int b = (y * 255) / height; // Blue gradient
+
+                // Add some geometric patterns to make it more visible
+                if ((x / SQUARE_SIZE + y / SQUARE_SIZE) % 2 == 0) {
+                    pattern[index] = 0xFFFFFFFF; // White squares
+                } else {
+                    pattern[index] = 0xFF000000 | (r << 16) | (g << 8) | b; // Colorful squares
+                }
+            }
+        }
+        return pattern;
+    }
+
+    @Override
+    ByteBuffer nextFrame(long index) {
+        // Squares repeat every two squares, so the window wraps there
+        int offset = (int) ((index * SCROLL_PIXELS) % (2 * SQUARE_SIZE));
+        int rowBytes = width * 4;
+        frame.clear();
+        for (int y = 0; y < height; y++) {
+            frame.put(pattern, (y * patternWidth + offset) * 4, rowBytes);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+}
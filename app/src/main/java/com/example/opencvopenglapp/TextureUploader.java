@@ -0,0 +1,369 @@
+package com.example.opencvopenglapp;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Uploads processed frames into textures on its own thread, with an EGL
+ * context shared with the render context, so a large glTexSubImage2D runs
+ * while the render thread draws instead of in front of it (GLES3 only).
+ *
+ * Handoff between the two contexts goes through a small set of texture slots
+ * and fences, never glFinish:
+ * <ul>
+ * <li>The upload thread fills a free slot, inserts a fence after the upload
+ *     and publishes the slot as ready.</li>
+ * <li>The render thread latches the newest ready slot, makes its GPU queue
+ *     wait on that fence (glWaitSync, the CPU doesn't block) and draws it.</li>
+ * <li>When a newer slot is latched, the render thread fences the old one; the
+ *     upload thread waits for that fence before writing the slot again.</li>
+ * </ul>
+ * A ready slot that is replaced before being drawn is reused (dropped).
+ */
+public class TextureUploader {
+    private static final String TAG = "TextureUploader";
+
+    private static final int SLOT_COUNT = 3;
+    private static final long RELEASE_TIMEOUT_NANOS = 100_000_000L;
+
+    private static final int STATE_FREE = 0;
+    private static final int STATE_UPLOADING = 1;
+    private static final int STATE_READY = 2;
+    private static final int STATE_DISPLAYED = 3;
+
+    private static class Slot {
+        int texture;
+        int width;
+        int height;
+        int channels;
+        int state = STATE_FREE;
+        long readyFence;    // upload finished; set by the upload thread
+        long releaseFence;  // last draw finished; set by the render thread
+        long sequence;
+    }
+
+    private final Slot[] slots = new Slot[SLOT_COUNT];
+    private final HandlerThread thread;
+    private final Handler handler;
+    private volatile boolean ready = false;
+
+    // Upload thread only
+    private EGLDisplay display = EGL14.EGL_NO_DISPLAY;
+    private EGLContext context = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface surface = EGL14.EGL_NO_SURFACE;
+
+    // Guarded by slots
+    private long nextSequence = 1;
+    private int displayedSlot = -1;
+    private long uploaded = 0;
+    private long dropped = 0;
+
+    /**
+     * Starts the upload thread with a context sharing objects with
+     * sharedContext. Call on the render thread, with its context current.
+     */
+    TextureUploader(final EGLContext sharedContext) {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            slots[i] = new Slot();
+        }
+        thread = new HandlerThread("TextureUpload");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                ready = createContext(sharedContext);
+            }
+        });
+    }
+
+    /** True once the shared context is current on the upload thread. */
+    boolean isReady() {
+        return ready;
+    }
+
+    /** Runs task on the upload thread, where {@link #upload} may be called. */
+    void post(Runnable task) {
+        handler.post(task);
+    }
+
+    /**
+     * Upload thread: copies a tightly packed frame with 1 (gray) or 4 (RGBA)
+     * bytes per pixel into a free slot and publishes it for the next draw.
+     */
+    boolean upload(ByteBuffer pixels, int width, int height, int channels) {
+        if (!ready || pixels == null || pixels.capacity() < width * height * channels) {
+            return false;
+        }
+        Slot slot = claimSlot();
+        if (slot.releaseFence != 0) {
+            // The render thread may still be sampling it
+            int status = GLES30.glClientWaitSync(slot.releaseFence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT,
+                    RELEASE_TIMEOUT_NANOS);
+            if (status != GLES30.GL_ALREADY_SIGNALED && status != GLES30.GL_CONDITION_SATISFIED) {
+                // Writing now would tear the frame being drawn: drop this
+                // one and keep the fence for the next upload
+                synchronized (slots) {
+                    slot.state = STATE_FREE;
+                }
+                Log.w(TAG, "Slot still in use after " + RELEASE_TIMEOUT_NANOS / 1_000_000 + " ms, frame dropped");
+                return false;
+            }
+            GLES30.glDeleteSync(slot.releaseFence);
+            slot.releaseFence = 0;
+        }
+        if (slot.readyFence != 0) {
+            GLES30.glDeleteSync(slot.readyFence);
+            slot.readyFence = 0;
+        }
+
+        int format = channels == 1 ? GLES20.GL_LUMINANCE : GLES20.GL_RGBA;
+        if (slot.texture == 0 || slot.width != width || slot.height != height || slot.channels != channels) {
+            allocateTexture(slot, width, height, channels, format);
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, slot.texture);
+        pixels.position(0);
+        if (channels == 1) {
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        }
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, width, height, format, GLES20.GL_UNSIGNED_BYTE, pixels);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        long fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        // The fence must reach the GPU before another context waits on it
+        GLES20.glFlush();
+
+        synchronized (slots) {
+            slot.readyFence = fence;
+            slot.state = STATE_READY;
+            slot.sequence = nextSequence++;
+            uploaded++;
+        }
+        return true;
+    }
+
+    /**
+     * Render thread: switches to the newest uploaded frame, if there is one,
+     * and returns true when the displayed texture changed.
+     */
+    boolean latchLatest() {
+        Slot newest = null;
+        int newestIndex = -1;
+        Slot previous = null;
+        synchronized (slots) {
+            for (int i = 0; i < SLOT_COUNT; i++) {
+                Slot slot = slots[i];
+                if (slot.state == STATE_READY && (newest == null || slot.sequence > newest.sequence)) {
+                    newest = slot;
+                    newestIndex = i;
+                }
+            }
+            if (newest == null) {
+                return false;
+            }
+            if (displayedSlot >= 0) {
+                previous = slots[displayedSlot];
+            }
+            newest.state = STATE_DISPLAYED;
+            displayedSlot = newestIndex;
+        }
+
+        if (previous != null) {
+            // Everything drawn from it so far has been submitted; once this
+            // fence passes the upload thread may overwrite it
+            long releaseFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            GLES20.glFlush();
+            synchronized (slots) {
+                previous.releaseFence = releaseFence;
+                previous.state = STATE_FREE;
+            }
+        }
+        // GPU-side wait: draws issued after this see the finished upload
+        GLES30.glWaitSync(newest.readyFence, 0, GLES30.GL_TIMEOUT_IGNORED);
+        return true;
+    }
+
+    /** Render thread: texture of the latched frame, 0 before the first one. */
+    int getDisplayedTexture() {
+        synchronized (slots) {
+            return displayedSlot >= 0 ? slots[displayedSlot].texture : 0;
+        }
+    }
+
+    int getDisplayedChannels() {
+        synchronized (slots) {
+            return displayedSlot >= 0 ? slots[displayedSlot].channels : 4;
+        }
+    }
+
+    long getUploaded() {
+        synchronized (slots) {
+            return uploaded;
+        }
+    }
+
+    /** Uploaded frames that were replaced by a newer one before being drawn. */
+    long getDropped() {
+        synchronized (slots) {
+            return dropped;
+        }
+    }
+
+    /**
+     * Deletes the slot textures and fences, destroys the upload context and
+     * stops the thread; pending uploads are discarded.
+     */
+    void release() {
+        ready = false;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                deleteSlots();
+                destroyContext();
+            }
+        });
+        thread.quitSafely();
+    }
+
+    // A free slot if there is one, else the newest undisplayed one, which is
+    // then never shown
+    private Slot claimSlot() {
+        synchronized (slots) {
+            Slot claimed = null;
+            for (Slot slot : slots) {
+                if (slot.state == STATE_FREE) {
+                    claimed = slot;
+                    break;
+                }
+            }
+            if (claimed == null) {
+                for (Slot slot : slots) {
+                    if (slot.state == STATE_READY) {
+                        claimed = slot;
+                        dropped++;
+                        break;
+                    }
+                }
+            }
+            // With one slot displayed and one uploading at most, there is always one
+            claimed.state = STATE_UPLOADING;
+            return claimed;
+        }
+    }
+
+    private void allocateTexture(Slot slot, int width, int height, int channels, int format) {
+        if (slot.texture == 0) {
+            int[] ids = new int[1];
+            GLES20.glGenTextures(1, ids, 0);
+            slot.texture = ids[0];
+        }
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, slot.texture);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format, GLES20.GL_UNSIGNED_BYTE, null);
+        slot.width = width;
+        slot.height = height;
+        slot.channels = channels;
+        Log.d(TAG, "Upload texture " + slot.texture + ": " + width + "x" + height + ", " + channels + " channel(s)");
+    }
+
+    private boolean createContext(EGLContext sharedContext) {
+        display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(display, version, 0, version, 1)) {
+            Log.e(TAG, "eglInitialize failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+            return false;
+        }
+        int[] configAttributes = {
+                EGL14.EGL_RENDERABLE_TYPE, EGLExt.EGL_OPENGL_ES3_BIT_KHR,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_NONE};
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] configCount = new int[1];
+        if (!EGL14.eglChooseConfig(display, configAttributes, 0, configs, 0, 1, configCount, 0)
+                || configCount[0] == 0) {
+            Log.e(TAG, "No pbuffer config for the upload context");
+            return false;
+        }
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 3, EGL14.EGL_NONE};
+        context = EGL14.eglCreateContext(display, configs[0], sharedContext, contextAttributes, 0);
+        if (context == null || context == EGL14.EGL_NO_CONTEXT) {
+            Log.e(TAG, "Shared context creation failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+            context = EGL14.EGL_NO_CONTEXT;
+            return false;
+        }
+        // Some drivers won't make a context current without a surface
+        int[] surfaceAttributes = {EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE};
+        surface = EGL14.eglCreatePbufferSurface(display, configs[0], surfaceAttributes, 0);
+        if (!EGL14.eglMakeCurrent(display, surface, surface, context)) {
+            Log.e(TAG, "eglMakeCurrent failed: 0x" + Integer.toHexString(EGL14.eglGetError()));
+            destroyContext();
+            return false;
+        }
+        Log.d(TAG, "Upload context ready (EGL " + version[0] + "." + version[1] + ")");
+        return true;
+    }
+
+    // Upload thread. The render context shares the slot textures and
+    // outlives this one, so they would otherwise stay allocated until it goes
+    private void deleteSlots() {
+        if (context == EGL14.EGL_NO_CONTEXT) {
+            return;
+        }
+        int[] ids = new int[1];
+        synchronized (slots) {
+            for (Slot slot : slots) {
+                if (slot.texture != 0) {
+                    ids[0] = slot.texture;
+                    GLES20.glDeleteTextures(1, ids, 0);
+                    slot.texture = 0;
+                }
+                if (slot.readyFence != 0) {
+                    GLES30.glDeleteSync(slot.readyFence);
+                    slot.readyFence = 0;
+                }
+                if (slot.releaseFence != 0) {
+                    GLES30.glDeleteSync(slot.releaseFence);
+                    slot.releaseFence = 0;
+                }
+                slot.state = STATE_FREE;
+            }
+            displayedSlot = -1;
+        }
+    }
+
+    private void destroyContext() {
+        if (display == EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        if (context != EGL14.EGL_NO_CONTEXT) {
+            EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            EGL14.eglDestroyContext(display, context);
+            context = EGL14.EGL_NO_CONTEXT;
+        }
+        if (surface != EGL14.EGL_NO_SURFACE) {
+            EGL14.eglDestroySurface(display, surface);
+            surface = EGL14.EGL_NO_SURFACE;
+        }
+        EGL14.eglReleaseThread();
+        display = EGL14.EGL_NO_DISPLAY;
+    }
+}
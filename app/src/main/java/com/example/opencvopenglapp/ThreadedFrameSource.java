@@ -0,0 +1,206 @@
+package com.example.opencvopenglapp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base of the CPU frame sources: one thread that waits until the next frame
+ * is due, asks the subclass for it and hands it to the listener. Frames are
+ * due at a fixed frame rate, or at their recorded capture times for sources
+ * that have them (see {@link #recordedTimeNanos}); a frame rate of 0 delivers
+ * as fast as the listener returns, for throughput runs. Frames are numbered
+ * from 0 per start().
+ */
+abstract class ThreadedFrameSource implements FrameSource {
+    private final String threadName;
+    private volatile Listener listener;
+    private volatile boolean running = false;
+    private Thread thread;
+    private long intervalNanos = 0;
+    private boolean recordedTiming = false;
+    private long frameLimit = 0;
+    private volatile long framesDelivered = 0;
+
+    ThreadedFrameSource(String threadName) {
+        this.threadName = threadName;
+    }
+
+    /**
+     * Fills and returns frame index, tightly packed with frameChannels(index)
+     * bytes per pixel at getWidth() x getHeight(), or null when the source has
+     * no more frames. Called on the source thread; the buffer may be reused
+     * for the next frame.
+     */
+    abstract ByteBuffer nextFrame(long index);
+
+    /** 4 for RGBA, 1 for gray. */
+    int frameChannels(long index) {
+        return 4;
+    }
+
+    /**
+     * Capture time of frame index in a recording, on any clock, or -1 when
+     * frames have none; used instead of the frame rate when replaying
+     * original timing. Source thread.
+     */
+    long recordedTimeNanos(long index) {
+        return -1;
+    }
+
+    /** Source thread, after the last frame; releases per-run resources. */
+    void onFinished() {
+    }
+
+    /**
+     * Frames per second to deliver at, 0 for as fast as possible; replaces
+     * original timing. Set before start().
+     */
+    public void setFrameRate(double fps) {
+        intervalNanos = fps > 0 ? (long) (1_000_000_000L / fps) : 0;
+        recordedTiming = false;
+    }
+
+    /**
+     * Delivers frames at the intervals they were recorded at, where the
+     * source has recorded times (otherwise at the frame rate). Set before
+     * start().
+     */
+    public void setOriginalTiming(boolean enabled) {
+        recordedTiming = enabled;
+    }
+
+    /** Stops on its own after count frames; 0 (the default) runs until stop(). */
+    public void setFrameLimit(long count) {
+        frameLimit = Math.max(0, count);
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        framesDelivered = 0;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                deliverFrames();
+            }
+        }, threadName);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread current;
+        synchronized (this) {
+            running = false;
+            current = thread;
+            thread = null;
+        }
+        if (current != null && current != Thread.currentThread()) {
+            LockSupport.unpark(current);
+            joinUninterruptibly(current);
+        }
+    }
+
+    /** Blocks until the source has delivered its last frame (see setFrameLimit) or was stopped. */
+    public void awaitFinished() {
+        Thread current;
+        synchronized (this) {
+            current = thread;
+        }
+        if (current != null) {
+            joinUninterruptibly(current);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isTextureSource() {
+        return false;
+    }
+
+    public long getFramesDelivered() {
+        return framesDelivered;
+    }
+
+    private void deliverFrames() {
+        long index = 0;
+        long dueNanos = System.nanoTime();
+        long previousRecorded = -1;
+        try {
+            while (running && (frameLimit == 0 || index < frameLimit)) {
+                long recorded = recordedTiming ? recordedTimeNanos(index) : -1;
+                if (recorded >= 0) {
+                    // Same gap as in the recording; the first frame, and the
+                    // first after a loop back, are due right away
+                    if (previousRecorded >= 0 && recorded > previousRecorded) {
+                        dueNanos += recorded - previousRecorded;
+                    }
+                    previousRecorded = recorded;
+                }
+                waitUntil(dueNanos);
+                if (!running) {
+                    break;
+                }
+
+                long timestamp = System.nanoTime();
+                ByteBuffer frame = nextFrame(index);
+                if (frame == null) {
+                    break;
+                }
+                Listener current = listener;
+                if (current != null) {
+                    int channels = frameChannels(index);
+                    current.onFrame(frame, getWidth(), getHeight(), getWidth() * channels, channels, timestamp);
+                }
+                framesDelivered = ++index;
+
+                if (recorded < 0 && intervalNanos > 0) {
+                    // Paced from the schedule, not from the end of the last
+                    // frame, so listener time doesn't lower the rate
+                    dueNanos += intervalNanos;
+                }
+                if (dueNanos < System.nanoTime()) {
+                    // Fell behind (or unpaced): don't burst to catch up
+                    dueNanos = System.nanoTime();
+                }
+            }
+        } finally {
+            running = false;
+            onFinished();
+        }
+    }
+
+    private void waitUntil(long dueNanos) {
+        long wait = dueNanos - System.nanoTime();
+        while (wait > 0 && running) {
+            LockSupport.parkNanos(wait);
+            wait = dueNanos - System.nanoTime();
+        }
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
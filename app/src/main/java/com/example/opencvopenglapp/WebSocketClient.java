@@ -23,7 +23,7 @@ public class WebSocketClient extends WebSocketListener {
     private int frameCount = 0;
     private float currentFPS = 0.0f;
     private int processingMode = 0;
-    private long processingTime = 0;
+    private float processingTime = 0;
     
     // Callbacks
     public interface WebSocketCallback {
@@ -71,7 +71,9 @@ public class WebSocketClient extends WebSocketListener {
         isConnected = false;
     }
     
-    public void sendFrameData(int width, int height, float fps, int mode, long procTime) {
+    public void sendFrameData(int width, int height, float fps, int mode, float procTime,
+                              PipelineTimings timings, QualityGovernor governor, FramePacer pacer,
+                              AsyncReadback readback) {
         if (!isConnected || webSocket == null) {
             return;
         }
@@ -85,6 +87,36 @@ public class WebSocketClient extends WebSocketListener {
             frameData.put("fps", fps);
             frameData.put("processingMode", mode);
             frameData.put("processingTime", procTime);
+            if (timings != null) {
+                JSONObject stageTimings = new JSONObject();
+                for (int stage = 0; stage < PipelineTimings.STAGE_COUNT; stage++) {
+                    stageTimings.put(PipelineTimings.getStageName(stage), timings.getAverageMillis(stage));
+                }
+                frameData.put("stageTimings", stageTimings);
+            }
+            if (governor != null) {
+                frameData.put("quality", qualityToJson(governor));
+            }
+            if (pacer != null) {
+                JSONObject pacing = new JSONObject();
+                pacing.put("ready", pacer.getFramesReady());
+                pacing.put("presented", pacer.getFramesPresented());
+                pacing.put("dropped", pacer.getFramesDropped());
+                pacing.put("duplicated", pacer.getFramesDuplicated());
+                pacing.put("vsyncs", pacer.getVsyncs());
+                frameData.put("pacing", pacing);
+            }
+            if (readback != null && readback.getIssued() > 0) {
+                JSONObject readbackStats = new JSONObject();
+                readbackStats.put("issued", readback.getIssued());
+                readbackStats.put("completed", readback.getCompleted());
+                readbackStats.put("latencyMs", readback.getAverageLatencyMillis());
+                readbackStats.put("stalls", readback.getStalls());
+                readbackStats.put("stallMs", readback.getStallMillis());
+                readbackStats.put("dropped", readback.getDropped());
+                frameData.put("readback", readbackStats);
+            }
+            processingTime = procTime;
             
             webSocket.send(frameData.toString());
             
@@ -105,6 +137,39 @@ public class WebSocketClient extends WebSocketListener {
         }
     }
     
+    /** Reports a governor level change as its own message, as soon as it happens. */
+    public void sendQualityChange(int previousLevel, QualityGovernor governor) {
+        if (!isConnected || webSocket == null) {
+            return;
+        }
+        
+        try {
+            JSONObject message = new JSONObject();
+            message.put("type", "quality");
+            message.put("timestamp", System.currentTimeMillis());
+            message.put("previousLevel", previousLevel);
+            message.put("quality", qualityToJson(governor));
+            webSocket.send(message.toString());
+        } catch (JSONException e) {
+            Log.e(TAG, "Error creating quality JSON", e);
+        }
+    }
+    
+    private JSONObject qualityToJson(QualityGovernor governor) throws JSONException {
+        JSONObject quality = new JSONObject();
+        quality.put("enabled", governor.isEnabled());
+        quality.put("level", governor.getLevel());
+        quality.put("levelCount", QualityGovernor.LEVEL_COUNT);
+        quality.put("scaleDivisor", governor.getScaleDivisor());
+        quality.put("kernelLevel", governor.getKernelLevel());
+        quality.put("frameSkip", governor.getFrameSkip());
+        quality.put("budgetMs", governor.getBudgetMillis());
+        quality.put("costMs", governor.getLastCostMillis());
+        quality.put("load", governor.getLastLoad());
+        quality.put("reason", governor.getLastReason());
+        return quality;
+    }
+    
     private void sendStats() {
         if (!isConnected || webSocket == null) {
             return;
@@ -179,7 +244,7 @@ public class WebSocketClient extends WebSocketListener {
         this.processingMode = mode;
     }
     
-    public void setProcessingTime(long time) {
+    public void setProcessingTime(float time) {
         this.processingTime = time;
     }
 }